@@ -47,6 +47,8 @@ public class TradeHistoryProfile
 
     public final String getPlayerName() { return playerName; }
 
+    public final RuneScapeProfileType getType() { return type; }
+
     public final String toString() { return getKeyString(); }
 
     // Returns the string in the form "HASH+TYPE" which is used as a key for data recovery
@@ -77,6 +79,12 @@ public class TradeHistoryProfile
         return this.hash == other.hash && this.type == other.type;
     }
 
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(hash) * 31 + (type == null ? 0 : type.hashCode());
+    }
+
     public static TradeHistoryProfile parse(final String s)
     {
         final String[] parts = s.split("\\+");
@@ -55,10 +55,18 @@ public interface TradeTrackerConfig extends Config
 	)
 	String SECTION_HISTORY_LIMITS = "historyLimits";
 
+	@ConfigSection(
+			name = "Storage",
+			description = "Settings to manage how the trade history is saved",
+			position = 3,
+			closedByDefault = true
+	)
+	String SECTION_STORAGE = "storage";
+
 	@ConfigSection(
 			name = "Debug",
 			description = "For advanced users or submitting bug reports",
-			position = 3,
+			position = 4,
 			closedByDefault = true
 	)
 	String SECTION_DEBUG = "Debug";
@@ -177,4 +185,120 @@ public interface TradeTrackerConfig extends Config
 			position = 3
 	)
 	default int getPurgeHistoryMagnitude() { return 1; }
+
+	@ConfigItem(
+			keyName = ConfigKey.ARCHIVE_REMOVED_TRADES,
+			name = "Archive removed trades",
+			description = "<html><span>Moves trades removed by the history limits to a compressed archive file instead of deleting them</span><br><span>Archived trades can be exported from the menu above the trade history</span>",
+			section = SECTION_HISTORY_LIMITS,
+			position = 4
+	)
+	default boolean archiveRemovedTrades() { return true; }
+
+	@Range (
+			min = 0, max = 1048576
+	)
+	@ConfigItem(
+			keyName = ConfigKey.MAX_HISTORY_KILOBYTES,
+			name = "Maximum history size (KiB)",
+			description = "<html><span>Estimated saved size of the trade history, before compression, at which the oldest trades are removed</span><br><span>Set to 0 for no limit</span>",
+			section = SECTION_HISTORY_LIMITS,
+			position = 5
+	)
+	default int maxHistoryKilobytes() { return 0; }
+
+	@ConfigItem(
+			keyName = ConfigKey.SAVE_JOURNAL,
+			name = "Journal trade changes",
+			description = "<html><span>If enabled, added, removed and edited trades are saved as small changes</span><br><span>which are periodically merged into the full saved history</span>",
+			section = SECTION_STORAGE,
+			position = 1
+	)
+	default boolean useSaveJournal() { return true; }
+
+	@Range (
+			min = 0, max = 60000
+	)
+	@Units(Units.MILLISECONDS)
+	@ConfigItem(
+			keyName = ConfigKey.SAVE_DEBOUNCE,
+			name = "Save delay",
+			description = "<html><span>How long to wait after the last change before saving the trade history,</span><br><span>so that a burst of changes is saved once</span>",
+			section = SECTION_STORAGE,
+			position = 2
+	)
+	default int getSaveDebounceMillis() { return 2000; }
+
+	@Range (
+			min = 0, max = 300000
+	)
+	@Units(Units.MILLISECONDS)
+	@ConfigItem(
+			keyName = ConfigKey.SAVE_MAX_LATENCY,
+			name = "Maximum save delay",
+			description = "The longest a change can wait to be saved while further changes keep delaying the save",
+			section = SECTION_STORAGE,
+			position = 3
+	)
+	default int getSaveMaxLatencyMillis() { return 15000; }
+
+	enum StorageLocation
+	{
+		CONFIG,
+		FILES
+	}
+
+	@ConfigItem(
+			keyName = ConfigKey.STORAGE_LOCATION,
+			name = "Storage location",
+			description = "<html><span>Where trade histories are saved. 'Files' keeps large histories out of the RuneLite config</span><br><span>by saving them in the .runelite/trade-tracker folder. Changing this moves the current history.</span>",
+			section = SECTION_STORAGE,
+			position = 4
+	)
+	default StorageLocation getStorageLocation() { return StorageLocation.CONFIG; }
+
+	@Range (
+			min = 100, max = MAX_HISTORY_COUNT
+	)
+	@ConfigItem(
+			keyName = ConfigKey.LOADED_HISTORY,
+			name = "Trades kept loaded",
+			description = "<html><span>How many of the newest trades are loaded when a profile is restored. Older trades stay saved</span><br><span>and are loaded a month at a time with 'Load older trades' in the profile name's right-click menu</span>",
+			section = SECTION_STORAGE,
+			position = 5
+	)
+	default int getLoadedHistoryCount() { return 1000; }
+
+	@Range (
+			min = 0, max = 1024
+	)
+	@ConfigItem(
+			keyName = ConfigKey.HISTORY_CACHE,
+			name = "Profile cache size (MB)",
+			description = "<html><span>Memory used to keep the histories of other profiles loaded, so that switching between</span><br><span>accounts shows their history straight away. Set to 0 to always load histories when switching.</span>",
+			section = SECTION_STORAGE,
+			position = 6
+	)
+	default int getHistoryCacheMegabytes() { return 32; }
+
+	@Range (
+			min = 0, max = 50
+	)
+	@ConfigItem(
+			keyName = ConfigKey.BACKUP_COUNT,
+			name = "Backups kept",
+			description = "<html><span>How many backups of each history are kept. A backup is taken every few hours, and before a history</span><br><span>is cleared, replaced or restored. Backups share unchanged trades, so they use little more space than one. Set to 0 to disable.</span>",
+			section = SECTION_STORAGE,
+			position = 7
+	)
+	default int getBackupCount() { return 5; }
+
+	@ConfigItem(
+			keyName = ConfigKey.SYNC_CLIENTS,
+			name = "Sync between clients",
+			description = "<html><span>Shares changes to the trade history with other clients on this computer logged into the same account,</span><br><span>so they don't overwrite each other's trades. Should be enabled on every client that shares the history.</span><br><span>Only works when 'Storage location' is set to 'Files', since each client keeps its own copy of the config.</span>",
+			section = SECTION_STORAGE,
+			position = 8
+	)
+	default boolean syncBetweenClients() { return false; }
 }
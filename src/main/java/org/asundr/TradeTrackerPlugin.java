@@ -45,6 +45,7 @@ import net.runelite.client.ui.overlay.OverlayManager;
 import net.runelite.client.util.ImageCapture;
 import org.asundr.recovery.SaveManager;
 import org.asundr.screenshot.ScreenshotUtils;
+import org.asundr.trade.TradeHistoryIndex;
 import org.asundr.trade.TradeManager;
 import org.asundr.ui.GuiUtils;
 import org.asundr.ui.TradeTrackerPluginPanel;
@@ -110,7 +111,7 @@ public class TradeTrackerPlugin extends Plugin
 		SaveManager.restoreCommonData();
 		mainPanel = new TradeTrackerPluginPanel();
 		GuiUtils.initialize(mainPanel);
-		eventSubscribers = Arrays.asList(mainPanel, TradeManager.getInstance(), saveManager);
+		eventSubscribers = Arrays.asList(mainPanel, TradeManager.getInstance(), TradeHistoryIndex.getInstance(), saveManager);
 		eventSubscribers.forEach(e -> eventBus.register(e));
 		if (!config.getAutoLoadLastProfile())
 		{
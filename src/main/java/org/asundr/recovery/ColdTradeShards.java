@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+
+// Tracks the shards of the active profile that are saved but not loaded. Only the newest shards of a profile are read
+// when it is restored, so memory use and restore time don't grow with the size of the history. Older shards are read
+// again when the user asks for them, or when their oldest trades need to be removed.
+// Counts can be read from any thread, while the shards themselves are only changed on the io thread.
+final class ColdTradeShards
+{
+    private String profileKey = null;
+    private final TreeMap<Integer, SaveData_Profile.Shard> shards = new TreeMap<>(Comparator.reverseOrder()); // newest first
+    private int storedCount = 0;   // trades in the shards
+    private long storedBytes = 0;  // estimated encoded size of the trades in the shards
+    private int reservedCount = 0; // oldest trades requested to be removed that the io thread hasn't removed yet
+    private int newestColdShardId = Integer.MIN_VALUE; // months up to this one are cold, later months are loaded
+
+    // Replaces the tracked shards with those left unread when the passed profile was restored
+    synchronized void reset(final String profileKey, final Collection<SaveData_Profile.Shard> shards)
+    {
+        this.profileKey = profileKey;
+        reservedCount = 0;
+        newestColdShardId = Integer.MIN_VALUE;
+        for (final SaveData_Profile.Shard shard : shards)
+        {
+            newestColdShardId = Math.max(newestColdShardId, shard.id);
+        }
+        setShards(shards);
+    }
+
+    // Replaces the tracked shards of the passed profile with the cold months of a manifest, which other clients sharing
+    // the history may have changed since it was restored. Returns true if the tracked shards changed.
+    synchronized boolean refresh(final String profileKey, final Collection<SaveData_Profile.Shard> manifest)
+    {
+        if (!Objects.equals(this.profileKey, profileKey))
+        {
+            return false;
+        }
+        final ArrayList<SaveData_Profile.Shard> coldShards = new ArrayList<>();
+        for (final SaveData_Profile.Shard shard : manifest)
+        {
+            if (shard.id <= newestColdShardId)
+            {
+                coldShards.add(shard);
+            }
+        }
+        if (coldShards.size() == shards.size() && coldShards.stream().allMatch(shard -> isSameShard(shard, shards.get(shard.id))))
+        {
+            return false;
+        }
+        setShards(coldShards);
+        return true;
+    }
+
+    private void setShards(final Collection<SaveData_Profile.Shard> shards)
+    {
+        this.shards.clear();
+        storedCount = 0;
+        storedBytes = 0;
+        for (final SaveData_Profile.Shard shard : shards)
+        {
+            this.shards.put(shard.id, shard);
+            storedCount += shard.count;
+            storedBytes += getEncodedSize(shard);
+        }
+    }
+
+    static boolean isSameShard(final SaveData_Profile.Shard a, final SaveData_Profile.Shard b)
+    {
+        return b != null && a.slot == b.slot && a.count == b.count && a.hash == b.hash;
+    }
+
+    // Returns the cold shards of the passed profile, newest first, or an empty list if it isn't the tracked profile
+    synchronized List<SaveData_Profile.Shard> getShards(final String profileKey)
+    {
+        return Objects.equals(this.profileKey, profileKey) ? new ArrayList<>(shards.values()) : new ArrayList<>();
+    }
+
+    // Returns the cold shard of the passed profile with the passed id, or null if it isn't cold
+    synchronized SaveData_Profile.Shard get(final String profileKey, final int shardId)
+    {
+        return Objects.equals(this.profileKey, profileKey) ? shards.get(shardId) : null;
+    }
+
+    // Number of trades in cold shards, not counting those already requested to be removed
+    synchronized int getTradeCount()
+    {
+        return Math.max(0, storedCount - reservedCount);
+    }
+
+    // Estimated encoded size of the trades in cold shards, not counting those already requested to be removed
+    synchronized long getEncodedSize()
+    {
+        return Math.max(0, storedBytes - getOldestEncodedSize(reservedCount));
+    }
+
+    // Returns how many of the oldest cold trades, after those already requested to be removed, need to be removed to
+    // free at least the passed number of bytes, or all of them if that isn't enough. Trades are assumed to be of the
+    // average size of their shard.
+    synchronized int countOldestToFree(final long bytes)
+    {
+        int skipped = reservedCount;
+        int count = 0;
+        double freed = 0;
+        for (final SaveData_Profile.Shard shard : shards.descendingMap().values())
+        {
+            final int skippedHere = Math.min(skipped, shard.count);
+            skipped -= skippedHere;
+            final int available = shard.count - skippedHere;
+            if (available <= 0)
+            {
+                continue;
+            }
+            final double tradeBytes = (double) getEncodedSize(shard) / shard.count;
+            if (freed + tradeBytes * available >= bytes)
+            {
+                return count + (int) Math.min(available, Math.ceil((bytes - freed) / tradeBytes));
+            }
+            freed += tradeBytes * available;
+            count += available;
+        }
+        return count;
+    }
+
+    // Returns the estimated encoded size of the passed number of the oldest cold trades
+    private long getOldestEncodedSize(int count)
+    {
+        long bytes = 0;
+        for (final SaveData_Profile.Shard shard : shards.descendingMap().values())
+        {
+            if (count <= 0)
+            {
+                break;
+            }
+            final int taken = Math.min(count, shard.count);
+            bytes += getEncodedSize(shard) * taken / Math.max(1, shard.count);
+            count -= taken;
+        }
+        return bytes;
+    }
+
+    // Shards saved before their size was recorded are assumed to hold trades of a typical size
+    private static long getEncodedSize(final SaveData_Profile.Shard shard)
+    {
+        return shard.bytes > 0 ? shard.bytes : (long) shard.count * TradeHistoryCodec.TYPICAL_TRADE_SIZE;
+    }
+
+    // Returns the time of the oldest cold trade, or Long.MAX_VALUE if there are none. Shards saved before their oldest
+    // trade was recorded report the start of their month.
+    synchronized long getOldestTradeTime()
+    {
+        if (shards.isEmpty())
+        {
+            return Long.MAX_VALUE;
+        }
+        final SaveData_Profile.Shard oldest = shards.lastEntry().getValue();
+        if (oldest.first > 0)
+        {
+            return oldest.first;
+        }
+        return LocalDate.of(oldest.id / 100, oldest.id % 100, 1).atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+    }
+
+    // Reserves up to the passed number of the oldest cold trades for removal, returning the number reserved.
+    // The io thread must later call releaseReserved() with the same count once it has removed them.
+    synchronized int reserveOldest(final int count)
+    {
+        final int reserved = Math.min(Math.max(0, count), getTradeCount());
+        reservedCount += reserved;
+        return reserved;
+    }
+
+    synchronized void releaseReserved(final int count)
+    {
+        reservedCount = Math.max(0, reservedCount - count);
+    }
+
+    // Returns the oldest cold shard of the passed profile, or null if there is none
+    synchronized SaveData_Profile.Shard getOldest(final String profileKey)
+    {
+        return Objects.equals(this.profileKey, profileKey) && !shards.isEmpty() ? shards.lastEntry().getValue() : null;
+    }
+
+    // Removes and returns the newest cold shard of the passed profile, or null if there is none
+    synchronized SaveData_Profile.Shard takeNewest(final String profileKey)
+    {
+        if (!Objects.equals(this.profileKey, profileKey) || shards.isEmpty())
+        {
+            return null;
+        }
+        final SaveData_Profile.Shard shard = shards.pollFirstEntry().getValue();
+        newestColdShardId = shard.id - 1;
+        storedCount -= shard.count;
+        storedBytes -= getEncodedSize(shard);
+        return shard;
+    }
+
+    // Replaces a cold shard after some of its trades were removed. A null replacement removes the shard.
+    synchronized void replace(final String profileKey, final int shardId, final SaveData_Profile.Shard replacement)
+    {
+        if (!Objects.equals(this.profileKey, profileKey))
+        {
+            return;
+        }
+        final SaveData_Profile.Shard old = shards.remove(shardId);
+        if (old != null)
+        {
+            storedCount -= old.count;
+            storedBytes -= getEncodedSize(old);
+        }
+        if (replacement != null)
+        {
+            newestColdShardId = Math.max(newestColdShardId, shardId);
+            shards.put(shardId, replacement);
+            storedCount += replacement.count;
+            storedBytes += getEncodedSize(replacement);
+        }
+    }
+}
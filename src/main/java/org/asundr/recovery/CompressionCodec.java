@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+// Identifies how a compressed payload was written. The id is stored as the first byte of the payload so the matching
+// codec can be chosen when it is read back, and must never change once released.
+public enum CompressionCodec
+{
+    NONE(0),    // stored as is
+    DEFLATE(1), // zlib deflate at any level, best ratio
+    LZ(2);      // LzBlockCodec, much faster than deflate at a lower ratio
+
+    final int id;
+
+    CompressionCodec(final int id)
+    {
+        this.id = id;
+    }
+
+    // Returns the codec with the passed header id, or null if it is unknown
+    static CompressionCodec fromId(final int id)
+    {
+        for (final CompressionCodec codec : values())
+        {
+            if (codec.id == id)
+            {
+                return codec;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+// Preset deflate dictionaries that prime the compressor with the text common to serialized trades (field names, the
+// json structure and frequently traded item ids), so even a single small record compresses well. The version used is
+// stored alongside the compressed data, and a released version must keep producing exactly the same bytes or data
+// written with it can no longer be read. For that reason the samples are written here rather than with TradeJsonWriter.
+final class CompressionDictionary
+{
+    static final int NONE = 0;
+    static final int CURRENT_VERSION = 1;
+    private static final int MAX_DICTIONARY_SIZE = 1 << 15; // deflate can only reference the last 32 KB of a dictionary
+
+    // Frequently traded items and their noted ids, most common last since the end of a dictionary is cheapest to reference
+    private static final int[] VERSION_1_ITEMS = {
+            1515, 1516, 1513, 1514, 440, 441, 453, 454, 2357, 2358, 2353, 2354, 1753, 1754, 1751, 1752,
+            536, 537, 532, 533, 383, 384, 385, 386, 379, 380, 7946, 7947, 3024, 3025, 2434, 2435,
+            314, 2, 11212, 892, 9075, 562, 563, 561, 565, 560, 554, 555, 556, 557, 12934, 13204, 995
+    };
+
+    private static byte[] version1 = null;
+
+    // Returns the dictionary with the passed version, or null for NONE
+    static byte[] get(final int version) throws IOException
+    {
+        switch (version)
+        {
+            case NONE:
+                return null;
+            case 1:
+                return getVersion1();
+            default:
+                throw new IOException("Unknown compression dictionary version " + version);
+        }
+    }
+
+    private static synchronized byte[] getVersion1() throws IOException
+    {
+        if (version1 == null)
+        {
+            version1 = buildVersion1();
+        }
+        return version1;
+    }
+
+    // Writes synthetic journal entries of typical trades using a fixed seed. Only integer draws are used so the result is
+    // identical on every jvm. Must not change once released.
+    private static byte[] buildVersion1() throws IOException
+    {
+        final Random random = new Random(0x7472616465L);
+        final StringWriter stringWriter = new StringWriter();
+        long tradeTime = 1_700_000_000L;
+        for (int i = 0; i < 256; ++i)
+        {
+            tradeTime += 30 + random.nextInt(3600);
+            final JsonWriter out = new JsonWriter(stringWriter);
+            out.beginObject();
+            final int op = random.nextInt(8);
+            out.name("op").value(op == 0 ? "REMOVE" : op == 1 ? "NOTE" : "ADD");
+            out.name("tradeTime").value(tradeTime);
+            if (op == 1)
+            {
+                out.name("note").value("note");
+            }
+            else if (op > 1)
+            {
+                out.name("trade");
+                out.beginObject();
+                out.name("tradeTime").value(tradeTime);
+                out.name("tradedPlayer").beginObject().name("tradeName").value("Player " + random.nextInt(16)).endObject();
+                out.name("givenItems");
+                writeSyntheticItems(random, out);
+                out.name("receivedItems");
+                writeSyntheticItems(random, out);
+                out.endObject();
+            }
+            out.endObject();
+            out.flush();
+        }
+        final byte[] samples = stringWriter.toString().getBytes(StandardCharsets.UTF_8);
+        return Arrays.copyOfRange(samples, Math.max(0, samples.length - MAX_DICTIONARY_SIZE), samples.length);
+    }
+
+    private static void writeSyntheticItems(final Random random, final JsonWriter out) throws IOException
+    {
+        out.beginArray();
+        final int roll = random.nextInt(10);
+        if (roll >= 3 && roll < 7)
+        {
+            final boolean platinum = random.nextInt(4) == 0;
+            writeSyntheticItem(out, platinum ? 13204 : 995, 1 + random.nextInt(random.nextBoolean() ? 100_000 : 50_000_000), platinum ? 1000 : 1);
+        }
+        else if (roll >= 7)
+        {
+            final int count = 1 + random.nextInt(4);
+            for (int i = 0; i < count; ++i)
+            {
+                // skewed towards the end of the list
+                final int index = VERSION_1_ITEMS.length - 1 - Math.min(random.nextInt(VERSION_1_ITEMS.length), random.nextInt(VERSION_1_ITEMS.length));
+                writeSyntheticItem(out, VERSION_1_ITEMS[index], 1 + random.nextInt(random.nextBoolean() ? 28 : 10_000), 1 + random.nextInt(5_000));
+            }
+        }
+        out.endArray();
+    }
+
+    private static void writeSyntheticItem(final JsonWriter out, final int id, final int quantity, final int value) throws IOException
+    {
+        out.beginObject();
+        out.name("id").value(id);
+        out.name("num").value(quantity);
+        out.name("ge").value(value);
+        out.endObject();
+    }
+}
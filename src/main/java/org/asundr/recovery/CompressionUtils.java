@@ -27,57 +27,166 @@ package org.asundr.recovery;
 
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Base64;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
 @Slf4j
 public class CompressionUtils
 {
     private final static int BUFFER_SIZE = 1024 * 32;
+    private final static int MAX_POOLED = 4; // saves, loads and exports rarely overlap, so only a few are ever in use at once
+    private final static int MIN_MEASURED_BYTES = 1024 * 16; // smaller payloads are too quick to time reliably
+    private static final ConcurrentLinkedQueue<Deflater> deflaterPool = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<Inflater> inflaterPool = new ConcurrentLinkedQueue<>();
+    private static final ConcurrentLinkedQueue<byte[]> bufferPool = new ConcurrentLinkedQueue<>();
 
-    public static byte[] compress(final String str)
+    // Settings that adaptive compression chooses between, densest first
+    private static final Settings[] ADAPTIVE_CANDIDATES = {
+            Settings.deflate(Deflater.BEST_COMPRESSION),
+            Settings.deflate(Deflater.DEFAULT_COMPRESSION),
+            Settings.deflate(Deflater.BEST_SPEED),
+            Settings.fast()
+    };
+    // Estimated throughput of each adaptive candidate in bytes per millisecond, refined as payloads are compressed
+    private static final double[] adaptiveThroughput = { 8_000, 20_000, 60_000, 250_000 };
+
+    // Describes how a payload is compressed
+    public static final class Settings
     {
-        final byte[] input = str.getBytes();
-        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
-        deflater.setStrategy(Deflater.FILTERED);
-        deflater.setInput(input);
-        deflater.finish();
-        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(input.length);
-        final byte[] buffer = new byte[BUFFER_SIZE];
-        while (!deflater.finished())
+        public final CompressionCodec codec;
+        public final int level; // deflate level, unused by other codecs
+        public final int dictionaryVersion; // preset deflate dictionary from CompressionDictionary, unused by other codecs
+
+        private Settings(final CompressionCodec codec, final int level, final int dictionaryVersion)
         {
-            final int len = deflater.deflate(buffer);
-            byteArrayOutputStream.write(buffer, 0, len);
+            this.codec = codec;
+            this.level = level;
+            this.dictionaryVersion = codec == CompressionCodec.DEFLATE ? dictionaryVersion : CompressionDictionary.NONE;
         }
-        deflater.end();
-        return byteArrayOutputStream.toByteArray();
-    }
 
-    public static String decompress(final byte[] compressed)
-    {
-        final Inflater inflater = new Inflater();
-        inflater.setInput(compressed);
-        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(compressed.length);
-        final byte[] buffer = new byte[BUFFER_SIZE];
-        try
+        public static Settings none() { return new Settings(CompressionCodec.NONE, 0, CompressionDictionary.NONE); }
+        public static Settings fast() { return new Settings(CompressionCodec.LZ, 0, CompressionDictionary.NONE); }
+        public static Settings deflate(final int level) { return new Settings(CompressionCodec.DEFLATE, level, CompressionDictionary.NONE); }
+        public static Settings densest() { return deflate(Deflater.BEST_COMPRESSION); }
+
+        // Returns a copy of these settings that primes deflate with the passed dictionary version
+        public Settings withDictionary(final int dictionaryVersion) { return new Settings(codec, level, dictionaryVersion); }
+
+        // Returns the densest settings expected to compress a payload of the estimated size within the time budget
+        public static Settings adaptive(final long estimatedBytes, final long budgetMillis)
         {
-            while (!inflater.finished())
+            synchronized (adaptiveThroughput)
             {
-                final int len = inflater.inflate(buffer);
-                byteArrayOutputStream.write(buffer, 0, len);
+                for (int i = 0; i < ADAPTIVE_CANDIDATES.length - 1; ++i)
+                {
+                    if (estimatedBytes / adaptiveThroughput[i] <= budgetMillis)
+                    {
+                        return ADAPTIVE_CANDIDATES[i];
+                    }
+                }
             }
+            return ADAPTIVE_CANDIDATES[ADAPTIVE_CANDIDATES.length - 1];
         }
-        catch (Exception e)
+
+        @Override
+        public String toString() { return codec == CompressionCodec.DEFLATE ? codec + "(" + level + ")" : codec.toString(); }
+    }
+
+    // Returns a stream that writes a header byte identifying the codec, then compresses everything written to it into
+    // the passed stream. Closing the returned stream finishes the compressed data and closes the passed stream.
+    public static OutputStream compressingStream(final OutputStream out, final Settings settings) throws IOException
+    {
+        out.write(settings.codec.id);
+        switch (settings.codec)
         {
-            log.error("failed to decompress trade history save data");
+            case DEFLATE:
+                return new MeasuredOutputStream(new PooledDeflaterOutputStream(out, settings.level, CompressionDictionary.get(settings.dictionaryVersion)), settings);
+            case LZ:
+                return new MeasuredOutputStream(new LzBlockCodec.BlockOutputStream(out), settings);
+            default:
+                return out;
         }
-        finally
+    }
+
+    // Returns a stream that reads the header byte written by compressingStream and decompresses the rest of the passed stream
+    public static InputStream decompressingStream(final InputStream in) throws IOException
+    {
+        return decompressingStream(in, CompressionDictionary.NONE);
+    }
+
+    // As above, for data compressed with a preset dictionary. The dictionary version must match the one used to compress.
+    public static InputStream decompressingStream(final InputStream in, final int dictionaryVersion) throws IOException
+    {
+        final int header = in.read();
+        if (header < 0)
         {
-            inflater.end();
+            throw new EOFException("Compressed data is empty");
+        }
+        final CompressionCodec codec = CompressionCodec.fromId(header);
+        if (codec == null)
+        {
+            throw new ZipException("Unknown compression codec " + header);
+        }
+        switch (codec)
+        {
+            case DEFLATE:
+                return new PooledInflaterInputStream(in, CompressionDictionary.get(dictionaryVersion));
+            case LZ:
+                return new LzBlockCodec.BlockInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    // Returns a stream that inflates deflate data without a codec header, as written by save versions before 4.
+    // Truncated or corrupt data raises an exception rather than ending the stream early.
+    public static InputStream inflatingStream(final InputStream in)
+    {
+        return new PooledInflaterInputStream(in, null);
+    }
+
+    public static byte[] compress(final String str)
+    {
+        return compress(str.getBytes());
+    }
+
+    // Deflates the passed bytes without a codec header
+    public static byte[] compress(final byte[] input)
+    {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(input.length);
+        try (final OutputStream out = new PooledDeflaterOutputStream(byteArrayOutputStream, Deflater.BEST_COMPRESSION, null))
+        {
+            out.write(input);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e); // writing to memory does not fail
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    public static String decompress(final byte[] compressed) throws IOException
+    {
+        return new String(decompressBytes(compressed));
+    }
+
+    // Inflates bytes written by compress(), throwing if they are truncated or corrupt
+    public static byte[] decompressBytes(final byte[] compressed) throws IOException
+    {
+        try (final InputStream in = inflatingStream(new ByteArrayInputStream(compressed)))
+        {
+            return in.readAllBytes();
         }
-        return byteArrayOutputStream.toString();
     }
 
     // Compresses the passed string, then encodes in Base64. ~16% of original size
@@ -86,10 +195,337 @@ public class CompressionUtils
         return Base64.getEncoder().encodeToString(compress(str));
     }
 
+    // Compresses the passed bytes, then encodes in Base64
+    public static String compressToEncode(final byte[] bytes)
+    {
+        return Base64.getEncoder().encodeToString(compress(bytes));
+    }
+
+    // Compresses the passed bytes with the passed settings, including the codec header, then encodes in Base64
+    public static String compressToEncode(final byte[] bytes, final Settings settings)
+    {
+        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(bytes.length);
+        try (final OutputStream out = compressingStream(byteArrayOutputStream, settings))
+        {
+            out.write(bytes);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e); // writing to memory does not fail
+        }
+        return Base64.getEncoder().encodeToString(byteArrayOutputStream.toByteArray());
+    }
+
+    // Given bytes encoded by compressToEncode(bytes, settings) with the passed dictionary version, returns the original bytes
+    public static byte[] decompressBytesFromEncode(final String encoded, final int dictionaryVersion) throws IOException
+    {
+        try (final InputStream in = decompressingStream(new ByteArrayInputStream(Base64.getDecoder().decode(encoded)), dictionaryVersion))
+        {
+            return in.readAllBytes();
+        }
+    }
+
     // Given a compressed string encoded in Base64, returns the original string
-    public static String decompressFromEncode(final String compressed)
+    public static String decompressFromEncode(final String compressed) throws IOException
     {
         return decompress(Base64.getDecoder().decode(compressed));
     }
 
+    // Given compressed bytes encoded in Base64, returns the original bytes
+    public static byte[] decompressBytesFromEncode(final String compressed) throws IOException
+    {
+        return decompressBytes(Base64.getDecoder().decode(compressed));
+    }
+
+    private static Deflater acquireDeflater(final int level)
+    {
+        final Deflater deflater = deflaterPool.poll();
+        if (deflater == null)
+        {
+            return new Deflater(level);
+        }
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    private static void releaseDeflater(final Deflater deflater)
+    {
+        deflater.reset();
+        if (deflaterPool.size() < MAX_POOLED)
+        {
+            deflaterPool.offer(deflater);
+        }
+        else
+        {
+            deflater.end();
+        }
+    }
+
+    private static Inflater acquireInflater()
+    {
+        final Inflater inflater = inflaterPool.poll();
+        return inflater == null ? new Inflater() : inflater;
+    }
+
+    private static void releaseInflater(final Inflater inflater)
+    {
+        inflater.reset();
+        if (inflaterPool.size() < MAX_POOLED)
+        {
+            inflaterPool.offer(inflater);
+        }
+        else
+        {
+            inflater.end();
+        }
+    }
+
+    private static byte[] acquireBuffer()
+    {
+        final byte[] buffer = bufferPool.poll();
+        return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+    }
+
+    private static void releaseBuffer(final byte[] buffer)
+    {
+        if (bufferPool.size() < MAX_POOLED)
+        {
+            bufferPool.offer(buffer);
+        }
+    }
+
+    // Updates the throughput estimate of the passed settings if they are an adaptive candidate
+    private static void recordThroughput(final Settings settings, final long bytes, final long nanos)
+    {
+        if (bytes < MIN_MEASURED_BYTES || nanos <= 0)
+        {
+            return;
+        }
+        final double measured = bytes * 1_000_000.0 / nanos;
+        synchronized (adaptiveThroughput)
+        {
+            for (int i = 0; i < ADAPTIVE_CANDIDATES.length; ++i)
+            {
+                if (ADAPTIVE_CANDIDATES[i].codec == settings.codec && ADAPTIVE_CANDIDATES[i].level == settings.level)
+                {
+                    adaptiveThroughput[i] = adaptiveThroughput[i] * 0.75 + measured * 0.25;
+                    return;
+                }
+            }
+        }
+    }
+
+    // Deflates into the passed stream using a pooled deflater and buffer, which are returned to the pool on close
+    private static final class PooledDeflaterOutputStream extends OutputStream
+    {
+        private final OutputStream out;
+        private final Deflater deflater;
+        private final byte[] buffer = acquireBuffer();
+        private final byte[] single = new byte[1];
+        private boolean closed = false;
+
+        PooledDeflaterOutputStream(final OutputStream out, final int level, final byte[] dictionary)
+        {
+            this.out = out;
+            this.deflater = acquireDeflater(level);
+            if (dictionary != null)
+            {
+                deflater.setDictionary(dictionary);
+            }
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException
+        {
+            if (closed)
+            {
+                throw new IOException("Stream closed");
+            }
+            deflater.setInput(bytes, offset, length);
+            while (!deflater.needsInput())
+            {
+                final int count = deflater.deflate(buffer);
+                if (count > 0)
+                {
+                    out.write(buffer, 0, count);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            try
+            {
+                deflater.finish();
+                while (!deflater.finished())
+                {
+                    final int count = deflater.deflate(buffer);
+                    out.write(buffer, 0, count);
+                }
+            }
+            finally
+            {
+                releaseDeflater(deflater);
+                releaseBuffer(buffer);
+                out.close();
+            }
+        }
+    }
+
+    // Inflates the passed stream using a pooled inflater and buffer, which are returned to the pool on close
+    private static final class PooledInflaterInputStream extends InputStream
+    {
+        private final InputStream in;
+        private final byte[] dictionary;
+        private final Inflater inflater = acquireInflater();
+        private final byte[] buffer = acquireBuffer();
+        private final byte[] single = new byte[1];
+        private boolean closed = false;
+
+        PooledInflaterInputStream(final InputStream in, final byte[] dictionary)
+        {
+            this.in = in;
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException
+        {
+            if (closed)
+            {
+                throw new IOException("Stream closed");
+            }
+            if (length == 0)
+            {
+                return 0;
+            }
+            while (!inflater.finished())
+            {
+                final int count;
+                try
+                {
+                    count = inflater.inflate(bytes, offset, length);
+                }
+                catch (DataFormatException e)
+                {
+                    throw new ZipException("Corrupt compressed data: " + e.getMessage());
+                }
+                if (count > 0)
+                {
+                    return count;
+                }
+                if (inflater.needsDictionary())
+                {
+                    if (dictionary == null)
+                    {
+                        throw new ZipException("Compressed data requires a dictionary");
+                    }
+                    try
+                    {
+                        inflater.setDictionary(dictionary);
+                    }
+                    catch (IllegalArgumentException e)
+                    {
+                        throw new ZipException("Compressed data was written with a different dictionary");
+                    }
+                    continue;
+                }
+                if (inflater.needsInput())
+                {
+                    final int read = in.read(buffer);
+                    if (read < 0)
+                    {
+                        throw new EOFException("Unexpected end of compressed data");
+                    }
+                    inflater.setInput(buffer, 0, read);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            releaseInflater(inflater);
+            releaseBuffer(buffer);
+            in.close();
+        }
+    }
+
+    // Times the writes made to a compressing stream so adaptive compression can learn the throughput of each setting
+    private static final class MeasuredOutputStream extends OutputStream
+    {
+        private final OutputStream out;
+        private final Settings settings;
+        private long bytes = 0L;
+        private long nanos = 0L;
+
+        MeasuredOutputStream(final OutputStream out, final Settings settings)
+        {
+            this.out = out;
+            this.settings = settings;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            final long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+            ++bytes;
+        }
+
+        @Override
+        public void write(final byte[] b, final int offset, final int length) throws IOException
+        {
+            final long start = System.nanoTime();
+            out.write(b, offset, length);
+            nanos += System.nanoTime() - start;
+            bytes += length;
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            final long start = System.nanoTime();
+            out.close();
+            recordThroughput(settings, bytes, nanos + System.nanoTime() - start);
+        }
+    }
 }
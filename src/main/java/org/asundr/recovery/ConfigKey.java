@@ -39,4 +39,14 @@ public final class ConfigKey
     public static final String PURGE_HISTORY_TYPE = "purgeHistoryType";
     public static final String PURGE_HISTORY_MAGNITUDE = "purgeHistoryMagnitude";
     public static final String SCHEDULED_PURGE = "SchedulePurge";
+    public static final String SAVE_JOURNAL = "useSaveJournal";
+    public static final String SAVE_DEBOUNCE = "saveDebounceMillis";
+    public static final String SAVE_MAX_LATENCY = "saveMaxLatencyMillis";
+    public static final String STORAGE_LOCATION = "storageLocation";
+    public static final String LOADED_HISTORY = "loadedHistoryCount";
+    public static final String HISTORY_CACHE = "historyCacheMegabytes";
+    public static final String BACKUP_COUNT = "backupCount";
+    public static final String ARCHIVE_REMOVED_TRADES = "archiveRemovedTrades";
+    public static final String MAX_HISTORY_KILOBYTES = "maxHistoryKilobytes";
+    public static final String SYNC_CLIENTS = "syncBetweenClients";
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import net.runelite.client.config.ConfigManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// Stores records as values of the plugin's config group. Blobs are Base64 encoded since config values are strings.
+final class ConfigTradeHistoryStore implements TradeHistoryStore
+{
+    private final ConfigManager configManager;
+    private final String group;
+
+    ConfigTradeHistoryStore(final ConfigManager configManager, final String group)
+    {
+        this.configManager = configManager;
+        this.group = group;
+    }
+
+    @Override
+    public String readText(final String key)
+    {
+        return configManager.getConfiguration(group, key);
+    }
+
+    // Values that are unchanged aren't written, so the config isn't flushed for nothing
+    @Override
+    public void writeText(final String key, final String value)
+    {
+        if (!value.equals(configManager.getConfiguration(group, key)))
+        {
+            configManager.setConfiguration(group, key, value);
+        }
+    }
+
+    @Override
+    public InputStream openBlob(final String key)
+    {
+        final String value = configManager.getConfiguration(group, key);
+        if (value == null)
+        {
+            return null;
+        }
+        return Base64.getDecoder().wrap(new ByteArrayInputStream(value.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Override
+    public void writeBlob(final String key, final BlobWriter writer) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out);
+        configManager.setConfiguration(group, key, Base64.getEncoder().encodeToString(out.toByteArray()));
+    }
+
+    @Override
+    public void remove(final String key)
+    {
+        if (configManager.getConfiguration(group, key) != null)
+        {
+            configManager.unsetConfiguration(group, key);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Stores each record as a file in a directory, which keeps large histories out of the RuneLite config. Writes go to a
+// temporary file that is flushed to disk and then renamed over the record, so a crash leaves either the old or the new
+// record. Large blobs can optionally be memory mapped when read instead of being copied onto the heap.
+final class FileTradeHistoryStore implements TradeHistoryStore
+{
+    private static final String TEXT_EXTENSION = ".txt";
+    private static final String BLOB_EXTENSION = ".bin";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int MAP_THRESHOLD = 1 << 20; // smaller blobs are cheaper to read than to map
+    private static final int BUFFER_SIZE = 1024 * 8;
+    private final Path directory;
+    private final boolean useMemoryMapping;
+
+    FileTradeHistoryStore(final Path directory, final boolean useMemoryMapping)
+    {
+        this.directory = directory;
+        this.useMemoryMapping = useMemoryMapping;
+    }
+
+    @Override
+    public String readText(final String key) throws IOException
+    {
+        try
+        {
+            return new String(Files.readAllBytes(getPath(key, TEXT_EXTENSION)), StandardCharsets.UTF_8);
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public void writeText(final String key, final String value) throws IOException
+    {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeAtomically(getPath(key, TEXT_EXTENSION), out -> out.write(bytes));
+    }
+
+    @Override
+    public InputStream openBlob(final String key) throws IOException
+    {
+        final Path path = getPath(key, BLOB_EXTENSION);
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+            {
+                throw new IOException("Trade history record is too large: " + path.getFileName());
+            }
+            if (useMemoryMapping && size >= MAP_THRESHOLD)
+            {
+                // the mapping stays valid after the channel is closed
+                return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+            {
+                // read until full
+            }
+            return new ByteArrayInputStream(buffer.array(), 0, buffer.position());
+        }
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public void writeBlob(final String key, final BlobWriter writer) throws IOException
+    {
+        writeAtomically(getPath(key, BLOB_EXTENSION), writer);
+    }
+
+    @Override
+    public void remove(final String key) throws IOException
+    {
+        Files.deleteIfExists(getPath(key, TEXT_EXTENSION));
+        Files.deleteIfExists(getPath(key, BLOB_EXTENSION));
+    }
+
+    private void writeAtomically(final Path path, final BlobWriter writer) throws IOException
+    {
+        Files.createDirectories(directory);
+        final Path temp = path.resolveSibling(path.getFileName() + TEMP_EXTENSION);
+        try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            // the writer may close the stream it is given, which must not close the channel before it is forced
+            final OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            writer.write(new FilterOutputStream(out)
+            {
+                @Override public void write(final byte[] bytes, final int offset, final int length) throws IOException { out.write(bytes, offset, length); }
+                @Override public void close() throws IOException { out.flush(); }
+            });
+            out.flush();
+            channel.force(true);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try
+        {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Keys are made of a profile key and a suffix, but are sanitized anyway so they can never leave the directory
+    private Path getPath(final String key, final String extension)
+    {
+        return directory.resolve(key.replaceAll("[^A-Za-z0-9+_.-]", "_") + extension);
+    }
+
+    private static final class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length)
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            if (!buffer.hasRemaining())
+            {
+                return -1;
+            }
+            final int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+}
@@ -28,53 +28,109 @@ package org.asundr.recovery;
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.io.*;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
 
 class FileUtils
 {
     final static String FILE_EXTENSION_PROFILE_HISTORY = "rtth";
     final static String FILE_DESCRIPTION_PROFILE_HISTORY = "RuneLite Trade Tracker history";
 
-    public static void writeStringToFile(final String defaultFileName, final String str)
+    // Asks the user where to save a profile history, returning null if they cancel
+    public static File chooseSaveFile(final String defaultFileName)
+    {
+        return chooseSaveFile(defaultFileName, FILE_EXTENSION_PROFILE_HISTORY, FILE_DESCRIPTION_PROFILE_HISTORY);
+    }
+
+    // Asks the user where to save a file of the passed type, returning null if they cancel
+    public static File chooseSaveFile(final String defaultFileName, final String extension, final String description)
     {
         final JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setSelectedFile(new File(defaultFileName + "." + FILE_EXTENSION_PROFILE_HISTORY));
-        final FileNameExtensionFilter filter = new FileNameExtensionFilter(FILE_DESCRIPTION_PROFILE_HISTORY, FILE_EXTENSION_PROFILE_HISTORY);
+        fileChooser.setSelectedFile(new File(defaultFileName + "." + extension));
+        final FileNameExtensionFilter filter = new FileNameExtensionFilter(description, extension);
         fileChooser.setFileFilter(filter);
         final int returnValue = fileChooser.showSaveDialog(null);
-        if (returnValue == JFileChooser.APPROVE_OPTION)
-        {
-            final File selectedFile = fileChooser.getSelectedFile();
-            try (final BufferedWriter writer = new BufferedWriter(new FileWriter(selectedFile)))
-            {
-                writer.write(str);
-            }
-            catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+        return returnValue == JFileChooser.APPROVE_OPTION ? fileChooser.getSelectedFile() : null;
+    }
+
+    // Asks the user for a profile history to import, returning null if they cancel
+    public static File chooseOpenFile(final String defaultFileName)
+    {
+        return chooseOpenFile(defaultFileName, FILE_EXTENSION_PROFILE_HISTORY, FILE_DESCRIPTION_PROFILE_HISTORY);
     }
 
-    public static String readStringFromFile(final String defaultFileName)
+    // Asks the user for a file of the passed type to open, returning null if they cancel
+    public static File chooseOpenFile(final String defaultFileName, final String extension, final String description)
     {
         final JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setSelectedFile(new File(defaultFileName + "." + FILE_EXTENSION_PROFILE_HISTORY));
-        final FileNameExtensionFilter filter = new FileNameExtensionFilter(FILE_DESCRIPTION_PROFILE_HISTORY, FILE_EXTENSION_PROFILE_HISTORY);
+        fileChooser.setSelectedFile(new File(defaultFileName + "." + extension));
+        final FileNameExtensionFilter filter = new FileNameExtensionFilter(description, extension);
         fileChooser.setFileFilter(filter);
         final int returnValue = fileChooser.showOpenDialog(null);
-        if (returnValue == JFileChooser.APPROVE_OPTION) {
-            final File selectedFile = fileChooser.getSelectedFile();
-            final StringBuilder jsonString = new StringBuilder();
-            try (final BufferedReader reader = new BufferedReader(new FileReader(selectedFile)))
+        return returnValue == JFileChooser.APPROVE_OPTION ? fileChooser.getSelectedFile() : null;
+    }
+
+    enum ImportMode
+    {
+        MERGE,
+        REPLACE
+    }
+
+    // Asks the user whether an imported history should be merged into the current one, returning null if they cancel
+    public static ImportMode chooseImportMode()
+    {
+        final String[] options = {"Merge", "Replace", "Cancel"};
+        final int choice = JOptionPane.showOptionDialog(
+                null,
+                "Merge the imported trades into the current history, or replace the current history with them?",
+                "Import trade history",
+                JOptionPane.YES_NO_CANCEL_OPTION,
+                JOptionPane.QUESTION_MESSAGE,
+                null,
+                options,
+                options[0]
+        );
+        switch (choice)
+        {
+            case 0:
+                return ImportMode.MERGE;
+            case 1:
+                return ImportMode.REPLACE;
+            default:
+                return null;
+        }
+    }
+
+    // Asks the user which backup of a history to restore, newest first, returning null if they cancel or there are none
+    public static ProfileBackups.Generation chooseBackup(final List<ProfileBackups.Generation> generations)
+    {
+        if (generations.isEmpty())
+        {
+            JOptionPane.showMessageDialog(null, "There are no backups of this trade history yet.", "Restore backup", JOptionPane.INFORMATION_MESSAGE);
+            return null;
+        }
+        final DateFormat format = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
+        final String[] options = new String[generations.size()];
+        for (int i = 0; i < options.length; ++i)
+        {
+            final ProfileBackups.Generation generation = generations.get(options.length - 1 - i);
+            options[i] = format.format(new Date(generation.time)) + " - " + generation.tradeCount + (generation.tradeCount == 1 ? " trade" : " trades");
+        }
+        final Object choice = JOptionPane.showInputDialog(
+                null,
+                "Replace the current history with the backup taken on:",
+                "Restore backup",
+                JOptionPane.QUESTION_MESSAGE,
+                null,
+                options,
+                options[0]
+        );
+        for (int i = 0; i < options.length; ++i)
+        {
+            if (options[i] == choice)
             {
-                String line;
-                while ((line = reader.readLine()) != null)
-                {
-                    jsonString.append(line);
-                }
-                return jsonString.toString();
-            }
-            catch (Exception e) {
-                e.printStackTrace();
+                return generations.get(options.length - 1 - i);
             }
         }
         return null;
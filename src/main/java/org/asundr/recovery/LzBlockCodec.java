@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// A small pure java LZ77 codec in the style of the LZ4 block format. Data is split into independent blocks, each
+// written as a varint raw length and varint stored length followed by the block. A block that does not compress is
+// stored as is, which is signalled by the stored length equalling the raw length. A raw length of 0 ends the stream.
+final class LzBlockCodec
+{
+    static final int BLOCK_SIZE = 1 << 16;
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;     // the end of a block is always literals so matches never run past it
+    private static final int MATCH_SEARCH_LIMIT = 12;
+    private static final int MAX_OFFSET = (1 << 16) - 1;
+    private static final int HASH_BITS = 12;
+
+    // Returns the largest size a block of the passed length can compress to
+    static int maxCompressedLength(final int length)
+    {
+        return length + length / 255 + 16;
+    }
+
+    // Compresses src[0, length) into dst, returning the number of bytes written. The hash table is reused between calls.
+    static int compressBlock(final byte[] src, final int length, final byte[] dst, final int[] hashTable)
+    {
+        Arrays.fill(hashTable, -1);
+        int srcPos = 0;
+        int anchor = 0;
+        int dstPos = 0;
+        final int matchEnd = length - LAST_LITERALS;
+        while (srcPos < length - MATCH_SEARCH_LIMIT)
+        {
+            final int sequence = readInt(src, srcPos);
+            final int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            final int ref = hashTable[hash];
+            hashTable[hash] = srcPos;
+            if (ref < 0 || srcPos - ref > MAX_OFFSET || readInt(src, ref) != sequence)
+            {
+                ++srcPos;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (srcPos + matchLength < matchEnd && src[ref + matchLength] == src[srcPos + matchLength])
+            {
+                ++matchLength;
+            }
+            dstPos = writeSequence(src, anchor, srcPos - anchor, dst, dstPos, srcPos - ref, matchLength);
+            srcPos += matchLength;
+            anchor = srcPos;
+        }
+        return writeSequence(src, anchor, length - anchor, dst, dstPos, 0, 0);
+    }
+
+    // Decompresses src[0, length) into dst, returning the number of bytes written
+    static int decompressBlock(final byte[] src, final int length, final byte[] dst) throws IOException
+    {
+        int srcPos = 0;
+        int dstPos = 0;
+        while (srcPos < length)
+        {
+            final int token = src[srcPos++] & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == 15)
+            {
+                int b;
+                do
+                {
+                    checkBounds(srcPos < length);
+                    b = src[srcPos++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            checkBounds(srcPos + literalLength <= length && dstPos + literalLength <= dst.length);
+            System.arraycopy(src, srcPos, dst, dstPos, literalLength);
+            srcPos += literalLength;
+            dstPos += literalLength;
+            if (srcPos == length)
+            {
+                break; // the last sequence has no match
+            }
+            checkBounds(srcPos + 2 <= length);
+            final int offset = (src[srcPos] & 0xFF) | (src[srcPos + 1] & 0xFF) << 8;
+            srcPos += 2;
+            int matchLength = token & 0xF;
+            if (matchLength == 15)
+            {
+                int b;
+                do
+                {
+                    checkBounds(srcPos < length);
+                    b = src[srcPos++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            checkBounds(offset > 0 && offset <= dstPos && dstPos + matchLength <= dst.length);
+            // copied a byte at a time since the match may overlap the bytes it produces
+            for (int i = 0; i < matchLength; ++i, ++dstPos)
+            {
+                dst[dstPos] = dst[dstPos - offset];
+            }
+        }
+        return dstPos;
+    }
+
+    private static int writeSequence(final byte[] src, final int literalStart, final int literalLength, final byte[] dst, int dstPos, final int offset, final int matchLength)
+    {
+        final int tokenPos = dstPos++;
+        int token = Math.min(literalLength, 15) << 4;
+        dstPos = writeLength(dst, dstPos, literalLength);
+        System.arraycopy(src, literalStart, dst, dstPos, literalLength);
+        dstPos += literalLength;
+        if (matchLength > 0)
+        {
+            dst[dstPos++] = (byte) offset;
+            dst[dstPos++] = (byte) (offset >>> 8);
+            token |= Math.min(matchLength - MIN_MATCH, 15);
+            dstPos = writeLength(dst, dstPos, matchLength - MIN_MATCH);
+        }
+        dst[tokenPos] = (byte) token;
+        return dstPos;
+    }
+
+    // Writes the part of a length that does not fit in its token nibble
+    private static int writeLength(final byte[] dst, int dstPos, final int length)
+    {
+        if (length < 15)
+        {
+            return dstPos;
+        }
+        int remaining = length - 15;
+        while (remaining >= 255)
+        {
+            dst[dstPos++] = (byte) 255;
+            remaining -= 255;
+        }
+        dst[dstPos++] = (byte) remaining;
+        return dstPos;
+    }
+
+    private static int readInt(final byte[] bytes, final int pos)
+    {
+        return (bytes[pos] & 0xFF) | (bytes[pos + 1] & 0xFF) << 8 | (bytes[pos + 2] & 0xFF) << 16 | (bytes[pos + 3] & 0xFF) << 24;
+    }
+
+    private static void checkBounds(final boolean valid) throws IOException
+    {
+        if (!valid)
+        {
+            throw new IOException("Malformed compressed block");
+        }
+    }
+
+    // Compresses everything written to it into the passed stream in blocks. Closing finishes the stream and closes the passed stream.
+    static final class BlockOutputStream extends OutputStream
+    {
+        private final OutputStream out;
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+        private final int[] hashTable = new int[1 << HASH_BITS];
+        private int blockLength = 0;
+        private boolean closed = false;
+
+        BlockOutputStream(final OutputStream out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            if (blockLength == BLOCK_SIZE)
+            {
+                writeBlock();
+            }
+            block[blockLength++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] bytes, int offset, int length) throws IOException
+        {
+            while (length > 0)
+            {
+                if (blockLength == BLOCK_SIZE)
+                {
+                    writeBlock();
+                }
+                final int count = Math.min(length, BLOCK_SIZE - blockLength);
+                System.arraycopy(bytes, offset, block, blockLength, count);
+                blockLength += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            try
+            {
+                writeBlock();
+                TradeHistoryCodec.writeVarLong(out, 0);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+
+        private void writeBlock() throws IOException
+        {
+            if (blockLength == 0)
+            {
+                return;
+            }
+            final int compressedLength = compressBlock(block, blockLength, compressed, hashTable);
+            TradeHistoryCodec.writeVarLong(out, blockLength);
+            if (compressedLength < blockLength)
+            {
+                TradeHistoryCodec.writeVarLong(out, compressedLength);
+                out.write(compressed, 0, compressedLength);
+            }
+            else
+            {
+                TradeHistoryCodec.writeVarLong(out, blockLength);
+                out.write(block, 0, blockLength);
+            }
+            blockLength = 0;
+        }
+    }
+
+    // Reads a stream written by BlockOutputStream
+    static final class BlockInputStream extends InputStream
+    {
+        private final InputStream in;
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] compressed = new byte[maxCompressedLength(BLOCK_SIZE)];
+        private int blockLength = 0;
+        private int position = 0;
+        private boolean finished = false;
+
+        BlockInputStream(final InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (!fill())
+            {
+                return -1;
+            }
+            return block[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) throws IOException
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            if (!fill())
+            {
+                return -1;
+            }
+            final int count = Math.min(length, blockLength - position);
+            System.arraycopy(block, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+
+        // Reads the next block if the current one is used up. Returns false at the end of the stream.
+        private boolean fill() throws IOException
+        {
+            while (position == blockLength)
+            {
+                if (finished)
+                {
+                    return false;
+                }
+                final long rawLength = TradeHistoryCodec.readVarLong(in);
+                if (rawLength == 0)
+                {
+                    finished = true;
+                    return false;
+                }
+                final long storedLength = TradeHistoryCodec.readVarLong(in);
+                if (rawLength > BLOCK_SIZE || storedLength > rawLength || storedLength <= 0)
+                {
+                    throw new IOException("Malformed compressed block header");
+                }
+                if (storedLength == rawLength)
+                {
+                    readFully(block, (int) rawLength);
+                    blockLength = (int) rawLength;
+                }
+                else
+                {
+                    readFully(compressed, (int) storedLength);
+                    blockLength = decompressBlock(compressed, (int) storedLength, block);
+                    if (blockLength != rawLength)
+                    {
+                        throw new IOException("Compressed block length mismatch");
+                    }
+                }
+                position = 0;
+            }
+            return true;
+        }
+
+        private void readFully(final byte[] bytes, final int length) throws IOException
+        {
+            int read = 0;
+            while (read < length)
+            {
+                final int count = in.read(bytes, read, length - read);
+                if (count < 0)
+                {
+                    throw new EOFException("Unexpected end of compressed data");
+                }
+                read += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import lombok.extern.slf4j.Slf4j;
+import org.asundr.TradeHistoryProfile;
+import org.asundr.trade.TradeData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+// A zip file holding the histories of several profiles, each as a profile export, along with the list of profiles so
+// they can be added to the saved profiles when imported. Profiles are read from their stores on the io thread, but
+// decoded and encoded in parallel on a small pool, since that is where almost all of the time goes.
+@Slf4j
+final class ProfileArchive
+{
+    static final String FILE_EXTENSION = "rtta";
+    static final String FILE_DESCRIPTION = "RuneLite Trade Tracker archive";
+    private static final String PROFILES_ENTRY = "profiles.json";
+    private static final String PROFILE_ENTRY_EXTENSION = "." + FileUtils.FILE_EXTENSION_PROFILE_HISTORY;
+    private static final int MAX_THREADS = 4;
+
+    // The records of a profile as they were stored, so that they can be decoded away from the io thread
+    static final class StoredProfile
+    {
+        final TradeHistoryProfile profile;
+        final String manifest; // null if the profile has no snapshot
+        final HashMap<String, byte[]> shards = new HashMap<>(); // stored bytes keyed by shard key
+        final List<String> journal = new ArrayList<>();
+        // Set when decoded: whether any of the history couldn't be read, and the shards it couldn't be read from
+        boolean damaged = false;
+        final List<SaveData_Profile.Shard> damagedShards = new ArrayList<>();
+
+        private StoredProfile(final TradeHistoryProfile profile, final String manifest)
+        {
+            this.profile = profile;
+            this.manifest = manifest;
+        }
+
+        boolean isEmpty() { return manifest == null && journal.isEmpty(); }
+    }
+
+    // The profiles and profile exports of an archive file
+    static final class Archive
+    {
+        final List<TradeHistoryProfile> profiles = new ArrayList<>();
+        final HashMap<String, String> exports = new HashMap<>(); // profile export json keyed by profile key
+    }
+
+    // Reads every record of a profile from the passed store. Must be called on the io thread.
+    static StoredProfile read(final TradeHistoryStore store, final TradeHistoryProfile profile) throws IOException
+    {
+        final String profileKey = profile.getKeyString();
+        final StoredProfile stored = new StoredProfile(profile, store.readText(profileKey));
+        final List<SaveData_Profile.Shard> shards = SaveDataStreams.readManifest(stored.manifest);
+        if (shards != null)
+        {
+            for (final SaveData_Profile.Shard shard : shards)
+            {
+                final String shardKey = TradeShards.getShardKey(profileKey, shard);
+                try (final InputStream in = store.openBlob(shardKey))
+                {
+                    if (in != null)
+                    {
+                        stored.shards.put(shardKey, in.readAllBytes());
+                    }
+                }
+            }
+        }
+        String entry;
+        while ((entry = store.readText(TradeJournal.getEntryKey(profileKey, stored.journal.size()))) != null)
+        {
+            stored.journal.add(entry);
+        }
+        return stored;
+    }
+
+    // Decodes the whole history of a stored profile with its journal applied, ordered oldest to newest. Damaged
+    // records are salvaged as they are when a history is restored, and the damage is recorded in the stored profile
+    // so that the damaged records can be kept before the history is saved again.
+    static ArrayDeque<TradeData> decode(final StoredProfile stored, final Gson gson) throws IOException
+    {
+        final String profileKey = stored.profile.getKeyString();
+        final ArrayDeque<TradeData> tradeHistory = stored.manifest == null ? new ArrayDeque<>()
+                : decode(stored.manifest, gson, shard -> toStream(stored.shards.get(TradeShards.getShardKey(profileKey, shard))), stored);
+        final TradeJournal.Replay journal = new TradeJournal.Replay();
+        for (final String entry : stored.journal)
+        {
+            try
+            {
+                journal.apply(TradeJournal.decode(gson, entry));
+            }
+            catch (Exception e)
+            {
+                log.error("Skipped unreadable trade history journal entry");
+                journal.apply(null);
+            }
+        }
+        journal.applyTo(tradeHistory);
+        final ArrayList<TradeData> trades = new ArrayList<>(tradeHistory);
+        trades.sort(Comparator.comparingLong(t -> t.tradeTime));
+        return new ArrayDeque<>(trades);
+    }
+
+    // Decodes the history of a profile export, ordered oldest to newest
+    static ArrayDeque<TradeData> decode(final String json, final Gson gson) throws IOException
+    {
+        return decode(json, gson, null, null);
+    }
+
+    private static ArrayDeque<TradeData> decode(final String json, final Gson gson, final SaveDataStreams.ShardSource shardSource, final StoredProfile stored) throws IOException
+    {
+        try (final SaveDataStreams.ProfileReader reader = SaveDataStreams.openProfile(json, gson, shardSource))
+        {
+            final List<TradeData> trades = reader.nextBatch(Integer.MAX_VALUE);
+            if (reader.isDamaged() || !reader.getDamagedShards().isEmpty())
+            {
+                log.error("Trade history is damaged, only the trades before the damage were read");
+                if (stored != null)
+                {
+                    stored.damaged = true;
+                    stored.damagedShards.addAll(reader.getDamagedShards());
+                }
+            }
+            if (reader.isNewestFirst())
+            {
+                Collections.reverse(trades);
+            }
+            return new ArrayDeque<>(trades);
+        }
+    }
+
+    // Encodes a history, ordered oldest to newest, as a profile export
+    static byte[] encode(final String profileKey, final ArrayDeque<TradeData> tradeHistory, final Gson gson) throws IOException
+    {
+        final LinkedHashSet<String> names = new LinkedHashSet<>();
+        tradeHistory.forEach(trade -> TradeHistoryCodec.addTradeName(names, trade));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SaveDataStreams.writeProfile(bytes, gson, profileKey, CompressionUtils.Settings.densest(), out ->
+        {
+            final TradeHistoryCodec.Writer writer = new TradeHistoryCodec.Writer(out, names, tradeHistory.size());
+            final Iterator<TradeData> it = tradeHistory.descendingIterator();
+            while (it.hasNext())
+            {
+                writer.write(it.next());
+            }
+            writer.finish();
+        });
+        return bytes.toByteArray();
+    }
+
+    // Writes the passed profiles and their exports, in the same order, to an archive file
+    static void write(final Path target, final Gson gson, final List<TradeHistoryProfile> profiles, final List<byte[]> exports) throws IOException
+    {
+        ProfileExporter.writeAtomically(target, fileOut ->
+        {
+            final ZipOutputStream zip = new ZipOutputStream(fileOut, StandardCharsets.UTF_8);
+            zip.setLevel(Deflater.BEST_SPEED); // exports are already compressed, this only undoes the Base64 overhead
+            zip.putNextEntry(new ZipEntry(PROFILES_ENTRY));
+            zip.write(gson.toJson(profiles).getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            for (int i = 0; i < profiles.size(); ++i)
+            {
+                zip.putNextEntry(new ZipEntry(profiles.get(i).getKeyString() + PROFILE_ENTRY_EXTENSION));
+                zip.write(exports.get(i));
+                zip.closeEntry();
+            }
+            zip.finish();
+        });
+    }
+
+    // Reads an archive file. Exports that aren't of a listed profile are ignored.
+    static Archive read(final Path source, final Gson gson) throws IOException
+    {
+        final Archive archive = new Archive();
+        final HashMap<String, String> exports = new HashMap<>();
+        try (final ZipInputStream zip = new ZipInputStream(Files.newInputStream(source), StandardCharsets.UTF_8))
+        {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null)
+            {
+                final String name = entry.getName();
+                if (name.equals(PROFILES_ENTRY))
+                {
+                    final List<TradeHistoryProfile> profiles;
+                    try
+                    {
+                        profiles = gson.fromJson(new String(zip.readAllBytes(), StandardCharsets.UTF_8), new TypeToken<ArrayList<TradeHistoryProfile>>(){}.getType());
+                    }
+                    catch (JsonParseException e)
+                    {
+                        throw new IOException("Archive profile list is malformed");
+                    }
+                    if (profiles != null)
+                    {
+                        profiles.removeIf(profile -> profile == null || profile.getType() == null);
+                        archive.profiles.addAll(profiles);
+                    }
+                }
+                else if (name.endsWith(PROFILE_ENTRY_EXTENSION))
+                {
+                    exports.put(name.substring(0, name.length() - PROFILE_ENTRY_EXTENSION.length()), new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        archive.profiles.removeIf(profile -> !exports.containsKey(profile.getKeyString()));
+        archive.profiles.forEach(profile -> archive.exports.put(profile.getKeyString(), exports.get(profile.getKeyString())));
+        if (archive.profiles.isEmpty())
+        {
+            throw new IOException("Archive has no trade history profiles");
+        }
+        return archive;
+    }
+
+    // Runs the passed tasks on a pool of at most MAX_THREADS threads and returns their results in the same order.
+    // The first task to fail, in order, fails the whole batch and the remaining tasks are cancelled.
+    static <T> List<T> runParallel(final List<Callable<T>> tasks) throws IOException
+    {
+        final int threadCount = Math.max(1, Math.min(tasks.size(), Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1)));
+        final ExecutorService executor = Executors.newFixedThreadPool(threadCount, runnable ->
+        {
+            final Thread thread = new Thread(runnable, "trade-tracker-archive");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try
+        {
+            final List<Future<T>> futures = new ArrayList<>();
+            for (final Callable<T> task : tasks)
+            {
+                futures.add(executor.submit(task));
+            }
+            final List<T> results = new ArrayList<>();
+            for (final Future<T> future : futures)
+            {
+                results.add(future.get());
+            }
+            return results;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing trade history profiles");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof CancellationException)
+            {
+                throw (CancellationException) e.getCause();
+            }
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    private static InputStream toStream(final byte[] bytes)
+    {
+        return bytes == null ? null : new ByteArrayInputStream(bytes);
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.asundr.trade.TradeData;
+import org.asundr.trade.TradeJsonWriter;
+import org.asundr.trade.TradeTypeAdapters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+// Keeps rolling snapshots of profile histories, so that a cleared history or a bad import can be undone. A snapshot is
+// written as json lines, oldest trade first, and split into chunks at positions chosen by the content around them. New
+// trades and edits only change the chunks they fall in, so consecutive snapshots share almost every chunk, and a chunk
+// is only stored once however many snapshots refer to it. Chunks are kept per profile, and removed once no snapshot of
+// that profile refers to them. Only used from the io thread.
+final class ProfileBackups
+{
+    private static final String INDEX_SUFFIX = "_backups";
+    private static final String CHUNK_SEPARATOR = "_chunk_";
+    private static final int MIN_CHUNK_SIZE = 1 << 11;
+    private static final int MAX_CHUNK_SIZE = 1 << 16;
+    private static final int CHUNK_BITS = 13; // a boundary is found every 8KiB on average
+    private static final int CHUNK_ID_BYTES = 16;
+    private static final long[] GEAR = createGear();
+
+    // A snapshot of a profile's history. Chunks are listed in the order their content is read.
+    static final class Generation
+    {
+        final int number;
+        final long time; // epoch millis at which the snapshot was taken
+        final int tradeCount;
+        final List<String> chunks;
+
+        Generation(final int number, final long time, final int tradeCount, final List<String> chunks)
+        {
+            this.number = number;
+            this.time = time;
+            this.tradeCount = tradeCount;
+            this.chunks = chunks;
+        }
+    }
+
+    // Serialized as the text record listing a profile's snapshots
+    private static final class Index
+    {
+        ArrayList<Generation> generations = new ArrayList<>(); // ordered oldest to newest
+    }
+
+    // Writes the trades of a snapshot
+    interface SnapshotWriter
+    {
+        void write(Snapshot snapshot) throws IOException;
+    }
+
+    // Receives the trades of a snapshot, which must be added oldest first
+    static final class Snapshot
+    {
+        private final Writer writer;
+        private int tradeCount = 0;
+
+        private Snapshot(final Writer writer)
+        {
+            this.writer = writer;
+        }
+
+        void add(final TradeData tradeData) throws IOException
+        {
+            TradeJsonWriter.write(new JsonWriter(writer), tradeData);
+            writer.write('\n');
+            ++tradeCount;
+        }
+
+        void addAll(final Collection<TradeData> trades) throws IOException
+        {
+            for (final TradeData tradeData : trades)
+            {
+                add(tradeData);
+            }
+        }
+    }
+
+    private final TradeHistoryStore store;
+    private final Gson gson;
+
+    ProfileBackups(final TradeHistoryStore store, final Gson gson)
+    {
+        this.store = store;
+        this.gson = gson;
+    }
+
+    // Returns the snapshots kept for the passed profile, ordered oldest to newest
+    List<Generation> getGenerations(final String profileKey) throws IOException
+    {
+        return readIndex(profileKey).generations;
+    }
+
+    // Takes a snapshot of the trades written by the passed writer and keeps at most the passed number of snapshots,
+    // removing the oldest. Returns the new snapshot, or null if it would be identical to the newest one.
+    Generation write(final String profileKey, final int keep, final SnapshotWriter snapshotWriter) throws IOException
+    {
+        final Index index = readIndex(profileKey);
+        final HashSet<String> storedChunks = new HashSet<>();
+        index.generations.forEach(generation -> storedChunks.addAll(generation.chunks));
+
+        final ChunkingOutputStream chunker = new ChunkingOutputStream(profileKey, storedChunks);
+        final Snapshot snapshot = new Snapshot(new OutputStreamWriter(chunker, StandardCharsets.UTF_8));
+        snapshotWriter.write(snapshot);
+        snapshot.writer.close();
+
+        final Generation newest = index.generations.isEmpty() ? null : index.generations.get(index.generations.size() - 1);
+        if (newest != null && newest.chunks.equals(chunker.chunks))
+        {
+            return null;
+        }
+        final Generation generation = new Generation(newest == null ? 1 : newest.number + 1, System.currentTimeMillis(), snapshot.tradeCount, chunker.chunks);
+        index.generations.add(generation);
+        final List<Generation> removed = new ArrayList<>();
+        while (index.generations.size() > Math.max(1, keep))
+        {
+            removed.add(index.generations.remove(0));
+        }
+        store.writeText(getIndexKey(profileKey), gson.toJson(index));
+        removeUnreferencedChunks(profileKey, index, removed);
+        return generation;
+    }
+
+    // Reads the trades of a snapshot, ordered oldest to newest
+    ArrayDeque<TradeData> read(final String profileKey, final Generation generation) throws IOException
+    {
+        final ArrayDeque<TradeData> trades = new ArrayDeque<>(generation.tradeCount);
+        try (final JsonReader reader = new JsonReader(new InputStreamReader(new ChunkInputStream(profileKey, generation.chunks), StandardCharsets.UTF_8)))
+        {
+            reader.setLenient(true); // each line is a separate json value
+            while (reader.peek() != JsonToken.END_DOCUMENT)
+            {
+                trades.add(TradeTypeAdapters.readTrade(reader));
+            }
+        }
+        if (trades.size() != generation.tradeCount)
+        {
+            throw new IOException("Backup has " + trades.size() + " trades, expected " + generation.tradeCount);
+        }
+        return trades;
+    }
+
+    // Removes the chunks of the removed snapshots that no kept snapshot refers to. A chunk is only removed after the
+    // index stops referring to it, so an interrupted backup can leave an unused chunk but never a missing one.
+    private void removeUnreferencedChunks(final String profileKey, final Index kept, final List<Generation> removed) throws IOException
+    {
+        final HashSet<String> keptChunks = new HashSet<>();
+        kept.generations.forEach(generation -> keptChunks.addAll(generation.chunks));
+        final HashSet<String> removedChunks = new HashSet<>();
+        for (final Generation generation : removed)
+        {
+            for (final String chunk : generation.chunks)
+            {
+                if (!keptChunks.contains(chunk) && removedChunks.add(chunk))
+                {
+                    store.remove(getChunkKey(profileKey, chunk));
+                }
+            }
+        }
+    }
+
+    private Index readIndex(final String profileKey) throws IOException
+    {
+        final String json = store.readText(getIndexKey(profileKey));
+        final Index index = json == null ? null : gson.fromJson(json, Index.class);
+        return index == null || index.generations == null ? new Index() : index;
+    }
+
+    private static String getIndexKey(final String profileKey)
+    {
+        return profileKey + INDEX_SUFFIX;
+    }
+
+    private static String getChunkKey(final String profileKey, final String chunk)
+    {
+        return profileKey + CHUNK_SEPARATOR + chunk;
+    }
+
+    // Names a chunk by a hash of its content, so that identical chunks are stored once
+    private static String getChunkId(final byte[] bytes, final int length)
+    {
+        final MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e); // every jvm provides SHA-256
+        }
+        digest.update(bytes, 0, length);
+        final byte[] hash = digest.digest();
+        final StringBuilder sb = new StringBuilder(CHUNK_ID_BYTES * 2);
+        for (int i = 0; i < CHUNK_ID_BYTES; ++i)
+        {
+            sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    // Random values for the rolling gear hash. Generated from a fixed seed, since chunks are only shared between
+    // snapshots that were split with the same values.
+    private static long[] createGear()
+    {
+        final Random random = new Random(0x5EEDC4A1L);
+        final long[] gear = new long[256];
+        for (int i = 0; i < gear.length; ++i)
+        {
+            gear[i] = random.nextLong();
+        }
+        return gear;
+    }
+
+    // Splits everything written to it into chunks, ending a chunk where the hash of the preceding bytes has its top
+    // CHUNK_BITS bits clear. Since the hash only depends on the last 64 bytes, a change only moves the boundaries close
+    // to it. Chunks that aren't already stored are compressed and written as they are completed.
+    private final class ChunkingOutputStream extends OutputStream
+    {
+        private final String profileKey;
+        private final HashSet<String> storedChunks;
+        private final List<String> chunks = new ArrayList<>();
+        private final byte[] buffer = new byte[MAX_CHUNK_SIZE];
+        private int length = 0;
+        private long hash = 0;
+
+        ChunkingOutputStream(final String profileKey, final HashSet<String> storedChunks)
+        {
+            this.profileKey = profileKey;
+            this.storedChunks = storedChunks;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            buffer[length++] = (byte) b;
+            hash = (hash << 1) + GEAR[b & 0xFF];
+            if (length == MAX_CHUNK_SIZE || (length >= MIN_CHUNK_SIZE && hash >>> (Long.SIZE - CHUNK_BITS) == 0))
+            {
+                endChunk();
+            }
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int count) throws IOException
+        {
+            for (int i = offset; i < offset + count; ++i)
+            {
+                write(bytes[i]);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (length > 0)
+            {
+                endChunk();
+            }
+        }
+
+        private void endChunk() throws IOException
+        {
+            final String chunk = getChunkId(buffer, length);
+            if (storedChunks.add(chunk))
+            {
+                final int chunkLength = length;
+                store.writeBlob(getChunkKey(profileKey, chunk), out ->
+                {
+                    try (final OutputStream compressed = CompressionUtils.compressingStream(out, CompressionUtils.Settings.densest()))
+                    {
+                        compressed.write(buffer, 0, chunkLength);
+                    }
+                });
+            }
+            chunks.add(chunk);
+            length = 0;
+            hash = 0;
+        }
+    }
+
+    // Reads the content of a snapshot's chunks in order, checking each against its name
+    private final class ChunkInputStream extends InputStream
+    {
+        private final String profileKey;
+        private final List<String> chunks;
+        private int nextChunk = 0;
+        private byte[] current = new byte[0];
+        private int position = 0;
+
+        ChunkInputStream(final String profileKey, final List<String> chunks)
+        {
+            this.profileKey = profileKey;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            return nextAvailable() ? current[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int count) throws IOException
+        {
+            if (count == 0)
+            {
+                return 0;
+            }
+            if (!nextAvailable())
+            {
+                return -1;
+            }
+            final int read = Math.min(count, current.length - position);
+            System.arraycopy(current, position, bytes, offset, read);
+            position += read;
+            return read;
+        }
+
+        private boolean nextAvailable() throws IOException
+        {
+            while (position == current.length)
+            {
+                if (nextChunk == chunks.size())
+                {
+                    return false;
+                }
+                current = readChunk(chunks.get(nextChunk++));
+                position = 0;
+            }
+            return true;
+        }
+
+        private byte[] readChunk(final String chunk) throws IOException
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (final InputStream stored = store.openBlob(getChunkKey(profileKey, chunk)))
+            {
+                if (stored == null)
+                {
+                    throw new IOException("Backup chunk " + chunk + " is missing");
+                }
+                CompressionUtils.decompressingStream(stored).transferTo(bytes);
+            }
+            final byte[] content = bytes.toByteArray();
+            if (!getChunkId(content, content.length).equals(chunk))
+            {
+                throw new IOException("Backup chunk " + chunk + " is damaged");
+            }
+            return content;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import com.google.gson.Gson;
+import org.asundr.trade.TradeData;
+
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+// Streams a profile's whole history to an export file, one shard at a time, so only one shard is held at a time.
+// Profile exports use the single payload format so files can be imported by any version of the plugin, which needs
+// every player name and the number of trades before the first trade. The unloaded shards are therefore read twice.
+// Should be run on the io thread, so that shards aren't changed between the two passes.
+final class ProfileExporter
+{
+    private static final int BUFFER_SIZE = 1024 * 64;
+    private static final int PROGRESS_INTERVAL = 256; // trades written between progress updates and cancellation checks
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final String profileKey;
+    private final ArrayDeque<TradeData> loadedTrades;          // ordered oldest to newest
+    private final List<SaveData_Profile.Shard> unloadedShards; // ordered newest first, all older than the loaded trades
+    private final SaveDataStreams.ShardSource shardSource;
+    private final ProgressMonitor monitor;
+    private int progress = 0;
+
+    ProfileExporter(final String profileKey, final ArrayDeque<TradeData> loadedTrades, final List<SaveData_Profile.Shard> unloadedShards,
+                    final SaveDataStreams.ShardSource shardSource, final ProgressMonitor monitor)
+    {
+        this.profileKey = profileKey;
+        this.loadedTrades = loadedTrades;
+        this.unloadedShards = unloadedShards;
+        this.shardSource = shardSource;
+        this.monitor = monitor;
+    }
+
+    // Writes the history to the passed file as SaveData_Profile json. Throws CancellationException if the user cancels
+    // the export, as do the other exports.
+    void export(final Path target, final Gson gson, final CompressionUtils.Settings compression) throws IOException
+    {
+        // reading an unloaded trade for its name counts for one part of the progress, and writing any trade for two
+        int unloadedCount = 0;
+        for (final SaveData_Profile.Shard shard : unloadedShards)
+        {
+            unloadedCount += shard.count;
+        }
+        final int maximum = unloadedCount + (loadedTrades.size() + unloadedCount) * 2;
+        SwingUtilities.invokeLater(() -> monitor.setMaximum(Math.max(1, maximum)));
+
+        final LinkedHashSet<String> names = new LinkedHashSet<>();
+        loadedTrades.forEach(trade -> TradeHistoryCodec.addTradeName(names, trade));
+        int exportedCount = loadedTrades.size();
+        for (final SaveData_Profile.Shard shard : unloadedShards)
+        {
+            final List<TradeData> trades = readShard(shard);
+            trades.forEach(trade -> TradeHistoryCodec.addTradeName(names, trade));
+            exportedCount += trades.size();
+            advance(trades.size());
+        }
+
+        final int finalCount = exportedCount;
+        writeAtomically(target, fileOut -> SaveDataStreams.writeProfile(fileOut, gson, profileKey, compression, out ->
+        {
+            final TradeHistoryCodec.Writer writer = new TradeHistoryCodec.Writer(out, names, finalCount);
+            writeNewestFirst(writer, loadedTrades.descendingIterator());
+            for (final SaveData_Profile.Shard shard : unloadedShards)
+            {
+                final List<TradeData> trades = readShard(shard);
+                Collections.reverse(trades);
+                writeNewestFirst(writer, trades.iterator());
+            }
+            writer.finish();
+        }));
+    }
+
+    // Writes every trade, oldest first, as rows of the passed format. See TradeRowWriter.
+    void exportRows(final Path target, final TradeRowWriter.Format format) throws IOException
+    {
+        int tradeCount = loadedTrades.size();
+        for (final SaveData_Profile.Shard shard : unloadedShards)
+        {
+            tradeCount += shard.count;
+        }
+        final int maximum = tradeCount;
+        SwingUtilities.invokeLater(() -> monitor.setMaximum(Math.max(1, maximum)));
+        writeAtomically(target, out ->
+        {
+            final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            final TradeRowWriter rowWriter = TradeRowWriter.create(format, writer);
+            rowWriter.writeHeader();
+            for (int i = unloadedShards.size() - 1; i >= 0; --i)
+            {
+                writeRows(rowWriter, readShard(unloadedShards.get(i)));
+            }
+            writeRows(rowWriter, loadedTrades);
+            writer.flush();
+        });
+    }
+
+    private void writeRows(final TradeRowWriter rowWriter, final Collection<TradeData> trades) throws IOException
+    {
+        int sinceUpdate = 0;
+        for (final TradeData trade : trades)
+        {
+            rowWriter.write(trade);
+            if (++sinceUpdate == PROGRESS_INTERVAL)
+            {
+                advance(sinceUpdate);
+                sinceUpdate = 0;
+            }
+        }
+        advance(sinceUpdate);
+    }
+
+    // Writes the file through a fixed size buffer to a temporary file, which replaces the passed file once it is
+    // complete, so an existing file is never replaced by a partial export
+    static void writeAtomically(final Path target, final SaveDataStreams.PayloadWriter writer) throws IOException
+    {
+        final Path temp = target.resolveSibling(target.getFileName() + TEMP_EXTENSION);
+        try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            final OutputStream fileOut = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            writer.write(fileOut);
+            fileOut.flush();
+            channel.force(true);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        try
+        {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void writeNewestFirst(final TradeHistoryCodec.Writer writer, final Iterator<TradeData> it) throws IOException
+    {
+        int sinceUpdate = 0;
+        while (it.hasNext())
+        {
+            writer.write(it.next());
+            if (++sinceUpdate == PROGRESS_INTERVAL)
+            {
+                advance(sinceUpdate * 2);
+                sinceUpdate = 0;
+            }
+        }
+        advance(sinceUpdate * 2);
+    }
+
+    private List<TradeData> readShard(final SaveData_Profile.Shard shard) throws IOException
+    {
+        final InputStream stored = shardSource.open(shard);
+        if (stored == null)
+        {
+            throw new IOException("Trade history shard " + shard.id + " is missing");
+        }
+        return SaveDataStreams.readShard(stored);
+    }
+
+    // Reports progress and stops the export if it was cancelled
+    private void advance(final int amount)
+    {
+        if (monitor.isCanceled())
+        {
+            throw new CancellationException();
+        }
+        progress += amount;
+        final int current = progress;
+        SwingUtilities.invokeLater(() -> monitor.setProgress(current));
+    }
+}
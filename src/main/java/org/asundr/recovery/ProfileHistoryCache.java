@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import org.asundr.TradeHistoryProfile;
+import org.asundr.trade.TradeData;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps the decoded histories of recently active profiles in memory, so switching back to one of them doesn't need to
+// read and decode its save again. Entries are evicted least recently used first once their estimated size exceeds the
+// budget. The active profile's history is never cached, since it is changed as trades are made: an entry is taken out
+// of the cache when its profile becomes active, and put back with its latest history when another profile replaces it.
+final class ProfileHistoryCache
+{
+    private static final int TRADE_BYTES = 256; // rough size of a decoded trade without its items, including its player
+    private static final int ITEM_BYTES = 40;
+
+    // The decoded history of a profile, as it would be restored from the store
+    static final class Entry
+    {
+        final ArrayDeque<TradeData> tradeHistory;         // loaded trades, ordered oldest to newest
+        final List<SaveData_Profile.Shard> unloadedShards; // shards left unloaded, newest first
+        final TradeHistoryStore store;                    // the store the history is saved in
+        final long size;                                  // estimated size in bytes
+
+        Entry(final ArrayDeque<TradeData> tradeHistory, final List<SaveData_Profile.Shard> unloadedShards, final TradeHistoryStore store)
+        {
+            this.tradeHistory = tradeHistory;
+            this.unloadedShards = unloadedShards;
+            this.store = store;
+            this.size = estimateSize(tradeHistory);
+        }
+    }
+
+    private final LinkedHashMap<TradeHistoryProfile, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // least recently used first
+    private long size = 0L;
+
+    // Adds the history of the passed profile, evicting the least recently used entries until the cache fits the passed
+    // budget. Returns false if the entry is larger than the budget on its own and wasn't added.
+    synchronized boolean put(final TradeHistoryProfile profile, final Entry entry, final long budgetBytes)
+    {
+        remove(profile);
+        if (entry.size > budgetBytes)
+        {
+            return false;
+        }
+        entries.put(profile, entry);
+        size += entry.size;
+        trim(budgetBytes);
+        return true;
+    }
+
+    // Returns true if an entry of the passed size fits the passed budget without evicting another entry
+    synchronized boolean hasRoomFor(final long entrySize, final long budgetBytes)
+    {
+        return size + entrySize <= budgetBytes;
+    }
+
+    synchronized boolean contains(final TradeHistoryProfile profile)
+    {
+        return entries.containsKey(profile);
+    }
+
+    // Removes and returns the cached history of the passed profile, or null if it isn't cached
+    synchronized Entry take(final TradeHistoryProfile profile)
+    {
+        final Entry entry = entries.remove(profile);
+        if (entry != null)
+        {
+            size -= entry.size;
+        }
+        return entry;
+    }
+
+    synchronized void remove(final TradeHistoryProfile profile)
+    {
+        take(profile);
+    }
+
+    synchronized void clear()
+    {
+        entries.clear();
+        size = 0L;
+    }
+
+    // Evicts the least recently used entries until the cache fits the passed budget
+    synchronized void trim(final long budgetBytes)
+    {
+        final Iterator<Map.Entry<TradeHistoryProfile, Entry>> it = entries.entrySet().iterator();
+        while (size > budgetBytes && it.hasNext())
+        {
+            size -= it.next().getValue().size;
+            it.remove();
+        }
+    }
+
+    static long estimateSize(final ArrayDeque<TradeData> tradeHistory)
+    {
+        long size = 0L;
+        for (final TradeData tradeData : tradeHistory)
+        {
+            size += TRADE_BYTES + (long) ITEM_BYTES * (tradeData.givenItems.size() + tradeData.receivedItems.size());
+            if (tradeData.note != null)
+            {
+                size += 2L * tradeData.note.length();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,780 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import lombok.extern.slf4j.Slf4j;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.asundr.trade.TradeData;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+// Streams profile save data to and from its serialized SaveData_Profile form without materializing the history
+// as intermediate strings or byte arrays. Memory use is bounded by the stream buffers.
+@Slf4j
+final class SaveDataStreams
+{
+    private static final int BUFFER_SIZE = 1024 * 8;
+    static final int SINGLE_PAYLOAD_VERSION = 4; // last version storing the whole history in the profile entry, still used for exports
+    static final int SHARDED_VERSION = 5;
+    static final int CHECKSUMMED_VERSION = 6;
+    static final int BLOCK_CHECKSUMMED_VERSION = 7;
+    private static final int CHECKSUM_MARKER = 0xC5; // first byte of a shard ending with a checksum, never a codec id
+    private static final int BLOCK_CHECKSUM_MARKER = 0xC7; // first byte of a shard checksummed a block at a time, never a codec id
+    static final int CHECKSUM_BLOCK_SIZE = 1 << 12; // most encoded bytes a damaged block can lose
+
+    // Writes the codec stream of a history
+    interface PayloadWriter
+    {
+        void write(OutputStream out) throws IOException;
+    }
+
+    // Writes SaveData_Profile json with the whole history in a single payload, which the passed payload writer encodes
+    // with TradeHistoryCodec. The payload is compressed and Base64 encoded as it is written. The passed stream is not closed.
+    static void writeProfile(final OutputStream fileOut, final Gson gson, final String profileKey, final CompressionUtils.Settings compression,
+                             final PayloadWriter payload) throws IOException
+    {
+        // The encoded history is written last so it can be streamed as the final value of the object
+        fileOut.write(("{\"saveVersion\":" + SINGLE_PAYLOAD_VERSION + ",\"profileName\":" + gson.toJson(profileKey) + ",\"encodedTradeHistory\":\"").getBytes(StandardCharsets.UTF_8));
+        try (final OutputStream out = new BufferedOutputStream(CompressionUtils.compressingStream(Base64.getEncoder().wrap(new NonClosingOutputStream(fileOut)), compression), BUFFER_SIZE))
+        {
+            payload.write(out);
+        }
+        fileOut.write("\"}".getBytes(StandardCharsets.UTF_8));
+        fileOut.flush();
+    }
+
+    // Opens the stored bytes of a shard, or returns null if the shard is missing
+    interface ShardSource
+    {
+        InputStream open(SaveData_Profile.Shard shard) throws IOException;
+    }
+
+    // Writes the passed trades as the stored bytes of a shard: a marker byte, then the compressed trades split into
+    // blocks that each end with a CRC32 of their bytes, so a reader only uses trades from blocks that are intact.
+    // The passed stream is closed.
+    static void writeShard(final OutputStream shardOut, final Collection<TradeData> trades, final CompressionUtils.Settings compression) throws IOException
+    {
+        shardOut.write(BLOCK_CHECKSUM_MARKER);
+        try (final OutputStream out = new ChecksummedBlockOutputStream(CompressionUtils.compressingStream(shardOut, compression)))
+        {
+            TradeHistoryCodec.encode(trades, out);
+        }
+    }
+
+    // Opens a reader over the trades of a stored shard, newest first. The passed stream is closed with the reader, or
+    // straight away if the shard can't be opened. Shards saved before version 6 are read without a checksum, and
+    // version 6 shards, which have a single checksum, are read in full and only used if the checksum matches.
+    static ProfileReader openShard(final InputStream stored) throws IOException
+    {
+        try
+        {
+            final PushbackInputStream in = new PushbackInputStream(stored, 1);
+            final int marker = in.read();
+            if (marker == BLOCK_CHECKSUM_MARKER)
+            {
+                final ChecksummedBlockInputStream blocks = new ChecksummedBlockInputStream(new BufferedInputStream(CompressionUtils.decompressingStream(in), BUFFER_SIZE));
+                return new BinaryProfileReader(BLOCK_CHECKSUMMED_VERSION, blocks, blocks, null);
+            }
+            if (marker == CHECKSUM_MARKER)
+            {
+                return new BinaryProfileReader(CHECKSUMMED_VERSION, new BufferedInputStream(CompressionUtils.decompressingStream(in), BUFFER_SIZE), null, new CRC32());
+            }
+            if (marker >= 0)
+            {
+                in.unread(marker);
+            }
+            return new BinaryProfileReader(SHARDED_VERSION, new BufferedInputStream(CompressionUtils.decompressingStream(in), BUFFER_SIZE), null, null);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            stored.close();
+            throw e;
+        }
+    }
+
+    // Reads every trade of a stored shard, ordered oldest to newest. If the shard is damaged, only the trades stored
+    // before the damage are read.
+    static List<TradeData> readShard(final InputStream stored) throws IOException
+    {
+        try (final ProfileReader reader = openShard(stored))
+        {
+            final List<TradeData> trades = reader.nextBatch(Integer.MAX_VALUE);
+            if (reader.isDamaged())
+            {
+                log.error("Trade history shard is damaged, {} trades before the damage were read", trades.size());
+            }
+            Collections.reverse(trades);
+            return trades;
+        }
+    }
+
+    // Writes the manifest of a sharded profile as SaveData_Profile json
+    static String writeManifest(final Gson gson, final String profileKey, final List<SaveData_Profile.Shard> shards)
+    {
+        return gson.toJson(new SaveData_Profile(BLOCK_CHECKSUMMED_VERSION, profileKey, null, shards));
+    }
+
+    // Returns the shards listed in a profile entry, or null if the entry is not a sharded manifest
+    static List<SaveData_Profile.Shard> readManifest(final String json)
+    {
+        if (json == null || json.isBlank())
+        {
+            return null;
+        }
+        try
+        {
+            final Header header = readHeader(json);
+            return header.saveVersion >= SHARDED_VERSION ? header.shards : null;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    // Opens a reader over the trades of a SaveData_Profile json string.
+    // Only the Base64 payload is copied out of the json, the history itself is decoded as it is read.
+    // Shards of a sharded profile are opened from the passed source, newest first, as the reader reaches them.
+    static ProfileReader openProfile(final String json, final Gson gson, final ShardSource shardSource) throws IOException
+    {
+        final Header header = readHeader(json);
+        final int saveVersion = header.saveVersion;
+        if (saveVersion > SaveManager.SAVE_VERSION)
+        {
+            throw new IOException("Trade history was saved by a newer version of the plugin");
+        }
+        if (saveVersion >= SHARDED_VERSION)
+        {
+            if (shardSource == null)
+            {
+                throw new IOException("Sharded trade history can only be read from the store it was saved in");
+            }
+            return new ShardedProfileReader(saveVersion, header.shards, shardSource);
+        }
+        if (header.encodedTradeHistory == null)
+        {
+            throw new IOException("Save data is missing the trade history");
+        }
+        final InputStream decoded = Base64.getDecoder().wrap(new AsciiStringInputStream(header.encodedTradeHistory));
+        if (saveVersion >= 4)
+        {
+            final InputStream in = new BufferedInputStream(CompressionUtils.decompressingStream(decoded), BUFFER_SIZE);
+            return new BinaryProfileReader(saveVersion, in, null, null);
+        }
+        if (saveVersion == 3)
+        {
+            final InputStream in = new BufferedInputStream(CompressionUtils.inflatingStream(decoded), BUFFER_SIZE);
+            return new BinaryProfileReader(saveVersion, in, null, null);
+        }
+        final InputStreamReader reader = new InputStreamReader(CompressionUtils.inflatingStream(decoded), Charset.defaultCharset()); // versions before 3 used the default charset
+        return new JsonProfileReader(saveVersion, new JsonReader(reader), gson);
+    }
+
+    // The fields of SaveData_Profile needed to open it
+    private static final class Header
+    {
+        int saveVersion = 0;
+        String encodedTradeHistory = null;
+        final List<SaveData_Profile.Shard> shards = new ArrayList<>();
+    }
+
+    private static Header readHeader(final String json) throws IOException
+    {
+        final Header header = new Header();
+        try (final JsonReader jsonReader = new JsonReader(new StringReader(json)))
+        {
+            jsonReader.setLenient(true);
+            jsonReader.beginObject();
+            while (jsonReader.hasNext())
+            {
+                switch (jsonReader.nextName())
+                {
+                    case "saveVersion":
+                        header.saveVersion = jsonReader.nextInt();
+                        break;
+                    case "encodedTradeHistory":
+                        if (jsonReader.peek() == JsonToken.NULL)
+                        {
+                            jsonReader.nextNull();
+                        }
+                        else
+                        {
+                            header.encodedTradeHistory = jsonReader.nextString();
+                        }
+                        break;
+                    case "shards":
+                        jsonReader.beginArray();
+                        while (jsonReader.hasNext())
+                        {
+                            header.shards.add(readShard(jsonReader));
+                        }
+                        jsonReader.endArray();
+                        break;
+                    default:
+                        jsonReader.skipValue();
+                }
+            }
+        }
+        return header;
+    }
+
+    private static SaveData_Profile.Shard readShard(final JsonReader jsonReader) throws IOException
+    {
+        int id = 0;
+        int count = 0;
+        long first = 0;
+        int slot = 0;
+        long hash = 0;
+        long bytes = 0;
+        jsonReader.beginObject();
+        while (jsonReader.hasNext())
+        {
+            switch (jsonReader.nextName())
+            {
+                case "id":
+                    id = jsonReader.nextInt();
+                    break;
+                case "count":
+                    count = jsonReader.nextInt();
+                    break;
+                case "first":
+                    first = jsonReader.nextLong();
+                    break;
+                case "slot":
+                    slot = jsonReader.nextInt();
+                    break;
+                case "hash":
+                    hash = jsonReader.nextLong();
+                    break;
+                case "bytes":
+                    bytes = jsonReader.nextLong();
+                    break;
+                default:
+                    jsonReader.skipValue();
+            }
+        }
+        jsonReader.endObject();
+        return new SaveData_Profile.Shard(id, count, first, slot, hash, bytes);
+    }
+
+    // Reads the trades of a saved profile in batches. Reading stops at the first trade that can't be read, so every
+    // complete trade before damaged save data can still be restored.
+    abstract static class ProfileReader implements Closeable
+    {
+        final int saveVersion;
+        private TradeData pending = null;
+        private boolean finished = false;
+        private boolean damaged = false;
+
+        ProfileReader(final int saveVersion)
+        {
+            this.saveVersion = saveVersion;
+        }
+
+        // Returns true if trades are read from newest to oldest, otherwise they are read from oldest to newest
+        abstract boolean isNewestFirst();
+
+        // Reads the next trade, or returns null once every trade was read. Throws if the save data is damaged.
+        abstract TradeData read() throws IOException;
+
+        final boolean hasNext() throws IOException
+        {
+            if (pending == null && !finished)
+            {
+                try
+                {
+                    pending = read();
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    damaged = true;
+                }
+                finished = pending == null;
+            }
+            return pending != null;
+        }
+
+        final TradeData next() throws IOException
+        {
+            if (!hasNext())
+            {
+                throw new IOException("No trades remaining");
+            }
+            final TradeData tradeData = pending;
+            pending = null;
+            return tradeData;
+        }
+
+        // Returns true if reading stopped early because the save data is damaged
+        final boolean isDamaged() { return damaged; }
+
+        // Returns the shards that were only partly read because they are damaged, or that couldn't be read at all
+        List<SaveData_Profile.Shard> getDamagedShards()
+        {
+            return Collections.emptyList();
+        }
+
+        // Limits the reader to the newest shards holding at least the passed number of trades, along with every shard
+        // with an id of at least minShardId. Must be called before reading. Returns the shards that will not be read,
+        // newest first. Saves that aren't sharded are always read in full.
+        List<SaveData_Profile.Shard> limitShards(final int tradeCount, final int minShardId)
+        {
+            return Collections.emptyList();
+        }
+
+        // Reads up to the passed number of trades in the order of the reader
+        final List<TradeData> nextBatch(final int maxCount) throws IOException
+        {
+            final ArrayList<TradeData> batch = new ArrayList<>(Math.min(maxCount, 1 << 10));
+            while (batch.size() < maxCount && hasNext())
+            {
+                batch.add(next());
+            }
+            return batch;
+        }
+    }
+
+    private static final class BinaryProfileReader extends ProfileReader
+    {
+        private final InputStream in;
+        private final TradeHistoryCodec.Reader reader;
+        private final ChecksummedBlockInputStream blocks;
+        private final CRC32 checksum;
+        private ArrayDeque<TradeData> verifiedTrades = null;
+
+        // If checksummed blocks are passed, trades are only read from blocks that match their checksum, so a trade is
+        // never read from damaged bytes. If a checksum is passed instead, the trades are followed by a single CRC32 of
+        // their encoded bytes, so every trade is read and checked before the first is returned.
+        BinaryProfileReader(final int saveVersion, final InputStream in, final ChecksummedBlockInputStream blocks, final CRC32 checksum) throws IOException
+        {
+            super(saveVersion);
+            this.in = in;
+            this.blocks = blocks;
+            this.checksum = checksum;
+            this.reader = new TradeHistoryCodec.Reader(checksum == null ? in : new CheckedInputStream(in, checksum));
+        }
+
+        @Override boolean isNewestFirst() { return true; }
+
+        @Override
+        TradeData read() throws IOException
+        {
+            if (checksum != null)
+            {
+                if (verifiedTrades == null)
+                {
+                    verifiedTrades = readVerifiedTrades();
+                }
+                return verifiedTrades.poll();
+            }
+            if (reader.hasNext())
+            {
+                return reader.next();
+            }
+            if (blocks != null && blocks.read() >= 0)
+            {
+                throw new IOException("Trade history has data after its last trade");
+            }
+            return null;
+        }
+
+        private ArrayDeque<TradeData> readVerifiedTrades() throws IOException
+        {
+            final ArrayDeque<TradeData> trades = new ArrayDeque<>(Math.min(reader.getTradeCount(), 1 << 12));
+            while (reader.hasNext())
+            {
+                trades.add(reader.next());
+            }
+            final long expected = checksum.getValue();
+            if (readInt(in) != (int) expected)
+            {
+                throw new IOException("Trade history doesn't match its checksum");
+            }
+            return trades;
+        }
+
+        @Override public void close() throws IOException { in.close(); }
+    }
+
+    // Splits the bytes written to it into blocks, each written as its length, its bytes and their CRC32, followed by an
+    // empty block marking the end. The passed stream is closed.
+    private static final class ChecksummedBlockOutputStream extends OutputStream
+    {
+        private final OutputStream out;
+        private final byte[] block = new byte[CHECKSUM_BLOCK_SIZE];
+        private final CRC32 checksum = new CRC32();
+        private int length = 0;
+
+        ChecksummedBlockOutputStream(final OutputStream out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException
+        {
+            block[length++] = (byte) b;
+            if (length == block.length)
+            {
+                writeBlock();
+            }
+        }
+
+        @Override
+        public void write(final byte[] bytes, int offset, int count) throws IOException
+        {
+            while (count > 0)
+            {
+                final int copied = Math.min(count, block.length - length);
+                System.arraycopy(bytes, offset, block, length, copied);
+                length += copied;
+                offset += copied;
+                count -= copied;
+                if (length == block.length)
+                {
+                    writeBlock();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try (final OutputStream closed = out)
+            {
+                if (length > 0)
+                {
+                    writeBlock();
+                }
+                writeInt(out, 0);
+            }
+        }
+
+        private void writeBlock() throws IOException
+        {
+            checksum.reset();
+            checksum.update(block, 0, length);
+            writeInt(out, length);
+            out.write(block, 0, length);
+            writeInt(out, (int) checksum.getValue());
+            length = 0;
+        }
+    }
+
+    // Reads the blocks written by ChecksummedBlockOutputStream. A block is checked against its checksum before any of its
+    // bytes are read, and the stream ends at the empty block. Throws if a block is damaged or the stream ends early.
+    static final class ChecksummedBlockInputStream extends InputStream
+    {
+        private final InputStream in;
+        private final byte[] block = new byte[CHECKSUM_BLOCK_SIZE];
+        private final CRC32 checksum = new CRC32();
+        private int length = 0;
+        private int position = 0;
+        private boolean ended = false;
+
+        ChecksummedBlockInputStream(final InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            if (position == length && !readBlock())
+            {
+                return -1;
+            }
+            return block[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int count) throws IOException
+        {
+            if (count == 0)
+            {
+                return 0;
+            }
+            if (position == length && !readBlock())
+            {
+                return -1;
+            }
+            final int copied = Math.min(count, length - position);
+            System.arraycopy(block, position, bytes, offset, copied);
+            position += copied;
+            return copied;
+        }
+
+        // Reads and checks the next block, returning false once the empty block at the end is reached
+        private boolean readBlock() throws IOException
+        {
+            if (ended)
+            {
+                return false;
+            }
+            final int blockLength = readInt(in);
+            if (blockLength == 0)
+            {
+                ended = true;
+                return false;
+            }
+            if (blockLength < 0 || blockLength > block.length)
+            {
+                throw new IOException("Invalid checksummed block length");
+            }
+            int read = 0;
+            while (read < blockLength)
+            {
+                final int count = in.read(block, read, blockLength - read);
+                if (count < 0)
+                {
+                    throw new EOFException("Checksummed block is truncated");
+                }
+                read += count;
+            }
+            checksum.reset();
+            checksum.update(block, 0, blockLength);
+            if (readInt(in) != (int) checksum.getValue())
+            {
+                throw new IOException("Checksummed block doesn't match its checksum");
+            }
+            length = blockLength;
+            position = 0;
+            return true;
+        }
+
+        @Override public void close() throws IOException { in.close(); }
+    }
+
+    private static void writeInt(final OutputStream out, final int value) throws IOException
+    {
+        out.write(new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value});
+    }
+
+    private static int readInt(final InputStream in) throws IOException
+    {
+        int value = 0;
+        for (int i = 0; i < 4; ++i)
+        {
+            final int b = in.read();
+            if (b < 0)
+            {
+                throw new EOFException("Trade history is missing its checksum");
+            }
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    // Reads the shards of a sharded profile one after another, newest first. A shard that is missing or unreadable is
+    // skipped, and only the trades before the damage of a damaged shard are read, so the rest of the history can still
+    // be restored.
+    private static final class ShardedProfileReader extends ProfileReader
+    {
+        private List<SaveData_Profile.Shard> shards;
+        private final ShardSource shardSource;
+        private final List<SaveData_Profile.Shard> damagedShards = new ArrayList<>();
+        private int nextShard = 0;
+        private SaveData_Profile.Shard currentShard = null;
+        private ProfileReader current = null;
+
+        ShardedProfileReader(final int saveVersion, final List<SaveData_Profile.Shard> shards, final ShardSource shardSource)
+        {
+            super(saveVersion);
+            this.shards = shards;
+            this.shardSource = shardSource;
+        }
+
+        @Override boolean isNewestFirst() { return true; }
+
+        @Override
+        List<SaveData_Profile.Shard> getDamagedShards() { return damagedShards; }
+
+        @Override
+        List<SaveData_Profile.Shard> limitShards(final int tradeCount, final int minShardId)
+        {
+            int readCount = 0;
+            int limit = 0;
+            while (limit < shards.size() && (readCount < tradeCount || shards.get(limit).id >= minShardId))
+            {
+                readCount += shards.get(limit++).count;
+            }
+            final List<SaveData_Profile.Shard> unread = new ArrayList<>(shards.subList(limit, shards.size()));
+            shards = shards.subList(0, limit);
+            return unread;
+        }
+
+        @Override
+        TradeData read() throws IOException
+        {
+            while (current == null || !current.hasNext())
+            {
+                if (current != null && current.isDamaged())
+                {
+                    log.error("Trade history shard {} is damaged, only the trades before the damage were read", currentShard.id);
+                    damagedShards.add(currentShard);
+                }
+                close();
+                if (nextShard >= shards.size())
+                {
+                    return null;
+                }
+                currentShard = shards.get(nextShard++);
+                try
+                {
+                    final InputStream stored = shardSource.open(currentShard);
+                    if (stored == null)
+                    {
+                        log.error("Trade history shard {} is missing", currentShard.id);
+                        continue;
+                    }
+                    current = openShard(stored);
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    log.error("Trade history shard {} could not be read", currentShard.id);
+                    damagedShards.add(currentShard);
+                }
+            }
+            return current.next();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (current != null)
+            {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    private static final class JsonProfileReader extends ProfileReader
+    {
+        private final JsonReader jsonReader;
+        private final TypeAdapter<TradeData> tradeAdapter;
+
+        JsonProfileReader(final int saveVersion, final JsonReader jsonReader, final Gson gson) throws IOException
+        {
+            super(saveVersion);
+            this.jsonReader = jsonReader;
+            this.tradeAdapter = gson.getAdapter(TradeData.class);
+            jsonReader.setLenient(true);
+            jsonReader.beginArray();
+        }
+
+        @Override boolean isNewestFirst() { return false; }
+
+        // Older versions are upgraded one trade at a time as they are read
+        @Override
+        TradeData read() throws IOException
+        {
+            return jsonReader.hasNext() ? tradeAdapter.read(SaveUpgradeUtils.upgradeTrade(jsonReader, saveVersion)) : null;
+        }
+        @Override public void close() throws IOException { jsonReader.close(); }
+    }
+
+    // Reads the characters of a string as bytes. Only used for Base64 text, which is always ASCII.
+    private static final class AsciiStringInputStream extends InputStream
+    {
+        private final String str;
+        private int position = 0;
+
+        AsciiStringInputStream(final String str)
+        {
+            this.str = str;
+        }
+
+        @Override
+        public int read()
+        {
+            return position < str.length() ? str.charAt(position++) & 0x7F : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length)
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            if (position >= str.length())
+            {
+                return -1;
+            }
+            final int count = Math.min(length, str.length() - position);
+            for (int i = 0; i < count; ++i)
+            {
+                bytes[offset + i] = (byte) (str.charAt(position++) & 0x7F);
+            }
+            return count;
+        }
+    }
+
+    // Forwards bytes to another stream, but only flushes it when closed
+    private static final class NonClosingOutputStream extends FilterOutputStream
+    {
+        NonClosingOutputStream(final OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) throws IOException
+        {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.flush();
+        }
+    }
+}
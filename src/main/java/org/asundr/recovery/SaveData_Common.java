@@ -74,6 +74,15 @@ public class SaveData_Common
 
     public final ArrayList<TradeHistoryProfile> getSavedProfiles() { return new ArrayList<>(savedProfiles); }
 
+    // Adds the passed profile to the saved profiles without making it active
+    public void addSavedProfile(final TradeHistoryProfile profile)
+    {
+        if (profile != null && !savedProfiles.contains(profile))
+        {
+            savedProfiles.add(profile);
+        }
+    }
+
     public void removeSavedProfile(final TradeHistoryProfile profile)
     {
         savedProfiles.removeIf(e -> e == profile);
@@ -25,17 +25,46 @@
 
 package org.asundr.recovery;
 
+import java.util.List;
+
 // Serializable data used to save and restore trade history. Save version should be used to determine how to decode the tradeHistory string.
+// From version 5 the history is stored in shards, and this only holds the manifest listing them. From version 6 each
+// shard ends with a checksum, and is rewritten to the other of its two slots so the manifest only switches to it once
+// it is complete. From version 7 each shard is checksummed a block at a time, so a damaged shard still restores the
+// trades from its intact blocks.
 public class SaveData_Profile
 {
     public final int saveVersion;
     public final String profileName;
     public final String encodedTradeHistory;
+    public final List<Shard> shards; // ordered newest first
 
-    SaveData_Profile(final int saveVersion, final String profile, String encodedTradeHistory)
+    SaveData_Profile(final int saveVersion, final String profile, String encodedTradeHistory, final List<Shard> shards)
     {
         this.saveVersion = saveVersion;
         profileName = profile;
         this.encodedTradeHistory = encodedTradeHistory;
+        this.shards = shards;
+    }
+
+    // Manifest entry describing a stored shard of trades
+    public static final class Shard
+    {
+        public final int id;     // see TradeShards.getShardId
+        public final int count;  // number of trades in the shard
+        public final long first; // time of the oldest trade in the shard, or 0 if it was saved before this was recorded
+        public final int slot;   // which of the shard's two keys holds its trades, see TradeShards.getShardKey
+        public final long hash;  // see TradeShards.fingerprint, or 0 if the shard was saved without one
+        public final long bytes; // estimated encoded size of the trades, see TradeHistoryCodec.estimateSize, or 0 if the shard was saved without one
+
+        Shard(final int id, final int count, final long first, final int slot, final long hash, final long bytes)
+        {
+            this.id = id;
+            this.count = count;
+            this.first = first;
+            this.slot = slot;
+            this.hash = hash;
+            this.bytes = bytes;
+        }
     }
 }
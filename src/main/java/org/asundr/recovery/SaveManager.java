@@ -26,50 +26,94 @@
 package org.asundr.recovery;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 import net.runelite.api.GameState;
 import net.runelite.api.events.GameStateChanged;
 import net.runelite.client.config.ConfigManager;
+import net.runelite.client.RuneLite;
 import net.runelite.client.config.RuneScapeProfileType;
 import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
+import org.asundr.TradeTrackerConfig;
 import org.asundr.trade.TradeData;
+import org.asundr.trade.TradeHistoryIndex;
 import org.asundr.TradeHistoryProfile;
 import org.asundr.trade.TradeManager;
+import org.asundr.trade.TradeUtils;
 import org.asundr.utility.CommonUtils;
+import org.asundr.utility.MathUtils;
 import org.asundr.utility.StringUtils;
 
-import java.lang.reflect.Type;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayDeque;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Slf4j
 public class SaveManager
 {
-    public static final String REGEX_EMPTY_NOTES = ",\"note\":(?:null|\"\")";
-
-    // used to schedule saves and prevent save operations from being interrupted
-    private static final class SaveState
-    {
-        static final int INACTIVE = 0;
-        static final int REQUESTED = 1;
-        static final int ACTIVE = 1 << 1;
-        static final int ACTIVE_REQUESTED = REQUESTED | ACTIVE;
-
-    }
-    public static final int SAVE_VERSION = 2; // This should increase whenever save data or method changes
+    public static final int SAVE_VERSION = SaveDataStreams.BLOCK_CHECKSUMMED_VERSION; // This should increase whenever save data or method changes
     public static final String SAVE_GROUP = "TradeTracker";
     private static final String DEFAULT_SAVE_FILENAME = "profile";
+    private static final String DEFAULT_ARCHIVE_FILENAME = "trade-tracker-profiles";
+    private static final String STORE_DIRECTORY = "trade-tracker";
+    private static final String BACKUP_DIRECTORY = "backups";
+    private static final String ARCHIVE_DIRECTORY = "archive";
+    private static final String SYNC_DIRECTORY = "sync";
+    private static final String ITEM_CACHE_KEY = "itemCache";
+    private static final long AUTOMATIC_BACKUP_INTERVAL_MILLIS = 6 * 60 * 60 * 1000L;
+    private static final int RESTORE_FIRST_BATCH_SIZE = 32; // enough trades to fill the panel while the rest are read
+    private static final int RESTORE_BATCH_SIZE = 256;
+    private static final int EXPORT_PROGRESS_DELAY_MILLIS = 250; // exports that finish sooner don't show a progress dialog
+    private static final long AUTOSAVE_COMPRESSION_BUDGET_MILLIS = 20; // time autosaves may spend compressing before a faster codec is used
     private static ConfigManager configManager;
     private static SaveData_Common saveDataCommon;
-    private static final AtomicInteger tradeHistorySaveState = new AtomicInteger(SaveState.INACTIVE); // flags for trade history save operation
-    private static final AtomicInteger tradeHistoryLoadState = new AtomicInteger(SaveState.INACTIVE); // flags for trade history load operation
-    private static final ExecutorService ioExecutor = Executors.newFixedThreadPool(1);
-    private static Future<?> ioExecutorFuture  = null;
+    private static SaveScheduler saveScheduler; // runs all trade history io on a single thread
+    private static final AtomicBoolean restoreRequested = new AtomicBoolean(false);
+    private static final HashMap<TradeHistoryStore, HashMap<String, Integer>> journalLengths = new HashMap<>(); // journal entry count per profile key, only accessed on the io thread
+    private static TradeHistoryStore configStore;
+    private static TradeHistoryStore fileStore;
+    private static final Object dirtyShardsLock = new Object();
+    private static HashSet<Integer> dirtyShards = new HashSet<>(); // shards changed since the last save, or null if every shard must be rewritten
+    private static final HashSet<String> uncopiedDamagedShardKeys = new HashSet<>(); // damaged shards whose copy couldn't be kept, io thread only
+    private static final ColdTradeShards unloadedShards = new ColdTradeShards(); // older shards of the active profile that weren't restored
+    private static final AtomicBoolean unloadedIndexRequested = new AtomicBoolean(false);
+    private static String indexedProfileKey = null; // profile whose unloaded shards are in the trade history index, only accessed on the io thread
+    private static final HashMap<Integer, SaveData_Profile.Shard> indexedShards = new HashMap<>(); // unloaded shards in the trade history index by id, only accessed on the io thread
+    private static final ProfileHistoryCache historyCache = new ProfileHistoryCache(); // decoded histories of recently active profiles
+    private static volatile String restoredProfileKey = null; // profile whose history has been fully restored, so it can be cached when replaced
+    private static boolean savedProfilesPrefetched = false; // only accessed on the io thread
+    private static ProfileBackups backups;
+    private static TradeArchive tradeArchive;
+    private static SyncLog syncLog;
+    private static final HashMap<String, Long> lastBackupTimes = new HashMap<>(); // time of the newest backup per profile key, only accessed on the io thread
 
     @Subscribe
     private void onGameStateChanged(GameStateChanged evt)
@@ -80,6 +124,58 @@ public class SaveManager
         }
     }
 
+    // Trades of unloaded shards that were trimmed, loaded, merged into or changed by another client are indexed again
+    @Subscribe
+    private void onEventUnloadedTradesChanged(EventUnloadedTradesChanged e)
+    {
+        requestIndexUnloadedTrades();
+    }
+
+    @Subscribe
+    private void onConfigChanged(ConfigChanged e)
+    {
+        if (e.getGroup().equals(SAVE_GROUP) && e.getKey().equals(ConfigKey.SYNC_CLIENTS))
+        {
+            updateSyncWatcher();
+            return;
+        }
+        if (e.getGroup().equals(SAVE_GROUP) && e.getKey().equals(ConfigKey.HISTORY_CACHE))
+        {
+            historyCache.trim(getHistoryCacheBudget());
+            return;
+        }
+        if (!e.getGroup().equals(SAVE_GROUP) || !e.getKey().equals(ConfigKey.STORAGE_LOCATION) || saveScheduler == null)
+        {
+            return;
+        }
+        updateSyncWatcher();
+        final TradeHistoryStore from = getStore(parseStorageLocation(e.getOldValue()));
+        final TradeHistoryStore to = getStore(parseStorageLocation(e.getNewValue()));
+        saveScheduler.submit(() ->
+        {
+            try
+            {
+                migrateActiveProfile(from, to);
+            }
+            catch (IOException ex)
+            {
+                log.error("Failed to move trade history to the new storage location");
+            }
+        });
+    }
+
+    private static TradeTrackerConfig.StorageLocation parseStorageLocation(final String value)
+    {
+        try
+        {
+            return value == null ? TradeTrackerConfig.StorageLocation.CONFIG : TradeTrackerConfig.StorageLocation.valueOf(value);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return TradeTrackerConfig.StorageLocation.CONFIG;
+        }
+    }
+
     // repeatedly tries to get the player, then sets the active profile
     private void attemptGetPlayer()
     {
@@ -108,12 +204,34 @@ public class SaveManager
         }
         final SaveData_Common saveData = getSaveDataCommon();
         final TradeHistoryProfile oldProfile = saveData.getActiveProfile();
+        flushTradeHistorySave(oldProfile);
+        cacheReplacedHistory(oldProfile);
         saveData.setActiveProfile(profile);
         CommonUtils.postEvent(new EventTradeTrackerProfileChanged(oldProfile, profile));
         SaveManager.saveCommonData();
         SaveManager.requestRestoreTradeHistory();
     }
 
+    // Keeps the history of the passed profile in the cache as the active profile changes, so switching back to it doesn't
+    // need to restore it. Histories that haven't finished restoring aren't cached.
+    private static void cacheReplacedHistory(final TradeHistoryProfile profile)
+    {
+        if (saveScheduler == null || profile == null || !profile.getKeyString().equals(restoredProfileKey))
+        {
+            return;
+        }
+        final ArrayDeque<TradeData> tradeHistory = TradeManager.getTradeHistory();
+        // the unloaded shards are read on the io thread, after any queued changes to them
+        saveScheduler.submit(() -> historyCache.put(profile,
+                new ProfileHistoryCache.Entry(tradeHistory, unloadedShards.getShards(profile.getKeyString()), getStore()),
+                getHistoryCacheBudget()));
+    }
+
+    private static long getHistoryCacheBudget()
+    {
+        return (long) CommonUtils.getConfig().getHistoryCacheMegabytes() << 20;
+    }
+
     // Sets the active profile to null without updating the UI or saving
     public static void forgetActiveHistoryProfile()
     {
@@ -123,21 +241,74 @@ public class SaveManager
     public static void initialize(ConfigManager configManager)
     {
         SaveManager.configManager = configManager;
+        configStore = new ConfigTradeHistoryStore(configManager, SAVE_GROUP);
+        // Windows can't replace a file while it is mapped, and mappings are only released when garbage collected
+        fileStore = new FileTradeHistoryStore(RuneLite.RUNELITE_DIR.toPath().resolve(STORE_DIRECTORY), !System.getProperty("os.name", "").startsWith("Windows"));
+        backups = new ProfileBackups(new FileTradeHistoryStore(RuneLite.RUNELITE_DIR.toPath().resolve(STORE_DIRECTORY).resolve(BACKUP_DIRECTORY), false), StringUtils.getGsonBuilder());
+        tradeArchive = new TradeArchive(RuneLite.RUNELITE_DIR.toPath().resolve(STORE_DIRECTORY).resolve(ARCHIVE_DIRECTORY));
+        syncLog = new SyncLog(RuneLite.RUNELITE_DIR.toPath().resolve(STORE_DIRECTORY).resolve(SYNC_DIRECTORY), StringUtils.getGsonBuilder());
+        saveScheduler = new SaveScheduler(SaveManager::saveTradeHistoryData,
+                () -> CommonUtils.getConfig().getSaveDebounceMillis(),
+                () -> CommonUtils.getConfig().getSaveMaxLatencyMillis());
+        saveScheduler.submit(SaveManager::restoreItemCache);
+        updateSyncWatcher();
     }
 
-    public static void shutdown()
+    // Reads the saved item cache into TradeUtils, so the first history restored can be shown without item lookups
+    private static void restoreItemCache()
     {
-        if (CommonUtils.isThreadActive(ioExecutorFuture))
+        try
         {
-            if (hasFlag(tradeHistorySaveState, SaveState.ACTIVE))
-            {
-                ioExecutor.shutdown();
-            }
-            else
+            final String json = getStore().readText(ITEM_CACHE_KEY);
+            final SaveData_ItemCache itemCache = json == null ? null : StringUtils.getGsonBuilder().fromJson(json, SaveData_ItemCache.class);
+            if (itemCache != null && itemCache.itemNames != null && itemCache.unnotedIds != null)
             {
-                ioExecutor.shutdownNow();
+                TradeUtils.restoreItemCache(itemCache.itemNames, itemCache.unnotedIds);
             }
         }
+        catch (IOException | JsonParseException e)
+        {
+            log.warn("Failed to restore the item cache, item names will be looked up again");
+        }
+    }
+
+    // Requests that the item cache is saved if items were looked up since it was last saved
+    public static void requestItemCacheSave()
+    {
+        if (saveScheduler != null)
+        {
+            saveScheduler.submit(SaveManager::saveItemCache);
+        }
+    }
+
+    private static void saveItemCache()
+    {
+        if (!TradeUtils.takeItemCacheChanged())
+        {
+            return;
+        }
+        final SaveData_ItemCache itemCache = new SaveData_ItemCache(TradeUtils.getCachedItemNames(), TradeUtils.getCachedUnnotedIds());
+        try
+        {
+            getStore().writeText(ITEM_CACHE_KEY, StringUtils.getGsonBuilder().toJson(itemCache));
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to save the item cache");
+        }
+    }
+
+    // Writes any unsaved changes and waits for queued journal writes before stopping the io thread
+    public static void shutdown()
+    {
+        if (syncLog != null)
+        {
+            syncLog.stopWatching();
+        }
+        if (saveScheduler != null)
+        {
+            saveScheduler.shutdown();
+        }
     }
 
     private static SaveData_Common getSaveDataCommon()
@@ -151,7 +322,7 @@ public class SaveManager
 
     public static TradeHistoryProfile getActiveProfile() { return saveDataCommon == null ? null : saveDataCommon.getActiveProfile(); }
 
-    public static boolean isSaving() { return tradeHistorySaveState.get() != 0; }
+    public static boolean isSaving() { return saveScheduler != null && saveScheduler.isDirty(); }
 
     // serializes and saves common data
     private static void saveCommonData()
@@ -161,50 +332,202 @@ public class SaveManager
         configManager.setConfiguration(SAVE_GROUP, ConfigKey.COMMON, json);
     }
 
-    // Converts the active profile's trade history to a json string, or null if there is not a populated history
-    public static String getTradeHistoryAsJson()
+    // Saves the current trade history to the config using the profile's hash and account type as a key
+    private static void saveTradeHistoryData()
     {
         if (saveDataCommon == null || saveDataCommon.getActiveProfile() == null)
         {
-            return null;
+            return;
         }
-        final ArrayDeque<TradeData> tradeHistory = TradeManager.getTradeHistory();
-        if (tradeHistory.isEmpty())
+        saveItemCache();
+        final String profileKey = saveDataCommon.getActiveProfile().getKeyString();
+        if (isSyncing())
         {
-            return null;
+            try
+            {
+                // clients sharing the history all save it, so their saves take turns
+                withSavedHistoryLock(profileKey, () -> saveActiveTradeHistory(profileKey));
+                return;
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to lock the shared trade history, saving without the lock");
+            }
         }
-        final Gson gson = StringUtils.getGsonBuilder();
-        String historyJson = gson.toJson(tradeHistory);
-        historyJson = historyJson.replaceAll(REGEX_EMPTY_NOTES, ""); // remove empty notes
-        final SaveData_Profile saveData = new SaveData_Profile(
-                SAVE_VERSION,
-                SaveManager.saveDataCommon.getActiveProfile().getKeyString(),
-                CompressionUtils.compressToEncode(historyJson));
-        return gson.toJson(saveData);
+        saveActiveTradeHistory(profileKey);
     }
 
-    // Saves the current trade history to the config using the profile's hash and account type as a key
-    private static void saveTradeHistoryData()
+    private static void saveActiveTradeHistory(final String profileKey)
+    {
+        if (saveTradeHistoryData(getStore(), profileKey, TradeManager.getTradeHistory(), takeDirtyShards()) && isBackupDue(profileKey))
+        {
+            backupHistory(profileKey, TradeManager.getTradeHistory(), unloadedShards.getShards(profileKey));
+        }
+    }
+
+    // Saves the passed trade history to the store under the passed profile key. Only the shards in the passed set are
+    // written, along with any whose trade count no longer matches the manifest. A null set rewrites every shard.
+    // Shards of the profile that weren't loaded are kept as they are. Returns true if the history was saved.
+    // Shards are written to their other slot, and the manifest is switched to the new slots once they are all written,
+    // so a save that is interrupted leaves the previous snapshot intact.
+    // A shard whose fingerprint matches the manifest isn't written again even if it's marked as changed, since it would
+    // be written with the same bytes. Likewise an unchanged manifest isn't written.
+    private static boolean saveTradeHistoryData(final TradeHistoryStore store, final String profileKey, final ArrayDeque<TradeData> tradeHistory, final Set<Integer> changedShards)
     {
-        toggleFlag(tradeHistorySaveState, SaveState.ACTIVE_REQUESTED); // removed requested, add enabled active
         try
         {
-            final String json = getTradeHistoryAsJson();
-            if (saveDataCommon == null || saveDataCommon.getActiveProfile() == null)
+            final String oldManifest = store.readText(profileKey);
+            final List<SaveData_Profile.Shard> oldShardList = SaveDataStreams.readManifest(oldManifest);
+            final HashMap<Integer, SaveData_Profile.Shard> oldShards = new HashMap<>();
+            if (oldShardList != null)
             {
-                return;
+                oldShardList.forEach(shard -> oldShards.put(shard.id, shard));
             }
-            if (json == null)
+            final TreeMap<Integer, SaveData_Profile.Shard> shards = new TreeMap<>(Comparator.reverseOrder());
+            final List<String> replacedKeys = new ArrayList<>();
+            for (final Map.Entry<Integer, List<TradeData>> entry : TradeShards.group(tradeHistory).entrySet())
             {
-                configManager.unsetConfiguration(SAVE_GROUP, saveDataCommon.getActiveProfile().getKeyString());
-                return;
+                final int shardId = entry.getKey();
+                final List<TradeData> trades = entry.getValue();
+                final SaveData_Profile.Shard oldShard = oldShards.remove(shardId);
+                final long hash = TradeShards.fingerprint(trades);
+                // shards saved without a fingerprint fall back to being written whenever they are marked as changed
+                final boolean isChanged = oldShard == null || oldShard.count != trades.size()
+                        || (oldShard.hash == 0 ? changedShards == null || changedShards.contains(shardId) : oldShard.hash != hash);
+                final int slot = isChanged ? TradeShards.getReplacementSlot(oldShard) : oldShard.slot;
+                if (isChanged)
+                {
+                    keepUncopiedDamagedShard(store, profileKey, oldShard);
+                    store.writeBlob(TradeShards.getShardKey(profileKey, shardId, slot), out -> encodeShard(trades, out));
+                    if (oldShard != null)
+                    {
+                        replacedKeys.add(TradeShards.getShardKey(profileKey, oldShard));
+                    }
+                }
+                final long bytes = !isChanged && oldShard.bytes > 0 ? oldShard.bytes : TradeHistoryCodec.estimateSize(trades);
+                shards.put(shardId, new SaveData_Profile.Shard(shardId, trades.size(), trades.get(0).tradeTime, slot, hash, bytes));
+            }
+            for (final SaveData_Profile.Shard unloadedShard : unloadedShards.getShards(profileKey))
+            {
+                if (!shards.containsKey(unloadedShard.id))
+                {
+                    shards.put(unloadedShard.id, unloadedShard);
+                    oldShards.remove(unloadedShard.id);
+                }
+            }
+            for (final SaveData_Profile.Shard staleShard : oldShards.values())
+            {
+                keepUncopiedDamagedShard(store, profileKey, staleShard);
+                replacedKeys.add(TradeShards.getShardKey(profileKey, staleShard));
+            }
+            // the manifest is written after its shards so it never lists a shard that hasn't been saved, and the
+            // shards it no longer lists are only removed once it is written
+            if (shards.isEmpty())
+            {
+                if (oldManifest != null)
+                {
+                    store.remove(profileKey);
+                }
+            }
+            else
+            {
+                final String manifest = SaveDataStreams.writeManifest(StringUtils.getGsonBuilder(), profileKey, new ArrayList<>(shards.values()));
+                if (!manifest.equals(oldManifest))
+                {
+                    store.writeText(profileKey, manifest);
+                }
+            }
+            for (final String replacedKey : replacedKeys)
+            {
+                store.remove(replacedKey);
+            }
+            clearJournal(store, profileKey); // the snapshot now contains every journaled change
+            return true;
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to save trade history");
+            restoreDirtyShards(changedShards);
+            return false;
+        }
+    }
+
+    // Encodes the trades of a single shard
+    private static void encodeShard(final List<TradeData> trades, final OutputStream out) throws IOException
+    {
+        // autosaves are frequent, so they trade some density for speed once a shard gets large
+        final long estimatedBytes = (long) trades.size() * TradeHistoryCodec.TYPICAL_TRADE_SIZE;
+        SaveDataStreams.writeShard(out, trades, CompressionUtils.Settings.adaptive(estimatedBytes, AUTOSAVE_COMPRESSION_BUDGET_MILLIS));
+    }
+
+    // Returns the store that trade histories are saved in
+    private static TradeHistoryStore getStore()
+    {
+        return getStore(CommonUtils.getConfig().getStorageLocation());
+    }
+
+    private static TradeHistoryStore getStore(final TradeTrackerConfig.StorageLocation location)
+    {
+        return location == TradeTrackerConfig.StorageLocation.FILES ? fileStore : configStore;
+    }
+
+    // Immediately queues any unsaved changes of the passed profile, before the active profile changes and the history is replaced
+    private static void flushTradeHistorySave(final TradeHistoryProfile profile)
+    {
+        if (saveScheduler == null || !saveScheduler.cancelPendingSave() || profile == null)
+        {
+            return;
+        }
+        final String profileKey = profile.getKeyString();
+        final ArrayDeque<TradeData> tradeHistory = TradeManager.getTradeHistory();
+        final Set<Integer> changedShards = takeDirtyShards();
+        saveScheduler.submit(() -> saveTradeHistoryData(getStore(), profileKey, tradeHistory, changedShards));
+    }
+
+    // Marks the shard holding the trade made at the passed time as needing to be saved
+    private static void markShardDirty(final long tradeTime)
+    {
+        synchronized (dirtyShardsLock)
+        {
+            if (dirtyShards != null)
+            {
+                dirtyShards.add(TradeShards.getShardId(tradeTime));
             }
-            configManager.setConfiguration(SAVE_GROUP, SaveManager.saveDataCommon.getActiveProfile().getKeyString(), json);
         }
-        finally
+    }
+
+    private static void markAllShardsDirty()
+    {
+        synchronized (dirtyShardsLock)
+        {
+            dirtyShards = null;
+        }
+    }
+
+    // Returns the shards that need to be saved and clears them, null meaning every shard
+    private static Set<Integer> takeDirtyShards()
+    {
+        synchronized (dirtyShardsLock)
+        {
+            final Set<Integer> taken = dirtyShards;
+            dirtyShards = new HashSet<>();
+            return taken;
+        }
+    }
+
+    // Marks shards taken by a save that failed as needing to be saved again
+    private static void restoreDirtyShards(final Set<Integer> shards)
+    {
+        synchronized (dirtyShardsLock)
         {
-            clearFlag(tradeHistorySaveState, SaveState.ACTIVE);
-            ioExecutorFuture = null;
+            if (shards == null)
+            {
+                dirtyShards = null;
+            }
+            else if (dirtyShards != null)
+            {
+                dirtyShards.addAll(shards);
+            }
         }
     }
 
@@ -221,143 +544,1688 @@ public class SaveManager
         saveDataCommon = gson.fromJson(json, SaveData_Common.class);
     }
 
-    // Restores the history of trades from the config entry associated with the currently active account
-    private static void restoreTradeHistoryData()
+    // Restores the history of trades from the store entry associated with the currently active account.
+    // A history that is only found in the store that isn't selected is restored from there, then moved.
+    // A history that is still cached from when its profile was last active, or that was prefetched, is restored from memory.
+    private static void restoreTradeHistoryData() throws IOException
     {
+        restoreRequested.set(false);
+        restoredProfileKey = null;
         if (saveDataCommon == null || saveDataCommon.getActiveProfile() == null)
         {
             return;
         }
-        toggleFlag(tradeHistoryLoadState, SaveState.ACTIVE_REQUESTED);
-        final String json = configManager.getConfiguration(SAVE_GROUP, saveDataCommon.getActiveProfile().getKeyString());
-        restoreTradeHistoryDataFromJson(json);
-        clearFlag(tradeHistoryLoadState, SaveState.ACTIVE);
-        ioExecutorFuture = null;
+        final TradeHistoryProfile profile = saveDataCommon.getActiveProfile();
+        final String profileKey = profile.getKeyString();
+        final TradeHistoryStore activeStore = getStore();
+        final ProfileHistoryCache.Entry cached = historyCache.take(profile);
+        if (cached != null && cached.store == activeStore)
+        {
+            // the journal was already applied to the cached history, but its shards still need to be rewritten
+            readJournal(activeStore, profileKey).getChangedTradeTimes().forEach(SaveManager::markShardDirty);
+            if (isSyncing())
+            {
+                final TradeJournal.Replay synced = new TradeJournal.Replay();
+                readSyncedChanges(profileKey, synced);
+                synced.applyTo(cached.tradeHistory);
+                synced.getChangedTradeTimes().forEach(SaveManager::markShardDirty);
+            }
+            resetUnloadedShards(profileKey, cached.unloadedShards);
+            CommonUtils.postEvent(new EventTradeHistoryProfileRestored(profileKey, cached.tradeHistory));
+            restoredProfileKey = profileKey;
+            return;
+        }
+        final TradeHistoryStore store = getStoreHolding(profileKey);
+        final String json = store.readText(profileKey);
+        final TradeJournal.Replay journal = readJournal(store, profileKey);
+        if (isSyncing())
+        {
+            readSyncedChanges(profileKey, journal);
+        }
+        journal.getChangedTradeTimes().forEach(SaveManager::markShardDirty); // their shards are rewritten when the journal is compacted
+        final int restoredVersion = restoreTradeHistoryDataFromJson(json, journal, store);
+        if (store != activeStore)
+        {
+            migrateActiveProfile(store, activeStore);
+        }
+        else if (restoredVersion < SAVE_VERSION)
+        {
+            requestTradeHistorySave(); // rewrite older saves in the current format
+        }
+        restoredProfileKey = profileKey;
+        requestPrefetchSavedProfiles();
+    }
+
+    // Returns the store holding the saved history of the passed profile. The active store is preferred, and returned
+    // if neither store holds a history.
+    private static TradeHistoryStore getStoreHolding(final String profileKey) throws IOException
+    {
+        final TradeHistoryStore store = getStore();
+        if (store.readText(profileKey) != null || getJournalLength(store, profileKey) > 0)
+        {
+            return store;
+        }
+        final TradeHistoryStore otherStore = store == fileStore ? configStore : fileStore;
+        return otherStore.readText(profileKey) != null || getJournalLength(otherStore, profileKey) > 0 ? otherStore : store;
+    }
+
+    // Reads the histories of the other saved profiles into the cache in the background, once per session, so that
+    // switching to them shows their history straight away
+    private static void requestPrefetchSavedProfiles()
+    {
+        if (savedProfilesPrefetched || saveScheduler == null)
+        {
+            return;
+        }
+        savedProfilesPrefetched = true;
+        for (final TradeHistoryProfile profile : getSaveDataCommon().getSavedProfiles())
+        {
+            if (profile != null)
+            {
+                saveScheduler.submit(() -> prefetchProfileHistory(profile));
+            }
+        }
     }
 
-    // Restores the trade history using a json string serialized from SaveData_Profile
-    private static void restoreTradeHistoryDataFromJson(final String json)
+    // Reads the history of an inactive profile into the cache, as it would be restored, if it fits without evicting
+    // the history of a profile that was active more recently
+    private static void prefetchProfileHistory(final TradeHistoryProfile profile)
     {
-        final String profileKey = getSaveDataCommon().getActiveProfile() == null ? null : saveDataCommon.getActiveProfile().getKeyString();
-        if (json == null || json.equals(""))
+        final long budget = getHistoryCacheBudget();
+        if (budget == 0 || profile.equals(getActiveProfile()) || historyCache.contains(profile))
         {
-            CommonUtils.postEvent(new EventTradeHistoryProfileRestored(profileKey, new ArrayDeque<>()));
             return;
         }
-        final Type dequeType = new TypeToken<ArrayDeque<TradeData>>(){}.getType();
+        final String profileKey = profile.getKeyString();
+        final TradeHistoryStore store = getStore();
         try
         {
-            final Gson gson = StringUtils.getGsonBuilder();
-            final SaveData_Profile saveData = gson.fromJson(json, SaveData_Profile.class);
-            if (saveData == null)
+            final String json = store.readText(profileKey);
+            if (json == null)
             {
-                log.error("Failed to parse trade history json");
-                return;
+                return; // histories saved in the other store are moved when they are restored
             }
-            String decompressedHistory = CompressionUtils.decompressFromEncode(saveData.encodedTradeHistory);
-            if (saveData.saveVersion == 1)
+            final TradeJournal.Replay journal = readJournal(store, profileKey);
+            try (final SaveDataStreams.ProfileReader reader = SaveDataStreams.openProfile(json, StringUtils.getGsonBuilder(), shard -> store.openBlob(TradeShards.getShardKey(profileKey, shard))))
             {
-                decompressedHistory = SaveUpgradeUtils.version1to2json(decompressedHistory);
+                if (reader.saveVersion < SAVE_VERSION)
+                {
+                    return; // older saves are upgraded when they are restored
+                }
+                final List<SaveData_Profile.Shard> unloaded = reader.limitShards(CommonUtils.getConfig().getLoadedHistoryCount(), getOldestChangedShardId(journal));
+                final ArrayDeque<TradeData> tradeHistory = new ArrayDeque<>();
+                while (reader.hasNext())
+                {
+                    final TradeData tradeData = reader.next();
+                    if (journal.applyTo(tradeData))
+                    {
+                        tradeHistory.addFirst(tradeData);
+                    }
+                }
+                TradeJournal.mergeByTime(tradeHistory, journal.getAddedTrades());
+                if (reader.isDamaged() || !reader.getDamagedShards().isEmpty())
+                {
+                    return; // damaged saves are salvaged when they are restored
+                }
+                final ProfileHistoryCache.Entry entry = new ProfileHistoryCache.Entry(tradeHistory, unloaded, store);
+                if (historyCache.hasRoomFor(entry.size, budget) && !profile.equals(getActiveProfile()))
+                {
+                    historyCache.put(profile, entry, budget);
+                }
             }
-            CommonUtils.postEvent(new EventTradeHistoryProfileRestored(
-                    profileKey,
-                    gson.fromJson(decompressedHistory, dequeType)
-            ));
         }
-        catch (Exception e)
+        catch (IOException | RuntimeException e)
         {
-            log.error("Failed to parse trade history json");
+            log.debug("Failed to prefetch trade history of {}", profileKey);
+        }
+    }
+
+    // Returns the id of the oldest shard with a trade changed by the journal, or Integer.MAX_VALUE if it changes none
+    private static int getOldestChangedShardId(final TradeJournal.Replay journal)
+    {
+        int oldestChangedShardId = Integer.MAX_VALUE;
+        if (journal != null)
+        {
+            for (final long tradeTime : journal.getChangedTradeTimes())
+            {
+                oldestChangedShardId = Math.min(oldestChangedShardId, TradeShards.getShardId(tradeTime));
+            }
         }
+        return oldestChangedShardId;
     }
 
-    // Repeatedly attempts to start a new save or load thread while a queued save or load is pending
-    private static void scheduleRecoveryOperation()
+    // Restores the trade history using a json string serialized from SaveData_Profile.
+    // If passed, journaled changes made since the snapshot are applied on top of it. The shards of a sharded profile are
+    // read from the passed store, newest first. Only the newest shards are read, along with any the journal changes,
+    // and older shards are left unloaded until they are requested.
+    // When the save stores the newest trades first, they are posted as soon as they are read and older trades follow in batches.
+    // Damaged save data restores every trade before the damage. The damaged records are copied aside before the salvaged
+    // history is saved over them.
+    // Returns the save version of the restored data, or SAVE_VERSION if there was nothing to upgrade.
+    private static int restoreTradeHistoryDataFromJson(final String json, final TradeJournal.Replay journal, final TradeHistoryStore store)
     {
-        if (!CommonUtils.isThreadActive(ioExecutorFuture) && !hasFlag(tradeHistorySaveState, SaveState.ACTIVE) && !hasFlag(tradeHistoryLoadState, SaveState.ACTIVE))
+        final String profileKey = getSaveDataCommon().getActiveProfile() == null ? null : saveDataCommon.getActiveProfile().getKeyString();
+        final SaveDataStreams.ShardSource shardSource = store == null ? null : shard -> store.openBlob(TradeShards.getShardKey(profileKey, shard));
+        if (json == null || json.equals(""))
+        {
+            resetUnloadedShards(profileKey, Collections.emptyList());
+            final ArrayDeque<TradeData> tradeHistory = new ArrayDeque<>();
+            if (journal != null)
+            {
+                journal.applyTo(tradeHistory);
+            }
+            CommonUtils.postEvent(new EventTradeHistoryProfileRestored(profileKey, tradeHistory));
+            return SAVE_VERSION;
+        }
+        try (final SaveDataStreams.ProfileReader reader = SaveDataStreams.openProfile(json, StringUtils.getGsonBuilder(), shardSource))
         {
-            if (tradeHistorySaveState.get() == SaveState.REQUESTED)
+            // journaled changes are only applied to shards that are read
+            resetUnloadedShards(profileKey, reader.limitShards(CommonUtils.getConfig().getLoadedHistoryCount(), getOldestChangedShardId(journal)));
+            if (!reader.isNewestFirst())
+            {
+                final ArrayDeque<TradeData> tradeHistory = new ArrayDeque<>(reader.nextBatch(Integer.MAX_VALUE));
+                if (journal != null)
+                {
+                    journal.applyTo(tradeHistory);
+                }
+                CommonUtils.postEvent(new EventTradeHistoryProfileRestored(profileKey, tradeHistory));
+            }
+            else
             {
-                ioExecutorFuture = ioExecutor.submit(SaveManager::saveTradeHistoryData);
+                final ArrayDeque<TradeData> addedTrades = journal == null ? new ArrayDeque<>() : new ArrayDeque<>(journal.getAddedTrades());
+                final ArrayDeque<TradeData> newestTrades = readRestoreBatch(reader, RESTORE_FIRST_BATCH_SIZE, journal, addedTrades);
+                CommonUtils.postEvent(new EventTradeHistoryProfileRestored(profileKey, newestTrades));
+                while (reader.hasNext())
+                {
+                    final ArrayDeque<TradeData> olderTrades = readRestoreBatch(reader, RESTORE_BATCH_SIZE, journal, addedTrades);
+                    CommonUtils.postEvent(new EventTradeHistoryBatchRestored(profileKey, olderTrades, !reader.hasNext()));
+                }
             }
-            else if (tradeHistoryLoadState.get() == SaveState.REQUESTED)
+            if (store != null)
             {
-                ioExecutorFuture = ioExecutor.submit(SaveManager::restoreTradeHistoryData);
+                keepDamagedRecords(store, profileKey, json, reader);
             }
+            return reader.saveVersion;
         }
-        else if (hasFlag(tradeHistorySaveState, SaveState.REQUESTED) || hasFlag(tradeHistoryLoadState, SaveState.REQUESTED))
+        catch (Exception e)
         {
-            CommonUtils.getClientThread().invokeLater(SaveManager::scheduleRecoveryOperation);
+            log.error("Failed to parse trade history json");
+            if (store != null)
+            {
+                keepDamagedProfile(store, profileKey, json);
+            }
         }
+        return SAVE_VERSION;
     }
 
-    // The public method that should be called to reload from the current trade history profile
-    public static void requestRestoreTradeHistory()
+    // Copies the records that the passed reader found damaged to their damaged keys, and marks the shards they restored
+    // to be saved again. A shard only restores the trades from blocks matching their checksum, so only verified trades
+    // are saved again, and the damaged copy keeps the rest.
+    private static void keepDamagedRecords(final TradeHistoryStore store, final String profileKey, final String json, final SaveDataStreams.ProfileReader reader)
     {
-        setFlag(tradeHistoryLoadState, SaveState.REQUESTED);
-        CommonUtils.getClientThread().invokeLater(SaveManager::scheduleRecoveryOperation);
+        if (reader.isDamaged())
+        {
+            log.error("Trade history is damaged, only the trades before the damage were restored");
+            keepDamagedProfile(store, profileKey, json);
+        }
+        final HashSet<Integer> damagedShardIds = new HashSet<>();
+        for (final SaveData_Profile.Shard shard : reader.getDamagedShards())
+        {
+            if (!keepDamagedShard(store, profileKey, shard))
+            {
+                uncopiedDamagedShardKeys.add(TradeShards.getShardKey(profileKey, shard));
+            }
+            damagedShardIds.add(shard.id);
+            try
+            {
+                // without a fingerprint the shard is rewritten even if every trade was salvaged
+                updateManifestShard(store, profileKey, shard.id, new SaveData_Profile.Shard(shard.id, shard.count, shard.first, shard.slot, 0, shard.bytes));
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to mark damaged trade history shard {} to be saved again", shard.id);
+            }
+        }
+        if (!damagedShardIds.isEmpty())
+        {
+            restoreDirtyShards(damagedShardIds);
+            requestChangedShardsSave();
+        }
     }
 
-    // The public method that should be called to save the current trade history
-    public static void requestTradeHistorySave()
+    // Copies a profile entry that couldn't be fully read, so that it can still be recovered by hand after it's replaced
+    private static boolean keepDamagedProfile(final TradeHistoryStore store, final String profileKey, final String json)
     {
-        if (tradeHistoryLoadState.get() > 0)
+        try
         {
-            return;
+            store.writeText(TradeShards.getDamagedProfileKey(profileKey), json);
+            return true;
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to keep a copy of the damaged trade history");
         }
-        setFlag(tradeHistorySaveState, SaveState.REQUESTED);
-        CommonUtils.getClientThread().invokeLater(SaveManager::scheduleRecoveryOperation);
+        return false;
     }
 
-    // Saves to the plugin's default group with the passed key
-    public static void saveWithKey(final String key, Object data)
+    // Tries again to keep a copy of a damaged shard that is about to be replaced, if its copy couldn't be kept when it was
+    // restored. Throws if the copy still can't be kept, so the save doesn't replace the trades that couldn't be read.
+    private static void keepUncopiedDamagedShard(final TradeHistoryStore store, final String profileKey, final SaveData_Profile.Shard shard) throws IOException
     {
-        final Gson gson = StringUtils.getGsonBuilder();
-        configManager.setConfiguration(SAVE_GROUP, key, gson.toJson(data));
+        final String shardKey = shard == null ? null : TradeShards.getShardKey(profileKey, shard);
+        if (shardKey == null || !uncopiedDamagedShardKeys.contains(shardKey))
+        {
+            return;
+        }
+        if (!keepDamagedShard(store, profileKey, shard))
+        {
+            throw new IOException("Trade history shard " + shard.id + " is damaged and a copy couldn't be kept");
+        }
+        uncopiedDamagedShardKeys.remove(shardKey);
     }
 
-    // Restores from the plugin's default group with the passed key.
-    // Return type matches that of the variable this function output is assigned to.
-    public static <T> T restoreFromKey(final String key)
+    // Copies the stored bytes of a shard that couldn't be fully read, so that it can still be recovered by hand.
+    // Returns true if the copy was written.
+    private static boolean keepDamagedShard(final TradeHistoryStore store, final String profileKey, final SaveData_Profile.Shard shard)
     {
-        final Gson gson = StringUtils.getGsonBuilder();
-        final String value = configManager.getConfiguration(SAVE_GROUP, key);
-        if (value == null)
+        try (final InputStream in = store.openBlob(TradeShards.getShardKey(profileKey, shard)))
         {
-            return null;
+            if (in != null)
+            {
+                store.writeBlob(TradeShards.getDamagedShardKey(profileKey, shard.id), in::transferTo);
+                log.error("Kept a copy of damaged trade history shard {}", shard.id);
+                return true;
+            }
         }
-        return gson.fromJson(value, new TypeToken<T>(){}.getType());
+        catch (IOException | RuntimeException e)
+        {
+            log.error("Failed to keep a copy of damaged trade history shard {}", shard.id);
+        }
+        return false;
     }
 
-    // Exports the active profile's trade history profile as json to the file specified by the user
-    public static void saveTradeHistoryToFile()
+    // Reads the next batch of a newest first reader, returning the trades that remain after applying the journal ordered oldest to newest
+    private static ArrayDeque<TradeData> readRestoreBatch(final SaveDataStreams.ProfileReader reader, final int batchSize, final TradeJournal.Replay journal,
+                                                          final ArrayDeque<TradeData> addedTrades) throws IOException
     {
-        final String json = getTradeHistoryAsJson();
-        if (json != null)
+        final List<TradeData> trades = reader.nextBatch(batchSize);
+        final ArrayDeque<TradeData> batch = new ArrayDeque<>(batchSize);
+        for (final TradeData tradeData : trades)
+        {
+            if (journal == null || journal.applyTo(tradeData))
+            {
+                batch.addFirst(tradeData);
+            }
+        }
+        // trades the journal adds go in the batch covering the time they were made, or the last batch if they're older
+        final long oldestTime = reader.hasNext() && !trades.isEmpty() ? trades.get(trades.size() - 1).tradeTime : Long.MIN_VALUE;
+        final ArrayDeque<TradeData> batchAddedTrades = new ArrayDeque<>();
+        while (!addedTrades.isEmpty() && addedTrades.getLast().tradeTime >= oldestTime)
         {
-            FileUtils.writeStringToFile(saveDataCommon.getActiveProfile().getKeyString(), json);
+            batchAddedTrades.addFirst(addedTrades.removeLast());
         }
+        TradeJournal.mergeByTime(batch, batchAddedTrades);
+        return batch;
     }
 
-    // Imports a trade history profile to the active profile from a file specified by the user
-    public static void loadTradeHistoryFromFile()
+    // The public method that should be called to reload from the current trade history profile.
+    // Requests made before a queued restore starts are merged into it.
+    public static void requestRestoreTradeHistory()
     {
-        String filename = DEFAULT_SAVE_FILENAME;
-        if (saveDataCommon != null && saveDataCommon.getActiveProfile() != null)
-        {
-            filename = saveDataCommon.getActiveProfile().getKeyString();
-        }
-        final String json = FileUtils.readStringFromFile(filename);
-        if (json == null || json.isBlank())
+        if (saveScheduler != null && restoreRequested.compareAndSet(false, true))
         {
-            return;
+            saveScheduler.submit(() ->
+            {
+                try
+                {
+                    restoreTradeHistoryData();
+                }
+                catch (IOException e)
+                {
+                    log.error("Failed to read trade history");
+                }
+            });
         }
-        restoreTradeHistoryDataFromJson(json);
     }
 
+    // Returns the number of trades of the active profile that are saved but not loaded
+    public static int getUnloadedTradeCount()
+    {
+        return unloadedShards.getTradeCount();
+    }
+
+    // Returns the estimated encoded size of the trades that are saved but not loaded
+    public static long getUnloadedEncodedSize()
+    {
+        return unloadedShards.getEncodedSize();
+    }
+
+    // Requests that the oldest unloaded trades are removed from the save until at least the passed number of bytes is
+    // freed, or every unloaded trade is removed. Returns the estimated number of bytes that will be freed.
+    public static long requestRemoveOldestUnloadedBytes(final long bytes)
+    {
+        final long sizeBefore = getUnloadedEncodedSize();
+        requestRemoveOldestUnloadedTrades(unloadedShards.countOldestToFree(bytes));
+        return sizeBefore - getUnloadedEncodedSize();
+    }
+
+    // Returns the encoded size of a trade, not counting its player's name, see TradeHistoryCodec.estimateSize
+    public static int estimateEncodedSize(final TradeData tradeData)
+    {
+        return TradeHistoryCodec.estimateSize(tradeData);
+    }
+
+    // Returns the encoded size of a player's name, which is stored once however many trades share it
+    public static int estimateEncodedNameSize(final String name)
+    {
+        return TradeHistoryCodec.estimateNameSize(name);
+    }
+
+    // Returns the time of the oldest trade that is saved but not loaded, or Long.MAX_VALUE if every trade is loaded
+    public static long getOldestUnloadedTradeTime()
+    {
+        return unloadedShards.getOldestTradeTime();
+    }
+
+    // Loads the newest month of trades that isn't loaded, which is added to the history as an EventTradeHistoryBatchRestored
+    public static void requestLoadOlderTrades()
+    {
+        if (saveScheduler == null || getActiveProfile() == null)
+        {
+            return;
+        }
+        final String profileKey = getActiveProfile().getKeyString();
+        saveScheduler.submit(() ->
+        {
+            try
+            {
+                withSavedHistoryLock(profileKey, () -> loadOlderTrades(profileKey));
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to load older trades");
+            }
+        });
+    }
+
+    private static void loadOlderTrades(final String profileKey)
+    {
+        final SaveData_Profile.Shard shard = unloadedShards.takeNewest(profileKey);
+        if (shard == null)
+        {
+            return;
+        }
+        final ArrayDeque<TradeData> olderTrades;
+        try
+        {
+            olderTrades = new ArrayDeque<>(readUnloadedShard(getStore(), profileKey, shard));
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to load older trades");
+            unloadedShards.replace(profileKey, shard.id, shard);
+            return;
+        }
+        CommonUtils.postEvent(new EventTradeHistoryBatchRestored(profileKey, olderTrades, true));
+        CommonUtils.postEvent(new EventUnloadedTradesChanged(profileKey));
+    }
+
+    // Requests that up to the passed number of the oldest unloaded trades are removed from the save.
+    // Returns the number of trades that will be removed, the rest need to be removed from the loaded history.
+    public static int requestRemoveOldestUnloadedTrades(final int count)
+    {
+        if (saveScheduler == null || getActiveProfile() == null)
+        {
+            return 0;
+        }
+        final int reserved = unloadedShards.reserveOldest(count);
+        if (reserved == 0)
+        {
+            return 0;
+        }
+        final String profileKey = getActiveProfile().getKeyString();
+        saveScheduler.submit(() ->
+        {
+            try
+            {
+                withSavedHistoryLock(profileKey, () ->
+                {
+                    int remaining = reserved;
+                    SaveData_Profile.Shard shard;
+                    while (remaining > 0 && (shard = unloadedShards.getOldest(profileKey)) != null)
+                    {
+                        remaining -= trimOldestUnloadedShard(getStore(), profileKey, shard, remaining, Long.MAX_VALUE);
+                    }
+                });
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to remove older trades");
+            }
+            unloadedShards.releaseReserved(reserved);
+            CommonUtils.postEvent(new EventUnloadedTradesChanged(profileKey));
+        });
+        return reserved;
+    }
+
+    // Requests that unloaded trades made before the passed time, in seconds, are removed from the save
+    public static void requestRemoveExpiredUnloadedTrades(final long cutoffTime)
+    {
+        if (saveScheduler == null || getActiveProfile() == null)
+        {
+            return;
+        }
+        final String profileKey = getActiveProfile().getKeyString();
+        saveScheduler.submit(() ->
+        {
+            try
+            {
+                withSavedHistoryLock(profileKey, () ->
+                {
+                    SaveData_Profile.Shard shard;
+                    while ((shard = unloadedShards.getOldest(profileKey)) != null && unloadedShards.getOldestTradeTime() < cutoffTime)
+                    {
+                        if (trimOldestUnloadedShard(getStore(), profileKey, shard, Integer.MAX_VALUE, cutoffTime) < shard.count)
+                        {
+                            break;
+                        }
+                    }
+                });
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to remove expired older trades");
+            }
+            CommonUtils.postEvent(new EventUnloadedTradesChanged(profileKey));
+        });
+    }
+
+    // Requests that loaded trades removed by the history limits are appended to the active profile's archive
+    public static void requestArchiveTrades(final Collection<TradeData> trades)
+    {
+        if (saveScheduler == null || getActiveProfile() == null || trades.isEmpty())
+        {
+            return;
+        }
+        final String profileKey = getActiveProfile().getKeyString();
+        final ArrayList<TradeData> removed = new ArrayList<>(trades);
+        saveScheduler.submit(() -> archiveTrades(profileKey, removed));
+    }
+
+    // Appends trades removed by the history limits to the profile's archive, if archiving is enabled
+    private static void archiveTrades(final String profileKey, final List<TradeData> trades)
+    {
+        if (tradeArchive == null || !CommonUtils.getConfig().archiveRemovedTrades())
+        {
+            return;
+        }
+        try
+        {
+            if (isSyncing())
+            {
+                // clients sharing the history also share its archive
+                syncLog.withLock(profileKey, () -> tradeArchive.append(profileKey, trades));
+            }
+            else
+            {
+                tradeArchive.append(profileKey, trades);
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to archive {} removed trades", trades.size());
+        }
+    }
+
+    // Replaces the tracked unloaded shards, and has the trade history index brought up to date with them
+    private static void resetUnloadedShards(final String profileKey, final Collection<SaveData_Profile.Shard> shards)
+    {
+        unloadedShards.reset(profileKey, shards);
+        requestIndexUnloadedTrades();
+    }
+
+    private static void requestIndexUnloadedTrades()
+    {
+        if (saveScheduler != null && unloadedIndexRequested.compareAndSet(false, true))
+        {
+            saveScheduler.submit(SaveManager::indexUnloadedTrades);
+        }
+    }
+
+    // Brings the trades of unloaded shards in the trade history index up to date with the tracked unloaded shards. Shards
+    // that were removed or rewritten are dropped from the index, and a shard that isn't indexed yet is read and added.
+    // Only one shard is read per task, so a large history is indexed without holding up saves.
+    private static void indexUnloadedTrades()
+    {
+        unloadedIndexRequested.set(false);
+        final TradeHistoryIndex index = TradeHistoryIndex.getInstance();
+        final String profileKey = getActiveProfile() == null ? null : getActiveProfile().getKeyString();
+        if (!Objects.equals(profileKey, indexedProfileKey))
+        {
+            index.clearUnloadedTrades();
+            indexedShards.clear();
+            indexedProfileKey = profileKey;
+        }
+        final List<SaveData_Profile.Shard> shards = profileKey == null ? Collections.emptyList() : unloadedShards.getShards(profileKey);
+        final HashMap<Integer, SaveData_Profile.Shard> current = new HashMap<>();
+        shards.forEach(shard -> current.put(shard.id, shard));
+        indexedShards.entrySet().removeIf(entry ->
+        {
+            if (ColdTradeShards.isSameShard(entry.getValue(), current.get(entry.getKey())))
+            {
+                return false;
+            }
+            index.removeUnloadedTrades(entry.getKey());
+            return true;
+        });
+        for (final SaveData_Profile.Shard shard : shards)
+        {
+            if (indexedShards.containsKey(shard.id))
+            {
+                continue;
+            }
+            try
+            {
+                withSavedHistoryLock(profileKey, () -> index.putUnloadedTrades(shard.id, readUnloadedShard(getStore(), profileKey, shard)));
+            }
+            catch (IOException e)
+            {
+                log.error("Trade history shard {} could not be read, its trades aren't indexed", shard.id);
+            }
+            indexedShards.put(shard.id, shard); // not read again until it changes
+            requestIndexUnloadedTrades();
+            return;
+        }
+    }
+
+    // Forgets the unloaded trades of the active profile, so that the next save removes them
+    public static void discardUnloadedTrades()
+    {
+        final TradeHistoryProfile profile = getActiveProfile();
+        resetUnloadedShards(profile == null ? null : profile.getKeyString(), Collections.emptyList());
+    }
+
+    // Removes the oldest trades of an unloaded shard, up to the passed count and stopping at the first trade made at or
+    // after the passed time. The shard is rewritten, or removed if it is left empty. Returns the number of trades removed.
+    // A shard that can't be read is left as it is and the exception is thrown, since its trades couldn't be archived.
+    private static int trimOldestUnloadedShard(final TradeHistoryStore store, final String profileKey, final SaveData_Profile.Shard shard,
+                                               final int maxCount, final long cutoffTime) throws IOException
+    {
+        final List<TradeData> trades;
+        try
+        {
+            trades = readUnloadedShard(store, profileKey, shard);
+        }
+        catch (IOException e)
+        {
+            log.error("Trade history shard {} could not be read, its trades were kept", shard.id);
+            throw e;
+        }
+        int removedCount = 0;
+        while (removedCount < trades.size() && removedCount < maxCount && trades.get(removedCount).tradeTime < cutoffTime)
+        {
+            ++removedCount;
+        }
+        if (removedCount > 0)
+        {
+            // archived before the shard is rewritten, so a failure part way can only archive a trade twice, never lose it
+            archiveTrades(profileKey, trades.subList(0, removedCount));
+        }
+        final List<TradeData> remaining = trades.subList(removedCount, trades.size());
+        final boolean rewrite = !remaining.isEmpty() && (removedCount > 0 || trades.size() != shard.count); // a damaged shard is rewritten with the trades salvaged from it
+        final SaveData_Profile.Shard replacement = remaining.isEmpty() ? null : rewrite ? TradeShards.describe(shard.id, remaining, TradeShards.getReplacementSlot(shard)) : shard;
+        if (rewrite)
+        {
+            store.writeBlob(TradeShards.getShardKey(profileKey, replacement), out -> encodeShard(remaining, out));
+        }
+        unloadedShards.replace(profileKey, shard.id, replacement);
+        // the manifest is updated before the replaced shard is deleted so it never lists a shard that doesn't exist
+        updateManifestShard(store, profileKey, shard.id, replacement);
+        if (replacement == null || rewrite)
+        {
+            store.remove(TradeShards.getShardKey(profileKey, shard));
+        }
+        return replacement == null ? Math.max(removedCount, shard.count) : removedCount;
+    }
+
+    // Replaces the manifest entry of a single shard. A null replacement removes the entry.
+    private static void updateManifestShard(final TradeHistoryStore store, final String profileKey, final int shardId, final SaveData_Profile.Shard replacement) throws IOException
+    {
+        List<SaveData_Profile.Shard> manifest = SaveDataStreams.readManifest(store.readText(profileKey));
+        if (manifest == null)
+        {
+            manifest = new ArrayList<>();
+        }
+        manifest.removeIf(s -> s.id == shardId);
+        if (replacement != null)
+        {
+            manifest.add(replacement);
+            manifest.sort((a, b) -> Integer.compare(b.id, a.id));
+        }
+        if (manifest.isEmpty())
+        {
+            store.remove(profileKey);
+        }
+        else
+        {
+            store.writeText(profileKey, SaveDataStreams.writeManifest(StringUtils.getGsonBuilder(), profileKey, manifest));
+        }
+    }
+
+    // Reads the trades of an unloaded shard, ordered oldest to newest. If the shard is damaged, a copy is kept and the
+    // trades before the damage are returned. If the copy can't be kept an exception is thrown instead, so the salvaged
+    // trades are never saved over the trades that couldn't be read.
+    private static List<TradeData> readUnloadedShard(final TradeHistoryStore store, final String profileKey, final SaveData_Profile.Shard shard) throws IOException
+    {
+        final InputStream stored = store.openBlob(TradeShards.getShardKey(profileKey, shard));
+        if (stored == null)
+        {
+            throw new IOException("Trade history shard " + shard.id + " is missing");
+        }
+        final List<TradeData> trades;
+        final boolean damaged;
+        try (final SaveDataStreams.ProfileReader reader = SaveDataStreams.openShard(stored))
+        {
+            trades = reader.nextBatch(Integer.MAX_VALUE);
+            damaged = reader.isDamaged();
+        }
+        catch (IOException e)
+        {
+            keepDamagedShard(store, profileKey, shard);
+            throw e;
+        }
+        if (damaged)
+        {
+            log.error("Trade history shard {} is damaged, only the trades before the damage were read", shard.id);
+            if (!keepDamagedShard(store, profileKey, shard))
+            {
+                throw new IOException("Trade history shard " + shard.id + " is damaged and a copy couldn't be kept");
+            }
+        }
+        Collections.reverse(trades);
+        return trades;
+    }
+
+    // The public method that should be called to save the current trade history.
+    // Saves are debounced, so a burst of changes is written once. Saves requested while a history is loading run after it.
+    public static void requestTradeHistorySave()
+    {
+        markAllShardsDirty();
+        requestChangedShardsSave();
+    }
+
+    // Saves only the shards marked as changed
+    private static void requestChangedShardsSave()
+    {
+        if (saveScheduler != null)
+        {
+            saveScheduler.requestSave();
+        }
+    }
+
+    // The public methods that should be called when a single trade changes. If journaling is enabled, only the change is
+    // written, otherwise the whole history is saved.
+    public static void requestJournalTradeAdded(final TradeData tradeData) { requestJournalEntry(TradeJournal.Entry.added(tradeData)); }
+    public static void requestJournalTradeRemoved(final TradeData tradeData) { requestJournalEntry(TradeJournal.Entry.removed(tradeData)); }
+    public static void requestJournalNoteChanged(final TradeData tradeData) { requestJournalEntry(TradeJournal.Entry.noteChanged(tradeData)); }
+
+    // Queues the entry to be appended to the active profile's journal
+    private static void requestJournalEntry(final TradeJournal.Entry entry)
+    {
+        markShardDirty(entry.tradeTime);
+        if (saveScheduler != null && isSyncing() && getActiveProfile() != null)
+        {
+            // clients sharing a history would overwrite each other's journal entries, so the shared log takes its place
+            final String profileKey = getActiveProfile().getKeyString();
+            saveScheduler.submit(() -> appendSyncEntry(profileKey, entry));
+            requestChangedShardsSave();
+            return;
+        }
+        // Entries are not dropped while a history is loading, they are written by the io thread once the load finishes
+        if (saveScheduler == null || !CommonUtils.getConfig().useSaveJournal() || getActiveProfile() == null)
+        {
+            requestChangedShardsSave();
+            return;
+        }
+        final String profileKey = getActiveProfile().getKeyString();
+        saveScheduler.submit(() -> appendJournalEntry(profileKey, entry));
+    }
+
+    // Writes a journal entry after the last entry of the profile's journal, then requests a compacting save if the journal is full
+    private static void appendJournalEntry(final String profileKey, final TradeJournal.Entry entry)
+    {
+        try
+        {
+            final TradeHistoryStore store = getStore();
+            final int index = getJournalLength(store, profileKey);
+            store.writeText(TradeJournal.getEntryKey(profileKey, index), TradeJournal.encode(entry));
+            getJournalLengths(store).put(profileKey, index + 1);
+            final TradeHistoryProfile activeProfile = getActiveProfile();
+            if (index + 1 >= TradeJournal.COMPACTION_THRESHOLD && activeProfile != null && activeProfile.getKeyString().equals(profileKey))
+            {
+                requestChangedShardsSave();
+            }
+        }
+        catch (Exception e)
+        {
+            log.error("Failed to write trade history journal entry");
+        }
+    }
+
+    // Returns true if changes are shared with other clients on this computer through the sync log. Clients only share a
+    // saved history when it is stored in files, since each client keeps its own copy of the config.
+    private static boolean isSyncing()
+    {
+        return syncLog != null && CommonUtils.getConfig().syncBetweenClients()
+                && CommonUtils.getConfig().getStorageLocation() == TradeTrackerConfig.StorageLocation.FILES;
+    }
+
+    // Runs a task that writes the saved history of the passed profile. While syncing, the task holds the lock shared with
+    // the other clients, and the unloaded shards are first read again from the saved manifest, since another client may
+    // have trimmed or rewritten them since this client last read it.
+    private static void withSavedHistoryLock(final String profileKey, final SyncLog.LockedTask task) throws IOException
+    {
+        if (!isSyncing())
+        {
+            task.run();
+            return;
+        }
+        syncLog.withLock(profileKey, () ->
+        {
+            refreshUnloadedShards(profileKey);
+            task.run();
+        });
+    }
+
+    // Replaces the tracked unloaded shards of the profile with those its saved manifest lists for the same months
+    private static void refreshUnloadedShards(final String profileKey) throws IOException
+    {
+        final String json = getStore().readText(profileKey);
+        final List<SaveData_Profile.Shard> manifest = json == null ? Collections.emptyList() : SaveDataStreams.readManifest(json);
+        if (manifest != null && unloadedShards.refresh(profileKey, manifest))
+        {
+            CommonUtils.postEvent(new EventUnloadedTradesChanged(profileKey));
+        }
+    }
+
+    // Starts or stops watching for changes made by other clients, to match the config
+    private static void updateSyncWatcher()
+    {
+        if (!isSyncing())
+        {
+            if (syncLog != null)
+            {
+                syncLog.stopWatching();
+            }
+            if (CommonUtils.getConfig().syncBetweenClients())
+            {
+                log.warn("Trade history changes are only synced between clients when the history is stored in files");
+            }
+            return;
+        }
+        try
+        {
+            syncLog.startWatching(SaveManager::requestApplySyncedChanges);
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to watch for trade history changes made by other clients");
+        }
+    }
+
+    private static void appendSyncEntry(final String profileKey, final TradeJournal.Entry entry)
+    {
+        try
+        {
+            syncLog.append(profileKey, entry);
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to share a trade history change with other clients");
+        }
+    }
+
+    // Adds every change in the profile's sync log to the passed replay. Changes that other clients haven't saved yet
+    // are only found there. Replaying is idempotent, so changes that were saved are applied again safely.
+    private static void readSyncedChanges(final String profileKey, final TradeJournal.Replay replay)
+    {
+        try
+        {
+            syncLog.readAll(profileKey).forEach(replay::apply);
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to read trade history changes made by other clients");
+        }
+    }
+
+    private static void requestApplySyncedChanges()
+    {
+        if (saveScheduler != null)
+        {
+            saveScheduler.submit(SaveManager::applySyncedChanges);
+        }
+    }
+
+    // Applies the changes other clients made to the active history since they were last read. If some were compacted
+    // out of the log before they were read, the history is restored again instead.
+    private static void applySyncedChanges()
+    {
+        final String profileKey = restoredProfileKey;
+        if (profileKey == null || !isSyncing())
+        {
+            return;
+        }
+        final List<TradeJournal.Entry> entries;
+        try
+        {
+            entries = syncLog.readNew(profileKey);
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to read trade history changes made by other clients");
+            return;
+        }
+        if (entries == null)
+        {
+            log.warn("Missed trade history changes made by other clients, restoring the history again");
+            requestRestoreTradeHistory();
+            return;
+        }
+        if (entries.isEmpty())
+        {
+            return;
+        }
+        CommonUtils.getClientThread().invokeLater(() ->
+        {
+            final TradeHistoryProfile profile = getActiveProfile();
+            if (profile == null || !profile.getKeyString().equals(profileKey))
+            {
+                return;
+            }
+            for (final TradeJournal.Entry entry : entries)
+            {
+                if (entry == null || entry.op == null)
+                {
+                    continue;
+                }
+                switch (entry.op)
+                {
+                    case ADD:
+                        if (entry.trade != null)
+                        {
+                            TradeManager.requestApplySyncedTradeAdded(entry.trade);
+                        }
+                        break;
+                    case REMOVE:
+                        TradeManager.requestApplySyncedTradeRemoved(entry.tradeTime);
+                        break;
+                    case NOTE:
+                        TradeManager.requestApplySyncedNoteChanged(entry.tradeTime, entry.note == null ? "" : entry.note);
+                        break;
+                }
+            }
+        });
+    }
+
+    // Saves the shard of a trade changed by another client. It isn't shared again, since the other clients have it.
+    public static void requestSyncedTradeSave(final long tradeTime)
+    {
+        markShardDirty(tradeTime);
+        requestChangedShardsSave();
+    }
+
+    // Reads all journal entries of the passed profile in the order they were written
+    private static TradeJournal.Replay readJournal(final TradeHistoryStore store, final String profileKey) throws IOException
+    {
+        final Gson gson = StringUtils.getGsonBuilder();
+        final TradeJournal.Replay replay = new TradeJournal.Replay();
+        String value;
+        while ((value = store.readText(TradeJournal.getEntryKey(profileKey, replay.getEntryCount()))) != null)
+        {
+            try
+            {
+                replay.apply(TradeJournal.decode(gson, value));
+            }
+            catch (Exception e)
+            {
+                log.error("Skipped unreadable trade history journal entry");
+                replay.apply(null);
+            }
+        }
+        getJournalLengths(store).put(profileKey, replay.getEntryCount());
+        return replay;
+    }
+
+    // Returns the number of journal entries stored for the passed profile
+    private static int getJournalLength(final TradeHistoryStore store, final String profileKey) throws IOException
+    {
+        final Integer length = getJournalLengths(store).get(profileKey);
+        if (length != null)
+        {
+            return length;
+        }
+        int count = 0;
+        while (store.readText(TradeJournal.getEntryKey(profileKey, count)) != null)
+        {
+            ++count;
+        }
+        getJournalLengths(store).put(profileKey, count);
+        return count;
+    }
+
+    private static HashMap<String, Integer> getJournalLengths(final TradeHistoryStore store)
+    {
+        return journalLengths.computeIfAbsent(store, k -> new HashMap<>());
+    }
+
+    // Removes all journal entries of the passed profile
+    private static void clearJournal(final TradeHistoryStore store, final String profileKey) throws IOException
+    {
+        final int length = getJournalLength(store, profileKey);
+        for (int i = 0; i < length; ++i)
+        {
+            store.remove(TradeJournal.getEntryKey(profileKey, i));
+        }
+        getJournalLengths(store).put(profileKey, 0);
+    }
+
+    // Removes every record of the passed profile from the store
+    private static void removeProfileRecords(final TradeHistoryStore store, final String profileKey) throws IOException
+    {
+        final List<SaveData_Profile.Shard> shards = SaveDataStreams.readManifest(store.readText(profileKey));
+        if (shards != null)
+        {
+            for (final SaveData_Profile.Shard shard : shards)
+            {
+                store.remove(TradeShards.getShardKey(profileKey, shard));
+            }
+        }
+        clearJournal(store, profileKey);
+        store.remove(profileKey);
+    }
+
+    // Moves the active profile's history into the store it should now be saved in
+    private static void migrateActiveProfile(final TradeHistoryStore from, final TradeHistoryStore to) throws IOException
+    {
+        final TradeHistoryProfile profile = getActiveProfile();
+        if (profile == null || from == to)
+        {
+            return;
+        }
+        final String profileKey = profile.getKeyString();
+        for (final SaveData_Profile.Shard shard : unloadedShards.getShards(profileKey))
+        {
+            final String shardKey = TradeShards.getShardKey(profileKey, shard);
+            try (final InputStream in = from.openBlob(shardKey))
+            {
+                if (in != null)
+                {
+                    to.writeBlob(shardKey, in::transferTo);
+                }
+            }
+        }
+        if (saveTradeHistoryData(to, profileKey, TradeManager.getTradeHistory(), null))
+        {
+            removeProfileRecords(from, profileKey);
+        }
+    }
+
+    // Saves to the plugin's default group with the passed key
+    public static void saveWithKey(final String key, Object data)
+    {
+        final Gson gson = StringUtils.getGsonBuilder();
+        configManager.setConfiguration(SAVE_GROUP, key, gson.toJson(data));
+    }
+
+    // Restores from the plugin's default group with the passed key.
+    // Return type matches that of the variable this function output is assigned to.
+    public static <T> T restoreFromKey(final String key)
+    {
+        final Gson gson = StringUtils.getGsonBuilder();
+        final String value = configManager.getConfiguration(SAVE_GROUP, key);
+        if (value == null)
+        {
+            return null;
+        }
+        return gson.fromJson(value, new TypeToken<T>(){}.getType());
+    }
 
-    // Operations for setting and queries flags set on an atomic integer
-    private static void toggleFlag(final AtomicInteger mask, final int flag) { mask.set(mask.get() ^ flag);}
-    private static void clearFlag(final AtomicInteger mask, final int flag) { mask.set(mask.get() & ~flag); }
-    private static void setFlag(final AtomicInteger mask, final int flag) { mask.set(mask.get() | flag); }
-    private static boolean hasFlag(final AtomicInteger mask, final int flag) { return (mask.get() & flag) > 0; }
+    // Exports the active profile's whole trade history as json to the file specified by the user. The file is written on
+    // the io thread as the history is read, with a progress dialog that allows the export to be cancelled.
+    public static void saveTradeHistoryToFile()
+    {
+        final TradeHistoryProfile profile = getActiveProfile();
+        final ArrayDeque<TradeData> loadedTrades = TradeManager.getTradeHistory();
+        if (profile == null || saveScheduler == null || (loadedTrades.isEmpty() && getUnloadedTradeCount() == 0))
+        {
+            return;
+        }
+        final String profileKey = profile.getKeyString();
+        final File file = FileUtils.chooseSaveFile(profileKey);
+        if (file == null)
+        {
+            return;
+        }
+        final ProgressMonitor monitor = new ProgressMonitor(null, "Exporting trade history", file.getName(), 0, 1);
+        monitor.setMillisToDecideToPopup(EXPORT_PROGRESS_DELAY_MILLIS);
+        saveScheduler.submit(() ->
+        {
+            final TradeHistoryStore store = getStore();
+            final ProfileExporter exporter = new ProfileExporter(profileKey, loadedTrades, unloadedShards.getShards(profileKey),
+                    shard -> store.openBlob(TradeShards.getShardKey(profileKey, shard)), monitor);
+            try
+            {
+                exporter.export(file.toPath(), StringUtils.getGsonBuilder(), CompressionUtils.Settings.densest());
+            }
+            catch (CancellationException e)
+            {
+                log.debug("Trade history export cancelled");
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to export trade history");
+            }
+            finally
+            {
+                SwingUtilities.invokeLater(monitor::close);
+            }
+        });
+    }
+
+    // Exports every trade of the active profile to a CSV file specified by the user, one row per item traded
+    public static void exportTradesAsCsv()
+    {
+        exportTradeRowsToFile(TradeRowWriter.Format.CSV);
+    }
+
+    // Exports every trade of the active profile to a JSON Lines file specified by the user, one object per item traded
+    public static void exportTradesAsJsonLines()
+    {
+        exportTradeRowsToFile(TradeRowWriter.Format.JSON_LINES);
+    }
+
+    // Exports every archived trade of the active profile to a CSV file specified by the user, one row per item traded
+    public static void exportArchivedTradesAsCsv()
+    {
+        final TradeHistoryProfile profile = getActiveProfile();
+        if (profile == null || saveScheduler == null)
+        {
+            return;
+        }
+        final String profileKey = profile.getKeyString();
+        final File file = FileUtils.chooseSaveFile(profileKey + "-archive", TradeRowWriter.Format.CSV.extension, TradeRowWriter.Format.CSV.description);
+        if (file == null)
+        {
+            return;
+        }
+        saveScheduler.submit(() ->
+        {
+            try
+            {
+                ProfileExporter.writeAtomically(file.toPath(), out ->
+                {
+                    final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                    final TradeRowWriter rowWriter = TradeRowWriter.create(TradeRowWriter.Format.CSV, writer);
+                    rowWriter.writeHeader();
+                    tradeArchive.read(profileKey, Long.MIN_VALUE, Long.MAX_VALUE, rowWriter::write);
+                    writer.flush();
+                });
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to export archived trades");
+            }
+        });
+    }
+
+    private static void exportTradeRowsToFile(final TradeRowWriter.Format format)
+    {
+        final TradeHistoryProfile profile = getActiveProfile();
+        final ArrayDeque<TradeData> loadedTrades = TradeManager.getTradeHistory();
+        if (profile == null || saveScheduler == null || (loadedTrades.isEmpty() && getUnloadedTradeCount() == 0))
+        {
+            return;
+        }
+        final String profileKey = profile.getKeyString();
+        final File file = FileUtils.chooseSaveFile(profileKey, format.extension, format.description);
+        if (file == null)
+        {
+            return;
+        }
+        final ProgressMonitor monitor = new ProgressMonitor(null, "Exporting trades", file.getName(), 0, 1);
+        monitor.setMillisToDecideToPopup(EXPORT_PROGRESS_DELAY_MILLIS);
+        saveScheduler.submit(() ->
+        {
+            final TradeHistoryStore store = getStore();
+            final ProfileExporter exporter = new ProfileExporter(profileKey, loadedTrades, unloadedShards.getShards(profileKey),
+                    shard -> store.openBlob(TradeShards.getShardKey(profileKey, shard)), monitor);
+            try
+            {
+                exporter.exportRows(file.toPath(), format);
+            }
+            catch (CancellationException e)
+            {
+                log.debug("Trade export cancelled");
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to export trades");
+            }
+            finally
+            {
+                SwingUtilities.invokeLater(monitor::close);
+            }
+        });
+    }
+
+    // Imports a trade history profile to the active profile from a file specified by the user. The imported history is
+    // either merged into the active history or replaces it, as chosen by the user.
+    public static void loadTradeHistoryFromFile()
+    {
+        if (saveScheduler == null)
+        {
+            return;
+        }
+        String filename = DEFAULT_SAVE_FILENAME;
+        if (saveDataCommon != null && saveDataCommon.getActiveProfile() != null)
+        {
+            filename = saveDataCommon.getActiveProfile().getKeyString();
+        }
+        final File file = FileUtils.chooseOpenFile(filename);
+        if (file == null)
+        {
+            return;
+        }
+        final FileUtils.ImportMode mode = FileUtils.chooseImportMode();
+        if (mode == null)
+        {
+            return;
+        }
+        saveScheduler.submit(() ->
+        {
+            try
+            {
+                final String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                if (json.isBlank())
+                {
+                    return;
+                }
+                if (mode == FileUtils.ImportMode.MERGE)
+                {
+                    mergeTradeHistoryFromJson(json);
+                }
+                else
+                {
+                    final String profileKey = getActiveProfile() == null ? null : getActiveProfile().getKeyString();
+                    if (profileKey != null)
+                    {
+                        backupHistory(profileKey, TradeManager.getTradeHistory(), unloadedShards.getShards(profileKey));
+                    }
+                    restoreTradeHistoryDataFromJson(json, null, null);
+                    requestTradeHistorySave(); // replaces the stored snapshot and journal with the imported history
+                }
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to import trade history");
+            }
+        });
+    }
+
+    // Exports the histories of every saved profile to a single archive file specified by the user. The stored records of
+    // each profile are read on the io thread, then decoded and encoded in parallel.
+    public static void exportAllProfilesToFile()
+    {
+        if (saveScheduler == null)
+        {
+            return;
+        }
+        final File file = FileUtils.chooseSaveFile(DEFAULT_ARCHIVE_FILENAME, ProfileArchive.FILE_EXTENSION, ProfileArchive.FILE_DESCRIPTION);
+        if (file == null)
+        {
+            return;
+        }
+        final List<TradeHistoryProfile> profiles = getSaveDataCommon().getSavedProfiles();
+        profiles.removeIf(Objects::isNull);
+        final ProgressMonitor monitor = new ProgressMonitor(null, "Exporting all profiles", file.getName(), 0, Math.max(1, profiles.size()));
+        monitor.setMillisToDecideToPopup(EXPORT_PROGRESS_DELAY_MILLIS);
+        saveScheduler.submit(() ->
+        {
+            try
+            {
+                final TradeHistoryProfile activeProfile = getActiveProfile();
+                if (activeProfile != null && activeProfile.getKeyString().equals(restoredProfileKey))
+                {
+                    saveTradeHistoryData(); // so that the stored records of the active profile match its history
+                }
+                final List<ProfileArchive.StoredProfile> storedProfiles = new ArrayList<>();
+                for (final TradeHistoryProfile profile : profiles)
+                {
+                    final ProfileArchive.StoredProfile stored = ProfileArchive.read(getStoreHolding(profile.getKeyString()), profile);
+                    if (!stored.isEmpty())
+                    {
+                        storedProfiles.add(stored);
+                    }
+                }
+                if (storedProfiles.isEmpty())
+                {
+                    return;
+                }
+                final Gson gson = StringUtils.getGsonBuilder();
+                final AtomicInteger progress = new AtomicInteger();
+                final List<Callable<byte[]>> tasks = new ArrayList<>();
+                for (final ProfileArchive.StoredProfile stored : storedProfiles)
+                {
+                    tasks.add(() ->
+                    {
+                        if (monitor.isCanceled())
+                        {
+                            throw new CancellationException();
+                        }
+                        final byte[] export = ProfileArchive.encode(stored.profile.getKeyString(), ProfileArchive.decode(stored, gson), gson);
+                        final int current = progress.incrementAndGet();
+                        SwingUtilities.invokeLater(() -> monitor.setProgress(current));
+                        return export;
+                    });
+                }
+                final List<byte[]> exports = ProfileArchive.runParallel(tasks);
+                final List<TradeHistoryProfile> exportedProfiles = new ArrayList<>();
+                storedProfiles.forEach(stored -> exportedProfiles.add(stored.profile));
+                ProfileArchive.write(file.toPath(), gson, exportedProfiles, exports);
+                log.debug("Exported {} trade history profiles", exportedProfiles.size());
+            }
+            catch (CancellationException e)
+            {
+                log.debug("Trade history profiles export cancelled");
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to export trade history profiles");
+            }
+            finally
+            {
+                SwingUtilities.invokeLater(monitor::close);
+            }
+        });
+    }
+
+    // Imports every profile of an archive file specified by the user, adding them to the saved profiles. Each history
+    // is either merged into the saved history of its profile or replaces it, as chosen by the user. The archive and the
+    // saved histories are decoded in parallel, then saved on the io thread.
+    public static void importAllProfilesFromFile()
+    {
+        if (saveScheduler == null)
+        {
+            return;
+        }
+        final File file = FileUtils.chooseOpenFile(DEFAULT_ARCHIVE_FILENAME, ProfileArchive.FILE_EXTENSION, ProfileArchive.FILE_DESCRIPTION);
+        if (file == null)
+        {
+            return;
+        }
+        final FileUtils.ImportMode mode = FileUtils.chooseImportMode();
+        if (mode == null)
+        {
+            return;
+        }
+        saveScheduler.submit(() ->
+        {
+            try
+            {
+                importProfileArchive(file.toPath(), mode);
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to import trade history profiles");
+            }
+        });
+    }
+
+    private static void importProfileArchive(final Path path, final FileUtils.ImportMode mode) throws IOException
+    {
+        final Gson gson = StringUtils.getGsonBuilder();
+        final ProfileArchive.Archive archive = ProfileArchive.read(path, gson);
+        final TradeHistoryProfile activeProfile = getActiveProfile();
+        final List<TradeHistoryProfile> profiles = new ArrayList<>();
+        final List<TradeHistoryStore> holdingStores = new ArrayList<>();
+        final List<ProfileArchive.StoredProfile> storedProfiles = new ArrayList<>();
+        final List<Callable<List<ArrayDeque<TradeData>>>> tasks = new ArrayList<>();
+        for (final TradeHistoryProfile profile : archive.profiles)
+        {
+            if (profile.equals(activeProfile))
+            {
+                continue; // imported like a single profile once the others are saved
+            }
+            final TradeHistoryStore holdingStore = getStoreHolding(profile.getKeyString());
+            final ProfileArchive.StoredProfile stored = ProfileArchive.read(holdingStore, profile);
+            final String export = archive.exports.get(profile.getKeyString());
+            profiles.add(profile);
+            holdingStores.add(holdingStore);
+            storedProfiles.add(stored);
+            // the saved history is decoded to be merged into, or to be backed up before it's replaced
+            tasks.add(() -> Arrays.asList(ProfileArchive.decode(stored, gson), ProfileArchive.decode(export, gson)));
+        }
+        final List<List<ArrayDeque<TradeData>>> histories = ProfileArchive.runParallel(tasks);
+        final TradeHistoryStore store = getStore();
+        for (int i = 0; i < profiles.size(); ++i)
+        {
+            final TradeHistoryProfile profile = profiles.get(i);
+            final String profileKey = profile.getKeyString();
+            if (!keepDamagedRecords(holdingStores.get(i), storedProfiles.get(i)))
+            {
+                log.error("Skipped importing trade history profile {}, its saved history is damaged and a copy couldn't be kept", profileKey);
+                continue;
+            }
+            final ArrayDeque<TradeData> savedHistory = histories.get(i).get(0);
+            ArrayDeque<TradeData> tradeHistory = histories.get(i).get(1);
+            if (mode == FileUtils.ImportMode.MERGE)
+            {
+                tradeHistory = mergeHistories(savedHistory, tradeHistory);
+            }
+            else
+            {
+                backupHistory(profileKey, savedHistory, Collections.emptyList());
+            }
+            applyHistoryLimits(profileKey, tradeHistory);
+            historyCache.remove(profile);
+            if (saveTradeHistoryData(store, profileKey, tradeHistory, null) && holdingStores.get(i) != store)
+            {
+                removeProfileRecords(holdingStores.get(i), profileKey);
+            }
+            getSaveDataCommon().addSavedProfile(profile);
+        }
+        saveCommonData();
+
+        final String activeExport = activeProfile == null ? null : archive.exports.get(activeProfile.getKeyString());
+        if (activeExport != null && activeProfile.equals(getActiveProfile()))
+        {
+            if (mode == FileUtils.ImportMode.MERGE)
+            {
+                mergeTradeHistoryFromJson(activeExport);
+            }
+            else
+            {
+                backupHistory(activeProfile.getKeyString(), TradeManager.getTradeHistory(), unloadedShards.getShards(activeProfile.getKeyString()));
+                restoreTradeHistoryDataFromJson(activeExport, null, null);
+                requestTradeHistorySave();
+            }
+        }
+        log.debug("Imported {} trade history profiles", archive.profiles.size());
+    }
+
+    // Copies the records of a decoded stored profile that couldn't be fully read to their damaged keys, before its
+    // history is saved over them. Returns false if a copy couldn't be kept.
+    private static boolean keepDamagedRecords(final TradeHistoryStore store, final ProfileArchive.StoredProfile stored)
+    {
+        final String profileKey = stored.profile.getKeyString();
+        if (stored.damagedShards.isEmpty())
+        {
+            return !stored.damaged || keepDamagedProfile(store, profileKey, stored.manifest);
+        }
+        boolean kept = true;
+        for (final SaveData_Profile.Shard shard : stored.damagedShards)
+        {
+            kept &= keepDamagedShard(store, profileKey, shard);
+        }
+        return kept;
+    }
+
+    // Removes the oldest trades of a history that isn't loaded until it's within the user's history limits, as
+    // TradeManager does for the loaded history. The removed trades are archived.
+    private static void applyHistoryLimits(final String profileKey, final ArrayDeque<TradeData> tradeHistory)
+    {
+        final int maxCount = MathUtils.clamp(CommonUtils.getConfig().maxHistoryCount(), 1, TradeManager.MAX_HISTORY_COUNT);
+        final long budget = Math.max(0, CommonUtils.getConfig().maxHistoryKilobytes()) * 1024L;
+        long excess = budget == 0L ? 0L : TradeHistoryCodec.estimateSize(tradeHistory) - budget;
+        final ArrayList<TradeData> removedTrades = new ArrayList<>();
+        while (tradeHistory.size() > 1 && (tradeHistory.size() > maxCount || excess > 0L))
+        {
+            final TradeData removed = tradeHistory.removeFirst();
+            excess -= TradeHistoryCodec.estimateSize(removed);
+            removedTrades.add(removed);
+        }
+        if (!removedTrades.isEmpty())
+        {
+            archiveTrades(profileKey, removedTrades);
+        }
+    }
+
+    // Returns the trades of both histories, ordered oldest to newest, without the imported trades already saved
+    private static ArrayDeque<TradeData> mergeHistories(final ArrayDeque<TradeData> savedHistory, final ArrayDeque<TradeData> importedHistory)
+    {
+        final TradeMergeIndex index = new TradeMergeIndex();
+        index.addAll(savedHistory);
+        final ArrayList<TradeData> trades = new ArrayList<>(savedHistory);
+        for (final TradeData tradeData : importedHistory)
+        {
+            if (index.add(tradeData))
+            {
+                trades.add(tradeData);
+            }
+        }
+        trades.sort(Comparator.comparingLong(t -> t.tradeTime));
+        return new ArrayDeque<>(trades);
+    }
+
+    // Takes a backup of the active profile's history as it is now, before it's cleared
+    public static void requestBackup()
+    {
+        final TradeHistoryProfile profile = getActiveProfile();
+        if (profile == null || saveScheduler == null)
+        {
+            return;
+        }
+        final String profileKey = profile.getKeyString();
+        // the unloaded shards are still stored when the backup runs, since the history is only saved after it
+        final ArrayList<TradeData> loadedTrades = new ArrayList<>(TradeManager.getTradeHistory());
+        final List<SaveData_Profile.Shard> unloaded = unloadedShards.getShards(profileKey);
+        saveScheduler.submit(() -> backupHistory(profileKey, loadedTrades, unloaded));
+    }
+
+    // Asks the user which backup of the active profile to restore, then replaces the history with it. The history being
+    // replaced is backed up first, so a restore can itself be undone.
+    public static void restoreBackup()
+    {
+        final TradeHistoryProfile profile = getActiveProfile();
+        if (profile == null || saveScheduler == null)
+        {
+            return;
+        }
+        final String profileKey = profile.getKeyString();
+        saveScheduler.submit(() ->
+        {
+            final List<ProfileBackups.Generation> generations;
+            try
+            {
+                generations = backups.getGenerations(profileKey);
+            }
+            catch (IOException e)
+            {
+                log.error("Failed to read trade history backups");
+                return;
+            }
+            SwingUtilities.invokeLater(() ->
+            {
+                final ProfileBackups.Generation generation = FileUtils.chooseBackup(generations);
+                if (generation != null)
+                {
+                    saveScheduler.submit(() -> restoreBackup(profileKey, generation));
+                }
+            });
+        });
+    }
+
+    private static void restoreBackup(final String profileKey, final ProfileBackups.Generation generation)
+    {
+        if (getActiveProfile() == null || !getActiveProfile().getKeyString().equals(profileKey))
+        {
+            return; // the profile changed while the user was choosing
+        }
+        final ArrayDeque<TradeData> tradeHistory;
+        try
+        {
+            tradeHistory = backups.read(profileKey, generation);
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to read trade history backup {}", generation.number);
+            return;
+        }
+        backupHistory(profileKey, TradeManager.getTradeHistory(), unloadedShards.getShards(profileKey));
+        resetUnloadedShards(profileKey, Collections.emptyList());
+        CommonUtils.postEvent(new EventTradeHistoryProfileRestored(profileKey, tradeHistory));
+        requestTradeHistorySave();
+        log.debug("Restored {} trades from trade history backup {}", tradeHistory.size(), generation.number);
+    }
+
+    // Returns true if the newest backup of the passed profile is older than the automatic backup interval
+    private static boolean isBackupDue(final String profileKey)
+    {
+        final Long lastBackupTime = lastBackupTimes.computeIfAbsent(profileKey, key ->
+        {
+            try
+            {
+                final List<ProfileBackups.Generation> generations = backups.getGenerations(key);
+                return generations.isEmpty() ? 0L : generations.get(generations.size() - 1).time;
+            }
+            catch (IOException e)
+            {
+                return 0L;
+            }
+        });
+        return System.currentTimeMillis() - lastBackupTime >= AUTOMATIC_BACKUP_INTERVAL_MILLIS;
+    }
+
+    // Backs up the passed history, made of the loaded trades and the stored unloaded shards, keeping as many backups
+    // as configured. An empty history isn't backed up, as there would be nothing to restore. Runs on the io thread.
+    private static void backupHistory(final String profileKey, final Collection<TradeData> loadedTrades, final List<SaveData_Profile.Shard> unloaded)
+    {
+        final int keep = CommonUtils.getConfig().getBackupCount();
+        if (backups == null || keep <= 0 || (loadedTrades.isEmpty() && unloaded.isEmpty()))
+        {
+            return;
+        }
+        final TradeHistoryStore store = getStore();
+        try
+        {
+            final ProfileBackups.Generation generation = backups.write(profileKey, keep, snapshot ->
+            {
+                for (int i = unloaded.size() - 1; i >= 0; --i)
+                {
+                    snapshot.addAll(readUnloadedShard(store, profileKey, unloaded.get(i)));
+                }
+                snapshot.addAll(loadedTrades);
+            });
+            lastBackupTimes.put(profileKey, System.currentTimeMillis());
+            if (generation != null)
+            {
+                log.debug("Backed up {} trades as trade history backup {}", generation.tradeCount, generation.number);
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Failed to back up trade history");
+        }
+    }
+
+    // Merges the trades of a json string serialized from SaveData_Profile into the active profile, skipping trades it
+    // already has. Imported trades belonging to unloaded shards are written into those shards, and the rest are added
+    // to the loaded history.
+    private static void mergeTradeHistoryFromJson(final String json) throws IOException
+    {
+        final TradeHistoryProfile profile = getActiveProfile();
+        if (profile == null)
+        {
+            return;
+        }
+        final String profileKey = profile.getKeyString();
+        withSavedHistoryLock(profileKey, () -> mergeTradeHistoryFromJson(profileKey, json));
+    }
+
+    private static void mergeTradeHistoryFromJson(final String profileKey, final String json) throws IOException
+    {
+        final TradeHistoryStore store = getStore();
+        final List<SaveData_Profile.Shard> unloaded = unloadedShards.getShards(profileKey);
+        final TradeMergeIndex index = new TradeMergeIndex();
+        index.addAll(TradeManager.getTradeHistory());
+        for (final SaveData_Profile.Shard shard : unloaded)
+        {
+            index.addAll(readUnloadedShard(store, profileKey, shard));
+        }
+
+        final ArrayList<TradeData> addedTrades = new ArrayList<>();
+        try (final SaveDataStreams.ProfileReader reader = SaveDataStreams.openProfile(json, StringUtils.getGsonBuilder(), null))
+        {
+            while (reader.hasNext())
+            {
+                final TradeData tradeData = reader.next();
+                if (index.add(tradeData))
+                {
+                    addedTrades.add(tradeData);
+                }
+            }
+        }
+        if (addedTrades.isEmpty())
+        {
+            return;
+        }
+        addedTrades.sort(Comparator.comparingLong(t -> t.tradeTime));
+
+        // unloaded shards must stay older than every loaded trade
+        final int newestUnloadedShardId = unloaded.isEmpty() ? Integer.MIN_VALUE : unloaded.get(0).id;
+        final ArrayDeque<TradeData> addedLoadedTrades = new ArrayDeque<>();
+        final TreeMap<Integer, List<TradeData>> addedUnloadedTrades = new TreeMap<>();
+        for (final TradeData tradeData : addedTrades)
+        {
+            final int shardId = TradeShards.getShardId(tradeData.tradeTime);
+            if (shardId <= newestUnloadedShardId)
+            {
+                addedUnloadedTrades.computeIfAbsent(shardId, k -> new ArrayList<>()).add(tradeData);
+            }
+            else
+            {
+                addedLoadedTrades.add(tradeData);
+            }
+        }
+        for (final Map.Entry<Integer, List<TradeData>> entry : addedUnloadedTrades.entrySet())
+        {
+            mergeIntoUnloadedShard(store, profileKey, entry.getKey(), entry.getValue());
+        }
+        if (!addedUnloadedTrades.isEmpty())
+        {
+            CommonUtils.postEvent(new EventUnloadedTradesChanged(profileKey));
+            if (addedLoadedTrades.isEmpty())
+            {
+                TradeManager.requestApplyHistoryLimits(); // otherwise applied once the merged trades are loaded
+            }
+        }
+        if (!addedLoadedTrades.isEmpty())
+        {
+            CommonUtils.postEvent(new EventTradeHistoryMerged(profileKey, addedLoadedTrades));
+            addedLoadedTrades.forEach(tradeData -> markShardDirty(tradeData.tradeTime));
+            requestChangedShardsSave();
+        }
+        log.debug("Merged {} imported trades", addedTrades.size());
+    }
+
+    // Adds the passed trades to an unloaded shard, creating the shard if needed
+    private static void mergeIntoUnloadedShard(final TradeHistoryStore store, final String profileKey, final int shardId, final List<TradeData> addedTrades) throws IOException
+    {
+        final ArrayList<TradeData> trades = new ArrayList<>(addedTrades);
+        final SaveData_Profile.Shard oldShard = unloadedShards.get(profileKey, shardId);
+        if (oldShard != null)
+        {
+            trades.addAll(readUnloadedShard(store, profileKey, oldShard));
+            trades.sort(Comparator.comparingLong(t -> t.tradeTime));
+        }
+        final SaveData_Profile.Shard shard = TradeShards.describe(shardId, trades, TradeShards.getReplacementSlot(oldShard));
+        store.writeBlob(TradeShards.getShardKey(profileKey, shard), out -> encodeShard(trades, out));
+        unloadedShards.replace(profileKey, shardId, shard);
+        updateManifestShard(store, profileKey, shardId, shard);
+        if (oldShard != null)
+        {
+            store.remove(TradeShards.getShardKey(profileKey, oldShard));
+        }
+    }
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Coalesces save requests into as few writes as possible. A request marks the history dirty and (re)starts a debounce
+// timer, so a burst of changes results in a single save once it goes quiet. The max latency bounds how long a steady
+// stream of changes can delay a save. All io runs on a single thread so only one save or load can run at a time,
+// and nothing is polled while waiting.
+@Slf4j
+final class SaveScheduler
+{
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Runnable saveTask;
+    private final LongSupplier debounceMillis;
+    private final LongSupplier maxLatencyMillis;
+    private boolean dirty = false;
+    private long dirtySince = 0L;
+    private ScheduledFuture<?> pendingSave = null;
+
+    SaveScheduler(final Runnable saveTask, final LongSupplier debounceMillis, final LongSupplier maxLatencyMillis)
+    {
+        this.saveTask = saveTask;
+        this.debounceMillis = debounceMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    // Marks the history as changed and schedules a save after the debounce window, unless that would exceed the max latency
+    synchronized void requestSave()
+    {
+        if (executor.isShutdown())
+        {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (!dirty)
+        {
+            dirty = true;
+            dirtySince = now;
+        }
+        final long deadline = dirtySince + Math.max(0L, maxLatencyMillis.getAsLong());
+        final long delay = Math.max(0L, Math.min(Math.max(0L, debounceMillis.getAsLong()), deadline - now));
+        if (pendingSave != null)
+        {
+            if (pendingSave.getDelay(TimeUnit.MILLISECONDS) <= 0L)
+            {
+                return; // the save is about to start and will pick up this change
+            }
+            pendingSave.cancel(false);
+        }
+        pendingSave = executor.schedule(this::runSave, delay, TimeUnit.MILLISECONDS);
+    }
+
+    // Drops a pending save, returning true if there were unsaved changes. Used when the caller saves the changes itself.
+    synchronized boolean cancelPendingSave()
+    {
+        if (pendingSave != null)
+        {
+            pendingSave.cancel(false);
+            pendingSave = null;
+        }
+        final boolean wasDirty = dirty;
+        dirty = false;
+        return wasDirty;
+    }
+
+    // Queues a task on the io thread. Tasks run in the order they are submitted, and never at the same time as a save.
+    synchronized Future<?> submit(final Runnable task)
+    {
+        if (executor.isShutdown())
+        {
+            return null;
+        }
+        return executor.submit(() ->
+        {
+            try
+            {
+                task.run();
+            }
+            catch (Exception e)
+            {
+                log.error("Trade history io task failed");
+            }
+        });
+    }
+
+    synchronized boolean isDirty() { return dirty; }
+
+    // Writes any unsaved changes, then lets queued writes finish before stopping the io thread
+    void shutdown()
+    {
+        synchronized (this)
+        {
+            if (executor.isShutdown())
+            {
+                return;
+            }
+            if (dirty)
+            {
+                if (pendingSave != null)
+                {
+                    pendingSave.cancel(false);
+                }
+                pendingSave = executor.schedule(this::runSave, 0L, TimeUnit.MILLISECONDS);
+            }
+        }
+        executor.shutdown();
+    }
+
+    // Runs on the io thread. Changes requested while the save runs mark the history dirty again and schedule another save.
+    private void runSave()
+    {
+        synchronized (this)
+        {
+            pendingSave = null;
+            if (!dirty)
+            {
+                return;
+            }
+            dirty = false;
+        }
+        try
+        {
+            saveTask.run();
+        }
+        catch (Exception e)
+        {
+            log.error("Failed to save trade history");
+        }
+    }
+}
@@ -1,24 +1,169 @@
 package org.asundr.recovery;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
 
 public class SaveUpgradeUtils {
 
-    static String version1to2json(final String decoded)
+    // The last save version that stored the trade history as a json array. Later versions use TradeHistoryCodec and are
+    // upgraded by reading the history at this version and saving it again.
+    static final int LAST_JSON_VERSION = 2;
+
+    // Rewrites a single serialized trade from the save version it is registered with to the next version.
+    // Upgraders consume exactly one trade value from the reader and write exactly one value to the writer.
+    interface TradeUpgrader
+    {
+        void upgrade(JsonReader in, JsonWriter out) throws IOException;
+    }
+
+    // Upgraders keyed by the save version they upgrade from
+    private static final Map<Integer, TradeUpgrader> TRADE_UPGRADERS = Map.of(
+            1, SaveUpgradeUtils::version1to2trade
+    );
+
+    // Returns a reader positioned at the next trade of the passed reader, upgraded from the passed save version to
+    // LAST_JSON_VERSION by chaining the registered upgraders. Each trade is upgraded on its own, so the cost is linear in
+    // the size of the history. If no upgrade is needed the passed reader is returned.
+    static JsonReader upgradeTrade(final JsonReader in, final int saveVersion) throws IOException
+    {
+        JsonReader current = in;
+        for (int version = saveVersion; version < LAST_JSON_VERSION; ++version)
+        {
+            final TradeUpgrader upgrader = TRADE_UPGRADERS.get(version);
+            if (upgrader == null)
+            {
+                break;
+            }
+            final StringWriter stringWriter = new StringWriter();
+            final JsonWriter out = new JsonWriter(stringWriter);
+            upgrader.upgrade(current, out);
+            out.flush();
+            current = new JsonReader(new StringReader(stringWriter.toString()));
+        }
+        return current;
+    }
+
+    // Version 2 stores the noted id of items as their id and shortens the item quantity and value names
+    private static void version1to2trade(final JsonReader in, final JsonWriter out) throws IOException
+    {
+        in.beginObject();
+        out.beginObject();
+        while (in.hasNext())
+        {
+            final String name = in.nextName();
+            out.name(name);
+            if ((name.equals("givenItems") || name.equals("receivedItems")) && in.peek() == JsonToken.BEGIN_ARRAY)
+            {
+                in.beginArray();
+                out.beginArray();
+                while (in.hasNext())
+                {
+                    version1to2item(in, out);
+                }
+                in.endArray();
+                out.endArray();
+            }
+            else
+            {
+                copyValue(in, out);
+            }
+        }
+        in.endObject();
+        out.endObject();
+    }
+
+    private static void version1to2item(final JsonReader in, final JsonWriter out) throws IOException
+    {
+        if (in.peek() != JsonToken.BEGIN_OBJECT)
+        {
+            copyValue(in, out);
+            return;
+        }
+        long id = -1;
+        long notedId = -1;
+        boolean hasId = false;
+        in.beginObject();
+        out.beginObject();
+        while (in.hasNext())
+        {
+            final String name = in.nextName();
+            switch (name)
+            {
+                case "id":
+                    id = in.nextLong();
+                    hasId = true;
+                    break;
+                case "notedID":
+                    notedId = in.nextLong();
+                    break;
+                case "quantity":
+                    out.name("num");
+                    copyValue(in, out);
+                    break;
+                case "geValue":
+                    out.name("ge");
+                    copyValue(in, out);
+                    break;
+                default:
+                    out.name(name);
+                    copyValue(in, out);
+            }
+        }
+        if (hasId)
+        {
+            out.name("id").value(notedId >= 0 ? notedId : id);
+        }
+        in.endObject();
+        out.endObject();
+    }
+
+    // Copies the next value of the reader to the writer unchanged
+    static void copyValue(final JsonReader in, final JsonWriter out) throws IOException
     {
-        final Pattern nodedIdPattern = Pattern.compile( "\"id\":(\\d+),\"notedID\":(\\d+)");
-        Matcher m = nodedIdPattern.matcher(decoded);
-        String converted = decoded;
-        while (m.find())
+        switch (in.peek())
         {
-            final String originalID = m.group(2).equals("-1") ? m.group(1) : m.group(2);
-            converted = converted.replace(m.group(0), "\"id\":" + originalID);
-            m = nodedIdPattern.matcher(converted);
+            case BEGIN_ARRAY:
+                in.beginArray();
+                out.beginArray();
+                while (in.hasNext())
+                {
+                    copyValue(in, out);
+                }
+                in.endArray();
+                out.endArray();
+                break;
+            case BEGIN_OBJECT:
+                in.beginObject();
+                out.beginObject();
+                while (in.hasNext())
+                {
+                    out.name(in.nextName());
+                    copyValue(in, out);
+                }
+                in.endObject();
+                out.endObject();
+                break;
+            case STRING:
+                out.value(in.nextString());
+                break;
+            case NUMBER:
+                out.jsonValue(in.nextString());
+                break;
+            case BOOLEAN:
+                out.value(in.nextBoolean());
+                break;
+            case NULL:
+                in.nextNull();
+                out.nullValue();
+                break;
+            default:
+                in.skipValue();
         }
-//        final Pattern quantityPattern = Pattern.compile("\"quantity\":");
-        converted = converted.replaceAll("\"quantity\":", "num:");
-        converted = converted.replaceAll("\"geValue\":", "ge:");
-        return converted;
     }
 }
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.asundr.recovery;
+
+import com.google.gson.Gson;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+// Log of the changes each client makes to a trade history, shared by every client on this computer. Each client
+// appends its journal entries to the log of the active profile, and reads the entries other clients appended since it
+// last read, so their changes can be applied without reading the whole history again. Access is serialized across
+// processes with a lock on a separate lock file, which is never replaced, so the log itself can be compacted by
+// replacing it. The log starts with a header holding how many bytes compaction has dropped from its start, which keeps
+// the position a client has read up to valid after compaction. Only used from the io thread, apart from the watcher.
+@Slf4j
+final class SyncLog
+{
+    private static final String LOG_EXTENSION = ".sync";
+    private static final String LOCK_EXTENSION = ".lock";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final String HEADER_PREFIX = "TTSYNC1 ";
+    private static final int HEADER_SIZE = HEADER_PREFIX.length() + 20; // prefix, 19 digit offset and a line break
+    private static final long COMPACTION_SIZE = 1 << 20;
+    private static final long RETENTION_MILLIS = 60 * 60 * 1000L; // entries are kept at least this long after they're written
+
+    // Work done while holding the lock of a profile's log
+    interface LockedTask
+    {
+        void run() throws IOException;
+    }
+
+    private final Path directory;
+    private final Gson gson;
+    private final String instanceId = Long.toHexString(new Random().nextLong() & Long.MAX_VALUE);
+    private final HashMap<String, Long> readPositions = new HashMap<>(); // position in the log, counting dropped bytes
+    private final HashSet<String> heldLocks = new HashSet<>(); // profiles whose lock is held, so that locked tasks can nest
+    private WatchService watchService;
+
+    SyncLog(final Path directory, final Gson gson)
+    {
+        this.directory = directory;
+        this.gson = gson;
+    }
+
+    // Runs the passed task while holding the exclusive lock of the profile's log, so that no other client writes the
+    // profile's saved history, or its log, at the same time. A task run while the lock is already held runs straight away.
+    void withLock(final String profileKey, final LockedTask task) throws IOException
+    {
+        if (heldLocks.contains(profileKey))
+        {
+            task.run();
+            return;
+        }
+        Files.createDirectories(directory);
+        try (final FileChannel lockChannel = FileChannel.open(getPath(profileKey, LOCK_EXTENSION), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             final FileLock lock = lockChannel.lock())
+        {
+            heldLocks.add(profileKey);
+            task.run();
+        }
+        finally
+        {
+            heldLocks.remove(profileKey);
+        }
+    }
+
+    // Appends an entry to the profile's log, compacting the log first if it has grown large
+    void append(final String profileKey, final TradeJournal.Entry entry) throws IOException
+    {
+        final byte[] line = (instanceId + " " + System.currentTimeMillis() + " " + TradeJournal.encode(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+        withLock(profileKey, () ->
+        {
+            final Path logPath = getPath(profileKey, LOG_EXTENSION);
+            if (Files.exists(logPath) && Files.size(logPath) >= COMPACTION_SIZE)
+            {
+                compact(logPath);
+            }
+            try (final FileChannel channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+            {
+                long position = channel.size();
+                if (position < HEADER_SIZE)
+                {
+                    channel.truncate(0);
+                    writeFully(channel, ByteBuffer.wrap(formatHeader(0)), 0);
+                    position = HEADER_SIZE;
+                }
+                writeFully(channel, ByteBuffer.wrap(line), position);
+                channel.force(false);
+            }
+        });
+    }
+
+    // Reads every entry of the profile's log, in the order they were written, and marks them as read. Used when a
+    // history is restored, since its save may not include changes that other clients haven't saved yet.
+    List<TradeJournal.Entry> readAll(final String profileKey) throws IOException
+    {
+        final List<TradeJournal.Entry> entries = read(profileKey, true);
+        return entries == null ? new ArrayList<>() : entries;
+    }
+
+    // Reads the entries other clients appended to the profile's log since it was last read. Returns null if compaction
+    // dropped entries this client hadn't read yet, in which case the history needs to be restored again.
+    List<TradeJournal.Entry> readNew(final String profileKey) throws IOException
+    {
+        return read(profileKey, false);
+    }
+
+    private List<TradeJournal.Entry> read(final String profileKey, final boolean isReadingAll) throws IOException
+    {
+        final Path logPath = getPath(profileKey, LOG_EXTENSION);
+        final List<TradeJournal.Entry> entries = new ArrayList<>();
+        if (!Files.exists(logPath))
+        {
+            readPositions.put(profileKey, 0L);
+            return entries;
+        }
+        final byte[][] contents = new byte[1][];
+        withLock(profileKey, () -> contents[0] = Files.readAllBytes(logPath));
+        final byte[] bytes = contents[0];
+        if (bytes.length < HEADER_SIZE)
+        {
+            readPositions.put(profileKey, 0L);
+            return entries;
+        }
+        final long droppedBytes = parseHeader(bytes);
+        final long end = droppedBytes + bytes.length - HEADER_SIZE;
+        final Long readPosition = isReadingAll ? Long.valueOf(droppedBytes) : readPositions.get(profileKey);
+        if (readPosition == null || readPosition > end)
+        {
+            // started syncing after these entries were written, or the log was deleted and written again
+            readPositions.put(profileKey, end);
+            return readPosition == null ? entries : null;
+        }
+        if (readPosition < droppedBytes)
+        {
+            readPositions.put(profileKey, end);
+            return null;
+        }
+        int lineStart = (int) (HEADER_SIZE + readPosition - droppedBytes);
+        for (int i = lineStart; i < bytes.length; ++i)
+        {
+            if (bytes[i] != '\n')
+            {
+                continue;
+            }
+            final TradeJournal.Entry entry = parseLine(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8), isReadingAll);
+            if (entry != null)
+            {
+                entries.add(entry);
+            }
+            lineStart = i + 1;
+        }
+        readPositions.put(profileKey, droppedBytes + lineStart - HEADER_SIZE);
+        return entries;
+    }
+
+    // Returns the entry of a log line, or null if it was written by this client and isn't wanted, or can't be read
+    private TradeJournal.Entry parseLine(final String line, final boolean includeOwn)
+    {
+        final int instanceEnd = line.indexOf(' ');
+        final int timeEnd = instanceEnd < 0 ? -1 : line.indexOf(' ', instanceEnd + 1);
+        if (timeEnd < 0 || (!includeOwn && line.startsWith(instanceId + " ")))
+        {
+            return null;
+        }
+        try
+        {
+            return TradeJournal.decode(gson, line.substring(timeEnd + 1));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            log.warn("Skipped an unreadable trade history sync entry");
+            return null;
+        }
+    }
+
+    // Replaces the log with one holding only the entries written within the retention time. Must hold the lock.
+    private void compact(final Path logPath) throws IOException
+    {
+        final byte[] bytes = Files.readAllBytes(logPath);
+        if (bytes.length < HEADER_SIZE)
+        {
+            return;
+        }
+        final long cutoff = System.currentTimeMillis() - RETENTION_MILLIS;
+        int keepFrom = HEADER_SIZE;
+        int lineStart = HEADER_SIZE;
+        for (int i = HEADER_SIZE; i < bytes.length; ++i)
+        {
+            if (bytes[i] != '\n')
+            {
+                continue;
+            }
+            if (getLineTime(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8)) >= cutoff)
+            {
+                break;
+            }
+            lineStart = i + 1;
+            keepFrom = lineStart;
+        }
+        if (keepFrom == HEADER_SIZE)
+        {
+            return;
+        }
+        final long droppedBytes = parseHeader(bytes) + keepFrom - HEADER_SIZE;
+        final Path temp = logPath.resolveSibling(logPath.getFileName() + TEMP_EXTENSION);
+        try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            writeFully(channel, ByteBuffer.wrap(formatHeader(droppedBytes)), 0);
+            writeFully(channel, ByteBuffer.wrap(bytes, keepFrom, bytes.length - keepFrom), HEADER_SIZE);
+            channel.force(false);
+        }
+        Files.move(temp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long getLineTime(final String line)
+    {
+        final String[] parts = line.split(" ", 3);
+        try
+        {
+            return parts.length == 3 ? Long.parseLong(parts[1]) : 0L;
+        }
+        catch (NumberFormatException e)
+        {
+            return 0L;
+        }
+    }
+
+    // Starts watching the logs for changes made by other clients. The passed task is run on the watcher thread
+    // whenever a log changes, including for changes made by this client.
+    void startWatching(final Runnable onChanged) throws IOException
+    {
+        if (watchService != null)
+        {
+            return;
+        }
+        Files.createDirectories(directory);
+        final WatchService service = FileSystems.getDefault().newWatchService();
+        directory.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = service;
+        final Thread watcher = new Thread(() ->
+        {
+            try
+            {
+                while (true)
+                {
+                    final WatchKey key = service.take();
+                    boolean isLogChanged = false;
+                    for (final WatchEvent<?> event : key.pollEvents())
+                    {
+                        isLogChanged |= event.context() instanceof Path && event.context().toString().endsWith(LOG_EXTENSION);
+                    }
+                    key.reset();
+                    if (isLogChanged)
+                    {
+                        onChanged.run();
+                    }
+                }
+            }
+            catch (InterruptedException | ClosedWatchServiceException e)
+            {
+                log.debug("Stopped watching for trade history changes");
+            }
+        }, "trade-tracker-sync");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    void stopWatching()
+    {
+        if (watchService == null)
+        {
+            return;
+        }
+        try
+        {
+            watchService.close();
+        }
+        catch (IOException e)
+        {
+            log.debug("Failed to close the trade history watcher");
+        }
+        watchService = null;
+    }
+
+    private Path getPath(final String profileKey, final String extension)
+    {
+        // sanitized the same way as FileTradeHistoryStore keys, so a profile key can never leave the directory
+        return directory.resolve(profileKey.replaceAll("[^A-Za-z0-9+_.-]", "_") + extension);
+    }
+
+    private static byte[] formatHeader(final long droppedBytes)
+    {
+        return String.format("%s%019d\n", HEADER_PREFIX, droppedBytes).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long parseHeader(final byte[] bytes) throws IOException
+    {
+        final String header = new String(bytes, 0, HEADER_SIZE, StandardCharsets.UTF_8);
+        if (!header.startsWith(HEADER_PREFIX))
+        {
+            throw new IOException("Trade history sync log has an unknown header");
+        }
+        try
+        {
+            return Long.parseLong(header.substring(HEADER_PREFIX.length()).trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("Trade history sync log has a malformed header");
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.asundr.recovery;
+
+import lombok.extern.slf4j.Slf4j;
+import org.asundr.trade.TradeData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Append-only archive of the trades removed from a profile's history by the history limits, so they're kept without
+// being loaded. Each append is written as one block: a fixed size header holding the number of trades, their time
+// range and a CRC32 of the payload, followed by the compressed trades. A sidecar index repeats every block header with
+// its offset, which makes it a sparse time index: a query reads the index, then seeks straight to the blocks whose time
+// range overlaps it. A block torn by a crash is cut off the end of the archive the next time it's opened, and the index
+// is rebuilt from the block headers whenever it doesn't match the archive. Only used from the io thread.
+@Slf4j
+final class TradeArchive
+{
+    private static final String ARCHIVE_EXTENSION = ".archive";
+    private static final String INDEX_EXTENSION = ".index";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int BLOCK_MAGIC = 0x54544131; // "TTA1"
+    private static final int HEADER_SIZE = 36; // magic, payload length, trade count, first time, last time, payload CRC32, header CRC32
+    private static final int INDEX_ENTRY_SIZE = 8 + HEADER_SIZE; // block offset followed by a copy of its header
+    private static final int MAX_PAYLOAD_SIZE = 1 << 28;
+
+    // Called with each archived trade a query finds
+    interface TradeVisitor
+    {
+        void visit(TradeData trade) throws IOException;
+    }
+
+    // A block of trades appended together, as described by its header
+    private static final class Block
+    {
+        final long offset;
+        final int length; // size of the compressed payload that follows the header
+        final int count;
+        final long firstTime;
+        final long lastTime;
+        final int payloadChecksum;
+
+        private Block(final long offset, final int length, final int count, final long firstTime, final long lastTime, final int payloadChecksum)
+        {
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+            this.payloadChecksum = payloadChecksum;
+        }
+
+        long getEnd() { return offset + HEADER_SIZE + length; }
+
+        boolean overlaps(final long fromTime, final long toTime) { return lastTime >= fromTime && firstTime <= toTime; }
+
+        void writeHeader(final ByteBuffer buffer)
+        {
+            final int start = buffer.position();
+            buffer.putInt(BLOCK_MAGIC).putInt(length).putInt(count).putLong(firstTime).putLong(lastTime).putInt(payloadChecksum);
+            buffer.putInt(checksum(buffer, start, HEADER_SIZE - 4));
+        }
+
+        // Reads the header at the buffer's position, returning null if it isn't a complete and undamaged header
+        static Block readHeader(final long offset, final ByteBuffer buffer)
+        {
+            if (buffer.remaining() < HEADER_SIZE)
+            {
+                return null;
+            }
+            final int start = buffer.position();
+            final int magic = buffer.getInt();
+            final int length = buffer.getInt();
+            final int count = buffer.getInt();
+            final long firstTime = buffer.getLong();
+            final long lastTime = buffer.getLong();
+            final int payloadChecksum = buffer.getInt();
+            final int headerChecksum = buffer.getInt();
+            if (magic != BLOCK_MAGIC || headerChecksum != checksum(buffer, start, HEADER_SIZE - 4) || length < 0 || length > MAX_PAYLOAD_SIZE || count <= 0)
+            {
+                return null;
+            }
+            return new Block(offset, length, count, firstTime, lastTime, payloadChecksum);
+        }
+    }
+
+    private final Path directory;
+    private final HashMap<String, List<Block>> indexes = new HashMap<>();
+
+    TradeArchive(final Path directory)
+    {
+        this.directory = directory;
+    }
+
+    // Appends the passed trades to the profile's archive as a single block. Trades that are already archived, such as
+    // ones removed by two clients sharing the history, are left out.
+    void append(final String profileKey, final Collection<TradeData> trades) throws IOException
+    {
+        if (trades.isEmpty())
+        {
+            return;
+        }
+        final List<TradeData> sorted = new ArrayList<>(trades);
+        sorted.sort((a, b) -> Long.compare(a.tradeTime, b.tradeTime));
+        final HashSet<Long> archivedTimes = new HashSet<>();
+        read(profileKey, sorted.get(0).tradeTime, sorted.get(sorted.size() - 1).tradeTime, trade -> archivedTimes.add(trade.tradeTime));
+        sorted.removeIf(trade -> archivedTimes.contains(trade.tradeTime));
+        if (sorted.isEmpty())
+        {
+            return;
+        }
+        final byte[] payload = encode(sorted);
+        final List<Block> blocks = getBlocks(profileKey);
+        final long offset = blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).getEnd();
+        final Block block = new Block(offset, payload.length, sorted.size(), sorted.get(0).tradeTime, sorted.get(sorted.size() - 1).tradeTime,
+                checksum(ByteBuffer.wrap(payload), 0, payload.length));
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        block.writeHeader(header);
+        header.flip();
+        Files.createDirectories(directory);
+        try (final FileChannel channel = FileChannel.open(getPath(profileKey, ARCHIVE_EXTENSION), StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            // written at the end of the last known block, so anything a failed append left behind is overwritten
+            channel.truncate(offset);
+            writeFully(channel, header, offset);
+            writeFully(channel, ByteBuffer.wrap(payload), offset + HEADER_SIZE);
+            channel.force(false);
+        }
+        blocks.add(block);
+        final ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        entry.putLong(offset);
+        block.writeHeader(entry);
+        entry.flip();
+        try (final FileChannel channel = FileChannel.open(getPath(profileKey, INDEX_EXTENSION), StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+        {
+            final long position = (long) (blocks.size() - 1) * INDEX_ENTRY_SIZE;
+            channel.truncate(position);
+            writeFully(channel, entry, position);
+        }
+    }
+
+    // Passes every archived trade made between the passed times, in seconds and inclusive, to the visitor. Only the
+    // blocks the index shows to overlap the range are read. Blocks are visited in the order of their oldest trade, and
+    // the trades of a block from oldest to newest. A damaged block is skipped.
+    void read(final String profileKey, final long fromTime, final long toTime, final TradeVisitor visitor) throws IOException
+    {
+        final List<Block> matches = new ArrayList<>();
+        for (final Block block : getBlocks(profileKey))
+        {
+            if (block.overlaps(fromTime, toTime))
+            {
+                matches.add(block);
+            }
+        }
+        if (matches.isEmpty())
+        {
+            return;
+        }
+        matches.sort((a, b) -> Long.compare(a.firstTime, b.firstTime));
+        try (final FileChannel channel = FileChannel.open(getPath(profileKey, ARCHIVE_EXTENSION), StandardOpenOption.READ))
+        {
+            for (final Block block : matches)
+            {
+                final ByteBuffer payload = ByteBuffer.allocate(block.length);
+                readFully(channel, payload, block.offset + HEADER_SIZE);
+                if (checksum(payload, 0, block.length) != block.payloadChecksum)
+                {
+                    log.error("Archived trade block at {} is damaged, {} trades were skipped", block.offset, block.count);
+                    continue;
+                }
+                for (final TradeData trade : TradeHistoryCodec.decode(CompressionUtils.decompressingStream(new ByteArrayInputStream(payload.array()))))
+                {
+                    if (trade.tradeTime >= fromTime && trade.tradeTime <= toTime)
+                    {
+                        visitor.visit(trade);
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns the blocks of the profile's archive, opening and checking its index the first time it's used, or again if
+    // another client has appended to the archive since
+    private List<Block> getBlocks(final String profileKey) throws IOException
+    {
+        List<Block> blocks = indexes.get(profileKey);
+        final Path archivePath = getPath(profileKey, ARCHIVE_EXTENSION);
+        if (blocks != null && (blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).getEnd()) != (Files.exists(archivePath) ? Files.size(archivePath) : 0))
+        {
+            blocks = null;
+        }
+        if (blocks == null)
+        {
+            blocks = openIndex(profileKey);
+            indexes.put(profileKey, blocks);
+        }
+        return blocks;
+    }
+
+    // Reads the index of the profile's archive. Index entries that don't match the archive are dropped, blocks appended
+    // after the last good entry are found by reading their headers, and a torn block at the end of the archive is
+    // removed. The index file is rewritten if any of that changed it.
+    private List<Block> openIndex(final String profileKey) throws IOException
+    {
+        final Path archivePath = getPath(profileKey, ARCHIVE_EXTENSION);
+        final Path indexPath = getPath(profileKey, INDEX_EXTENSION);
+        final long archiveSize = Files.exists(archivePath) ? Files.size(archivePath) : 0;
+        final List<Block> blocks = new ArrayList<>();
+        long end = 0;
+        int indexedCount = -1;
+        if (Files.exists(indexPath))
+        {
+            final ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+            indexedCount = index.remaining() % INDEX_ENTRY_SIZE == 0 ? index.remaining() / INDEX_ENTRY_SIZE : -1;
+            while (index.remaining() >= INDEX_ENTRY_SIZE)
+            {
+                final long offset = index.getLong();
+                final Block block = Block.readHeader(offset, index);
+                if (block == null || offset != end || block.getEnd() > archiveSize)
+                {
+                    break;
+                }
+                blocks.add(block);
+                end = block.getEnd();
+            }
+        }
+        if (end < archiveSize)
+        {
+            try (final FileChannel channel = FileChannel.open(archivePath, StandardOpenOption.READ, StandardOpenOption.WRITE))
+            {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                while (end + HEADER_SIZE <= archiveSize)
+                {
+                    header.clear();
+                    readFully(channel, header, end);
+                    header.flip();
+                    final Block block = Block.readHeader(end, header);
+                    if (block == null || block.getEnd() > archiveSize)
+                    {
+                        break;
+                    }
+                    blocks.add(block);
+                    end = block.getEnd();
+                }
+                if (end < archiveSize)
+                {
+                    log.warn("Removed {} bytes of an incomplete block from the end of a trade archive", archiveSize - end);
+                    channel.truncate(end);
+                }
+            }
+        }
+        if (indexedCount != blocks.size() && (indexedCount >= 0 || !blocks.isEmpty()))
+        {
+            writeIndex(indexPath, blocks);
+        }
+        return blocks;
+    }
+
+    private void writeIndex(final Path indexPath, final List<Block> blocks) throws IOException
+    {
+        final ByteBuffer index = ByteBuffer.allocate(blocks.size() * INDEX_ENTRY_SIZE);
+        for (final Block block : blocks)
+        {
+            index.putLong(block.offset);
+            block.writeHeader(index);
+        }
+        final Path temp = indexPath.resolveSibling(indexPath.getFileName() + TEMP_EXTENSION);
+        Files.write(temp, index.array());
+        Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Compresses the passed trades, ordered oldest to newest. A block of a few trades is often smaller stored as it is.
+    private static byte[] encode(final List<TradeData> trades) throws IOException
+    {
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        TradeHistoryCodec.encode(trades, encoded);
+        final byte[] bytes = encoded.toByteArray();
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (final OutputStream out = CompressionUtils.compressingStream(compressed, CompressionUtils.Settings.densest()))
+        {
+            out.write(bytes);
+        }
+        if (compressed.size() <= bytes.length)
+        {
+            return compressed.toByteArray();
+        }
+        final ByteArrayOutputStream stored = new ByteArrayOutputStream(bytes.length + 1);
+        try (final OutputStream out = CompressionUtils.compressingStream(stored, CompressionUtils.Settings.none()))
+        {
+            out.write(bytes);
+        }
+        return stored.toByteArray();
+    }
+
+    private Path getPath(final String profileKey, final String extension)
+    {
+        // sanitized the same way as FileTradeHistoryStore keys, so a profile key can never leave the directory
+        return directory.resolve(profileKey.replaceAll("[^A-Za-z0-9+_.-]", "_") + extension);
+    }
+
+    private static int checksum(final ByteBuffer buffer, final int offset, final int length)
+    {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), buffer.arrayOffset() + offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            final int read = channel.read(buffer, position);
+            if (read < 0)
+            {
+                throw new EOFException("Trade archive ended unexpectedly");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import org.asundr.trade.TradeData;
+import org.asundr.trade.TradeItemData;
+import org.asundr.trade.TradeManager;
+import org.asundr.trade.TradePlayerData;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+// Compact binary encoding of a trade history used by save version 3.
+// Layout: [player name table][trade count][trades, newest first]
+// Each trade is written as a zigzag time delta from the previously written trade, an index into the name table with
+// the low bit flagging a note, the given and received item stacks as varints, then the note if flagged.
+final class TradeHistoryCodec
+{
+    private static final int MAX_STRING_LENGTH = 1 << 20;
+    // Counts are read before the checksum can be checked, so a damaged count is rejected before it's used as an array
+    // size. A history holds at most MAX_HISTORY_COUNT trades, so at most that many names, and a trade offer only has 28
+    // slots, so the item cap leaves plenty of room.
+    private static final int MAX_NAME_COUNT = TradeManager.MAX_HISTORY_COUNT;
+    private static final int MAX_ITEM_STACKS = 256;
+    static final int TYPICAL_TRADE_SIZE = 24; // rough encoded size of a trade in bytes, used to estimate the size of a history
+    private static final int TYPICAL_TIME_SIZE = 3; // encoded size of the time between consecutive trades, which is usually under a day
+
+    // Writes the passed history (ordered oldest to newest) to the output stream
+    static void encode(final Collection<TradeData> tradeHistory, final OutputStream out) throws IOException
+    {
+        final List<TradeData> trades = new ArrayList<>(tradeHistory);
+        final LinkedHashSet<String> names = new LinkedHashSet<>();
+        for (final TradeData trade : trades)
+        {
+            addTradeName(names, trade);
+        }
+        final Writer writer = new Writer(out, names, trades.size());
+        for (int i = trades.size() - 1; i >= 0; --i)
+        {
+            writer.write(trades.get(i));
+        }
+        writer.finish();
+    }
+
+    // Adds the name of the passed trade's player to the name table, if it has one
+    static void addTradeName(final Collection<String> names, final TradeData trade)
+    {
+        final String name = getTradeName(trade);
+        if (name != null)
+        {
+            names.add(name);
+        }
+    }
+
+    // Writes trades one at a time from newest to oldest, so a history can be encoded without holding all of it.
+    // The player names of every trade and the number of trades must be known before the first trade is written.
+    static final class Writer
+    {
+        private final OutputStream out;
+        private final HashMap<String, Integer> nameIndexes = new HashMap<>();
+        private final int tradeCount;
+        private int tradesWritten = 0;
+        private long previousTime = 0L;
+
+        Writer(final OutputStream out, final Collection<String> names, final int tradeCount) throws IOException
+        {
+            this.out = out;
+            this.tradeCount = tradeCount;
+            writeVarLong(out, names.size());
+            for (final String name : names)
+            {
+                nameIndexes.put(name, nameIndexes.size());
+                writeString(out, name);
+            }
+            writeVarLong(out, tradeCount);
+        }
+
+        void write(final TradeData trade) throws IOException
+        {
+            if (tradesWritten >= tradeCount)
+            {
+                throw new IOException("More trades written than declared");
+            }
+            final String name = getTradeName(trade);
+            final Integer index = name == null ? null : nameIndexes.get(name);
+            if (name != null && index == null)
+            {
+                throw new IOException("Player name missing from the name table");
+            }
+            final boolean hasNote = trade.note != null && !trade.note.isEmpty();
+            final long nameIndex = index == null ? 0 : index + 1;
+            writeVarLong(out, zigzag(previousTime - trade.tradeTime));
+            writeVarLong(out, (nameIndex << 1) | (hasNote ? 1 : 0));
+            writeItems(out, trade.givenItems);
+            writeItems(out, trade.receivedItems);
+            if (hasNote)
+            {
+                writeString(out, trade.note);
+            }
+            previousTime = trade.tradeTime;
+            ++tradesWritten;
+        }
+
+        // Checks that every declared trade was written
+        void finish() throws IOException
+        {
+            if (tradesWritten != tradeCount)
+            {
+                throw new IOException("Fewer trades written than declared");
+            }
+        }
+    }
+
+    // Reads a whole history from the input stream, returning it ordered oldest to newest
+    static ArrayDeque<TradeData> decode(final InputStream in) throws IOException
+    {
+        final Reader reader = new Reader(in);
+        final ArrayDeque<TradeData> tradeHistory = new ArrayDeque<>(Math.min(reader.getTradeCount(), 1 << 12));
+        while (reader.hasNext())
+        {
+            tradeHistory.addFirst(reader.next());
+        }
+        return tradeHistory;
+    }
+
+    // Reads trades one at a time from newest to oldest
+    static final class Reader
+    {
+        private final InputStream in;
+        private final String[] names;
+        private final int tradeCount;
+        private int tradesRead = 0;
+        private long previousTime = 0L;
+
+        Reader(final InputStream in) throws IOException
+        {
+            this.in = in;
+            names = new String[readCount(in, MAX_NAME_COUNT)];
+            for (int i = 0; i < names.length; ++i)
+            {
+                names[i] = readString(in);
+            }
+            tradeCount = readCount(in, Integer.MAX_VALUE);
+        }
+
+        int getTradeCount() { return tradeCount; }
+
+        boolean hasNext() { return tradesRead < tradeCount; }
+
+        TradeData next() throws IOException
+        {
+            final TradeData trade = new TradeData();
+            trade.tradeTime = previousTime - unzigzag(readVarLong(in));
+            final long nameField = readVarLong(in);
+            final long nameIndex = nameField >>> 1;
+            if (nameIndex > names.length)
+            {
+                throw new IOException("Invalid player name index");
+            }
+            trade.tradedPlayer = new TradePlayerData(nameIndex == 0 ? null : names[(int) nameIndex - 1]);
+            readItems(in, trade.givenItems);
+            readItems(in, trade.receivedItems);
+            if ((nameField & 1) != 0)
+            {
+                trade.note = readString(in);
+            }
+            previousTime = trade.tradeTime;
+            ++tradesRead;
+            return trade;
+        }
+    }
+
+    // Returns the encoded size of a trade in bytes, not counting its player's name, which is stored once in the name
+    // table however many trades share it. The time is counted at a typical size rather than from the trade before it,
+    // so the estimate of a trade doesn't change with its neighbours and can be kept as a running total.
+    static int estimateSize(final TradeData trade)
+    {
+        final boolean hasNote = trade.note != null && !trade.note.isEmpty();
+        int size = TYPICAL_TIME_SIZE + 2 + estimateItemsSize(trade.givenItems) + estimateItemsSize(trade.receivedItems);
+        if (hasNote)
+        {
+            size += estimateStringSize(trade.note);
+        }
+        return size;
+    }
+
+    // Returns the size of a player's name in the name table
+    static int estimateNameSize(final String name)
+    {
+        return estimateStringSize(name);
+    }
+
+    // Returns the estimated encoded size of the passed trades, including their name table
+    static long estimateSize(final Collection<TradeData> trades)
+    {
+        final HashSet<String> names = new HashSet<>();
+        long size = getVarLongSize(trades.size());
+        for (final TradeData trade : trades)
+        {
+            size += estimateSize(trade);
+            final String name = getTradeName(trade);
+            if (name != null && names.add(name))
+            {
+                size += estimateNameSize(name);
+            }
+        }
+        return size + getVarLongSize(names.size());
+    }
+
+    private static int estimateItemsSize(final Collection<TradeItemData> items)
+    {
+        int size = getVarLongSize(items.size());
+        for (final TradeItemData item : items)
+        {
+            size += getVarLongSize(Integer.toUnsignedLong(item.getID()));
+            size += getVarLongSize(Integer.toUnsignedLong(item.getQuantity()));
+            size += getVarLongSize(zigzag(item.getGEValue()));
+        }
+        return size;
+    }
+
+    private static int estimateStringSize(final String str)
+    {
+        int length = 0;
+        for (int i = 0; i < str.length(); ++i)
+        {
+            final char c = str.charAt(i);
+            length += c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate(c) ? 2 : 3; // a surrogate pair is 4 bytes
+        }
+        return getVarLongSize(length) + length;
+    }
+
+    // Returns the number of bytes writeVarLong writes for the passed value
+    static int getVarLongSize(long value)
+    {
+        int size = 1;
+        while ((value & ~0x7FL) != 0L)
+        {
+            value >>>= 7;
+            ++size;
+        }
+        return size;
+    }
+
+    private static String getTradeName(final TradeData trade)
+    {
+        return trade.tradedPlayer == null ? null : trade.tradedPlayer.tradeName;
+    }
+
+    private static void writeItems(final OutputStream out, final Collection<TradeItemData> items) throws IOException
+    {
+        writeVarLong(out, items.size());
+        for (final TradeItemData item : items)
+        {
+            writeVarLong(out, Integer.toUnsignedLong(item.getID()));
+            writeVarLong(out, Integer.toUnsignedLong(item.getQuantity()));
+            writeVarLong(out, zigzag(item.getGEValue()));
+        }
+    }
+
+    private static void readItems(final InputStream in, final Collection<TradeItemData> items) throws IOException
+    {
+        final int count = readCount(in, MAX_ITEM_STACKS);
+        for (int i = 0; i < count; ++i)
+        {
+            final int id = (int) readVarLong(in);
+            final int quantity = (int) readVarLong(in);
+            final int ge = (int) unzigzag(readVarLong(in));
+            items.add(new TradeItemData(id, quantity, ge));
+        }
+    }
+
+    private static void writeString(final OutputStream out, final String str) throws IOException
+    {
+        final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final InputStream in) throws IOException
+    {
+        final long length = readVarLong(in);
+        if (length > MAX_STRING_LENGTH)
+        {
+            throw new IOException("Invalid string length");
+        }
+        final byte[] bytes = new byte[(int) length];
+        int offset = 0;
+        while (offset < bytes.length)
+        {
+            final int read = in.read(bytes, offset, bytes.length - offset);
+            if (read < 0)
+            {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Reads a non-negative count, throwing if it is over the passed maximum
+    private static int readCount(final InputStream in, final int maxCount) throws IOException
+    {
+        final long count = readVarLong(in);
+        if (count < 0 || count > maxCount)
+        {
+            throw new IOException("Invalid count");
+        }
+        return (int) count;
+    }
+
+    // Writes an unsigned value in groups of 7 bits, least significant first
+    static void writeVarLong(final OutputStream out, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0L)
+        {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(final InputStream in) throws IOException
+    {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            final int b = in.read();
+            if (b < 0)
+            {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    // Maps signed values to unsigned so that small negative numbers stay small
+    static long zigzag(final long value) { return (value << 1) ^ (value >> 63); }
+    static long unzigzag(final long value) { return (value >>> 1) ^ -(value & 1); }
+}
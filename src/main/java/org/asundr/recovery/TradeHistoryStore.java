@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Persists the records that make up saved trade histories: profile manifests, journal entries and shards. Text records
+// are small and human readable, while blobs hold the encoded trades. Implementations are only used from the io thread.
+public interface TradeHistoryStore
+{
+    // Writes the content of a blob
+    interface BlobWriter
+    {
+        void write(OutputStream out) throws IOException;
+    }
+
+    // Returns the text record with the passed key, or null if there is none
+    String readText(String key) throws IOException;
+
+    void writeText(String key, String value) throws IOException;
+
+    // Opens the blob with the passed key for reading, or returns null if there is none
+    InputStream openBlob(String key) throws IOException;
+
+    // Replaces the blob with the passed key with the content written by the writer. A reader never sees a partly written blob.
+    void writeBlob(String key, BlobWriter writer) throws IOException;
+
+    // Removes the record with the passed key, text or blob, if it exists
+    void remove(String key) throws IOException;
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import org.asundr.trade.TradeData;
+import org.asundr.trade.TradeJsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+
+// Small records describing a single change to a trade history. These are appended to the config between snapshots
+// so that a change only costs a write proportional to its own size. Replaying is idempotent so an entry that was
+// already captured by a snapshot can be applied again safely.
+final class TradeJournal
+{
+    static final int COMPACTION_THRESHOLD = 64; // number of entries before the journal is folded into a new snapshot
+    private static final String KEY_SEPARATOR = "_journal_";
+    private static final String COMPRESSED_PREFIX = "d"; // followed by the dictionary version and a colon, then the Base64 data
+
+    enum Operation
+    {
+        ADD,
+        REMOVE,
+        NOTE
+    }
+
+    // Serializable journal entry. Only the fields relevant to the operation are populated.
+    static final class Entry
+    {
+        final Operation op;
+        final long tradeTime;
+        final TradeData trade;
+        final String note;
+
+        private Entry(final Operation op, final long tradeTime, final TradeData trade, final String note)
+        {
+            this.op = op;
+            this.tradeTime = tradeTime;
+            this.trade = trade;
+            this.note = note;
+        }
+
+        static Entry added(final TradeData trade) { return new Entry(Operation.ADD, trade.tradeTime, trade, null); }
+        static Entry removed(final TradeData trade) { return new Entry(Operation.REMOVE, trade.tradeTime, null, null); }
+        static Entry noteChanged(final TradeData trade) { return new Entry(Operation.NOTE, trade.tradeTime, null, trade.note); }
+    }
+
+    // Returns the config key of the journal entry at the passed index for the passed profile key
+    static String getEntryKey(final String profileKey, final int index)
+    {
+        return profileKey + KEY_SEPARATOR + index;
+    }
+
+    static String toJson(final Entry entry) throws IOException
+    {
+        final StringWriter stringWriter = new StringWriter();
+        final JsonWriter out = new JsonWriter(stringWriter);
+        out.beginObject();
+        out.name("op").value(entry.op.name());
+        out.name("tradeTime").value(entry.tradeTime);
+        if (entry.trade != null)
+        {
+            out.name("trade");
+            TradeJsonWriter.write(out, entry.trade);
+        }
+        if (entry.note != null)
+        {
+            out.name("note").value(entry.note);
+        }
+        out.endObject();
+        return stringWriter.toString();
+    }
+
+    static Entry fromJson(final Gson gson, final String json)
+    {
+        return gson.fromJson(json, Entry.class);
+    }
+
+    // Returns the config value of an entry. Entries are compressed with the preset dictionary, which shrinks a typical
+    // added trade to less than half its json length, and kept as plain json in the rare case that is shorter.
+    static String encode(final Entry entry) throws IOException
+    {
+        final String json = toJson(entry);
+        final CompressionUtils.Settings settings = CompressionUtils.Settings.densest().withDictionary(CompressionDictionary.CURRENT_VERSION);
+        final String compressed = COMPRESSED_PREFIX + settings.dictionaryVersion + ":" + CompressionUtils.compressToEncode(json.getBytes(StandardCharsets.UTF_8), settings);
+        return compressed.length() < json.length() ? compressed : json;
+    }
+
+    // Reads an entry from a config value written by encode() or toJson()
+    static Entry decode(final Gson gson, final String value) throws IOException
+    {
+        if (!value.startsWith(COMPRESSED_PREFIX))
+        {
+            return fromJson(gson, value);
+        }
+        final int separator = value.indexOf(':');
+        if (separator < 0)
+        {
+            throw new IOException("Malformed journal entry");
+        }
+        final int dictionaryVersion;
+        try
+        {
+            dictionaryVersion = Integer.parseInt(value.substring(COMPRESSED_PREFIX.length(), separator));
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IOException("Malformed journal entry");
+        }
+        final byte[] json = CompressionUtils.decompressBytesFromEncode(value.substring(separator + 1), dictionaryVersion);
+        return fromJson(gson, new String(json, StandardCharsets.UTF_8));
+    }
+
+    // Accumulates journal entries in order so that they can be applied to a snapshot as it is restored
+    static final class Replay
+    {
+        private final LinkedHashMap<Long, TradeData> addedTrades = new LinkedHashMap<>();
+        private final HashSet<Long> removedTrades = new HashSet<>();
+        private final HashMap<Long, String> changedNotes = new HashMap<>();
+        private int entryCount = 0;
+
+        void apply(final Entry entry)
+        {
+            ++entryCount;
+            if (entry == null || entry.op == null)
+            {
+                return;
+            }
+            switch (entry.op)
+            {
+                case ADD:
+                    if (entry.trade != null)
+                    {
+                        removedTrades.remove(entry.tradeTime);
+                        addedTrades.put(entry.tradeTime, entry.trade);
+                    }
+                    break;
+                case REMOVE:
+                    addedTrades.remove(entry.tradeTime);
+                    changedNotes.remove(entry.tradeTime);
+                    removedTrades.add(entry.tradeTime);
+                    break;
+                case NOTE:
+                    final String note = entry.note == null ? "" : entry.note;
+                    final TradeData added = addedTrades.get(entry.tradeTime);
+                    if (added != null)
+                    {
+                        added.note = note;
+                    }
+                    changedNotes.put(entry.tradeTime, note);
+                    break;
+            }
+        }
+
+        // Number of entries read from the journal, including any that could not be parsed
+        int getEntryCount() { return entryCount; }
+
+        boolean isEmpty() { return entryCount == 0; }
+
+        // Applies journaled changes to a trade from the snapshot.
+        // Returns false if the trade was removed, or if it is replaced by a journaled copy from getAddedTrades().
+        boolean applyTo(final TradeData tradeData)
+        {
+            if (removedTrades.contains(tradeData.tradeTime) || addedTrades.containsKey(tradeData.tradeTime))
+            {
+                return false;
+            }
+            final String note = changedNotes.get(tradeData.tradeTime);
+            if (note != null)
+            {
+                tradeData.note = note;
+            }
+            return true;
+        }
+
+        // Returns the times of every trade the journal adds, removes or edits
+        Set<Long> getChangedTradeTimes()
+        {
+            final HashSet<Long> tradeTimes = new HashSet<>(addedTrades.keySet());
+            tradeTimes.addAll(removedTrades);
+            tradeTimes.addAll(changedNotes.keySet());
+            return tradeTimes;
+        }
+
+        // Returns the trades added by the journal, ordered oldest to newest
+        List<TradeData> getAddedTrades()
+        {
+            final ArrayList<TradeData> trades = new ArrayList<>(addedTrades.values());
+            trades.sort((a, b) -> Long.compare(a.tradeTime, b.tradeTime));
+            return trades;
+        }
+
+        // Applies all journaled changes to a restored history, which is expected to be ordered oldest to newest.
+        // Added trades are merged in by the time they were made, which can be before trades already in the history when
+        // another client sharing the history made them.
+        void applyTo(final Collection<TradeData> tradeHistory)
+        {
+            if (isEmpty())
+            {
+                return;
+            }
+            tradeHistory.removeIf(trade -> !applyTo(trade));
+            mergeByTime(tradeHistory, getAddedTrades());
+        }
+    }
+
+    // Merges trades into a history ordered oldest to newest, keeping it in that order
+    static void mergeByTime(final Collection<TradeData> tradeHistory, final Collection<TradeData> addedTrades)
+    {
+        if (addedTrades.isEmpty())
+        {
+            return;
+        }
+        final ArrayList<TradeData> merged = new ArrayList<>(tradeHistory.size() + addedTrades.size());
+        merged.addAll(tradeHistory);
+        merged.addAll(addedTrades);
+        merged.sort((a, b) -> Long.compare(a.tradeTime, b.tradeTime));
+        tradeHistory.clear();
+        tradeHistory.addAll(merged);
+    }
+}
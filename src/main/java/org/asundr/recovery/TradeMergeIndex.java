@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import org.asundr.trade.TradeData;
+import org.asundr.trade.TradeItemData;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Objects;
+
+// Hash index used to find trades that are already in a history when another history is merged into it. Trades are
+// duplicates if they were made at the same time with the same player and exchanged the same items, in any order.
+// Lookups are a hash of those fields, so merging is linear in the size of both histories.
+final class TradeMergeIndex
+{
+    private final HashSet<Key> keys = new HashSet<>();
+
+    // Adds the passed trade, returning false if an identical trade was already added
+    boolean add(final TradeData trade)
+    {
+        return keys.add(new Key(trade));
+    }
+
+    void addAll(final Collection<TradeData> trades)
+    {
+        trades.forEach(this::add);
+    }
+
+    private static final class Key
+    {
+        private final TradeData trade;
+        private final int hash;
+
+        Key(final TradeData trade)
+        {
+            this.trade = trade;
+            long h = mix(trade.tradeTime);
+            h = h * 31 + Objects.hashCode(getName(trade));
+            h = h * 31 + hashItems(trade.givenItems);
+            h = h * 31 + hashItems(trade.receivedItems);
+            hash = (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+
+        @Override
+        public boolean equals(final Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            final Key other = (Key) o;
+            return hash == other.hash
+                    && trade.tradeTime == other.trade.tradeTime
+                    && Objects.equals(getName(trade), getName(other.trade))
+                    && Arrays.equals(sortedItems(trade.givenItems), sortedItems(other.trade.givenItems))
+                    && Arrays.equals(sortedItems(trade.receivedItems), sortedItems(other.trade.receivedItems));
+        }
+
+        private static String getName(final TradeData trade)
+        {
+            return trade.tradedPlayer == null ? null : trade.tradedPlayer.tradeName;
+        }
+
+        // Summing the hash of each stack makes the hash independent of the order of the items
+        private static long hashItems(final Collection<TradeItemData> items)
+        {
+            long sum = 0L;
+            for (final TradeItemData item : items)
+            {
+                sum += mix(packItem(item));
+            }
+            return sum;
+        }
+
+        // Only compared when hashes match, which is almost always a real duplicate
+        private static long[] sortedItems(final Collection<TradeItemData> items)
+        {
+            final long[] packed = new long[items.size()];
+            int i = 0;
+            for (final TradeItemData item : items)
+            {
+                packed[i++] = packItem(item);
+            }
+            Arrays.sort(packed);
+            return packed;
+        }
+
+        private static long packItem(final TradeItemData item)
+        {
+            return ((long) item.getID() << 32) | Integer.toUnsignedLong(item.getQuantity());
+        }
+
+        // Spreads the bits of a value so that similar values hash far apart
+        private static long mix(long value)
+        {
+            value ^= value >>> 33;
+            value *= 0xff51afd7ed558ccdL;
+            value ^= value >>> 33;
+            value *= 0xc4ceb9fe1a85ec53L;
+            value ^= value >>> 33;
+            return value;
+        }
+    }
+}
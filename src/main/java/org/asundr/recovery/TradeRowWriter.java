@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import com.google.gson.stream.JsonWriter;
+import org.asundr.trade.SimpleTradeData;
+import org.asundr.trade.TradeData;
+import org.asundr.trade.TradeItemData;
+import org.asundr.trade.TradeUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.Collection;
+
+// Writes trades as flat rows for spreadsheets and scripts, with one row for each stack of items given or received.
+// Each row repeats the trade's time, player, note and type. For simple trades (one type of item bought or sold for
+// currency) the row of the item also holds the price paid per item.
+abstract class TradeRowWriter
+{
+    enum Format
+    {
+        CSV("csv", "Comma separated values"),
+        JSON_LINES("jsonl", "JSON Lines");
+
+        final String extension;
+        final String description;
+
+        Format(final String extension, final String description)
+        {
+            this.extension = extension;
+            this.description = description;
+        }
+    }
+
+    private static final String[] COLUMNS = {
+            "trade_time", "timestamp", "player", "direction", "item_id", "item_name", "quantity", "ge_value", "ge_total",
+            "trade_type", "price_per_item", "note"
+    };
+    private static final String DIRECTION_GIVEN = "given";
+    private static final String DIRECTION_RECEIVED = "received";
+
+    final Writer writer;
+
+    TradeRowWriter(final Writer writer)
+    {
+        this.writer = writer;
+    }
+
+    static TradeRowWriter create(final Format format, final Writer writer)
+    {
+        return format == Format.CSV ? new Csv(writer) : new JsonLines(writer);
+    }
+
+    // Writes anything that comes before the first row
+    void writeHeader() throws IOException {}
+
+    // Writes the rows of every item of the passed trade
+    final void write(final TradeData trade) throws IOException
+    {
+        trade.calculateAggregateValues();
+        final SimpleTradeData simpleTrade = new SimpleTradeData(trade);
+        writeItems(trade, simpleTrade, DIRECTION_GIVEN, trade.givenItems, simpleTrade.isType(SimpleTradeData.Type.Sold_Item));
+        writeItems(trade, simpleTrade, DIRECTION_RECEIVED, trade.receivedItems, simpleTrade.isType(SimpleTradeData.Type.Bought_Item));
+    }
+
+    private void writeItems(final TradeData trade, final SimpleTradeData simpleTrade, final String direction,
+                            final Collection<TradeItemData> items, final boolean hasPrice) throws IOException
+    {
+        final int pricedItemId = hasPrice ? simpleTrade.getItem().getID() : -1;
+        for (final TradeItemData item : items)
+        {
+            final Object[] row = {
+                    Instant.ofEpochSecond(trade.tradeTime).toString(),
+                    trade.tradeTime,
+                    trade.tradedPlayer == null ? null : trade.tradedPlayer.tradeName,
+                    direction,
+                    item.getID(),
+                    TradeUtils.getOrDefaultCachedItemName(item.getID(), null),
+                    item.getQuantity(),
+                    item.getGEValue() < 0 ? null : item.getGEValue(),
+                    item.getGEValue() < 0 ? null : (long) item.getGEValue() * item.getQuantity(),
+                    simpleTrade.getTradeType().name(),
+                    hasPrice && item.getUnnotedID() == pricedItemId ? simpleTrade.getPricePerItem() : null,
+                    trade.note == null || trade.note.isEmpty() ? null : trade.note
+            };
+            writeRow(row);
+        }
+    }
+
+    // Writes a row with a value for each of COLUMNS. Null values are left empty.
+    abstract void writeRow(Object[] row) throws IOException;
+
+    private static final class Csv extends TradeRowWriter
+    {
+        Csv(final Writer writer)
+        {
+            super(writer);
+        }
+
+        @Override
+        void writeHeader() throws IOException
+        {
+            writeRow(COLUMNS);
+        }
+
+        @Override
+        void writeRow(final Object[] row) throws IOException
+        {
+            for (int i = 0; i < row.length; ++i)
+            {
+                if (i > 0)
+                {
+                    writer.write(',');
+                }
+                if (row[i] != null)
+                {
+                    writeField(row[i].toString());
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        // Quotes fields containing separators, quotes or line breaks, doubling any quotes (RFC 4180)
+        private void writeField(final String value) throws IOException
+        {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+            {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    private static final class JsonLines extends TradeRowWriter
+    {
+        JsonLines(final Writer writer)
+        {
+            super(writer);
+        }
+
+        @Override
+        void writeRow(final Object[] row) throws IOException
+        {
+            // a new JsonWriter for each line, since a JsonWriter only writes a single top level value
+            final JsonWriter out = new JsonWriter(writer);
+            out.beginObject();
+            for (int i = 0; i < row.length; ++i)
+            {
+                if (row[i] == null)
+                {
+                    continue;
+                }
+                out.name(COLUMNS[i]);
+                if (row[i] instanceof Number)
+                {
+                    out.value((Number) row[i]);
+                }
+                else
+                {
+                    out.value(row[i].toString());
+                }
+            }
+            out.endObject(); // JsonWriter doesn't buffer, so the row is already in the writer's buffer
+            writer.write('\n');
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import org.asundr.trade.TradeData;
+import org.asundr.trade.TradeItemData;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+
+// Splits a profile's trade history into shards holding one calendar month (UTC) of trades each. Every shard is stored
+// under its own config key and listed in the profile's manifest, so a save only needs to rewrite the shards that changed.
+final class TradeShards
+{
+    private static final String KEY_SEPARATOR = "_shard_";
+    private static final String SLOT_SEPARATOR = "_";
+    private static final String DAMAGED_SUFFIX = "_damaged";
+
+    // Returns the id of the shard holding trades made at the passed time, as yyyymm
+    static int getShardId(final long tradeTime)
+    {
+        final ZonedDateTime time = Instant.ofEpochSecond(tradeTime).atZone(ZoneOffset.UTC);
+        return time.getYear() * 100 + time.getMonthValue();
+    }
+
+    // Returns the config key holding the trades of the passed shard for the passed profile key
+    static String getShardKey(final String profileKey, final SaveData_Profile.Shard shard)
+    {
+        return getShardKey(profileKey, shard.id, shard.slot);
+    }
+
+    // Returns the config key of the passed slot of a shard. Slot 0 uses the key shards had before they had slots.
+    static String getShardKey(final String profileKey, final int shardId, final int slot)
+    {
+        return slot == 0 ? profileKey + KEY_SEPARATOR + shardId : profileKey + KEY_SEPARATOR + shardId + SLOT_SEPARATOR + slot;
+    }
+
+    // Returns the slot a shard is rewritten to, which is never the slot its current trades are stored in
+    static int getReplacementSlot(final SaveData_Profile.Shard current)
+    {
+        return current == null ? 0 : 1 - current.slot;
+    }
+
+    // Returns the key a damaged shard is copied to before it is replaced by the trades salvaged from it
+    static String getDamagedShardKey(final String profileKey, final int shardId)
+    {
+        return profileKey + KEY_SEPARATOR + shardId + DAMAGED_SUFFIX;
+    }
+
+    // Returns the key a damaged profile entry is copied to before it is replaced
+    static String getDamagedProfileKey(final String profileKey)
+    {
+        return profileKey + DAMAGED_SUFFIX;
+    }
+
+    // Returns the manifest entry of a shard holding the passed trades, which are ordered oldest to newest
+    static SaveData_Profile.Shard describe(final int shardId, final List<TradeData> trades, final int slot)
+    {
+        return new SaveData_Profile.Shard(shardId, trades.size(), trades.get(0).tradeTime, slot, fingerprint(trades), TradeHistoryCodec.estimateSize(trades));
+    }
+
+    // Returns a 64 bit hash of every saved field of the passed trades. A shard whose fingerprint matches the one in the
+    // manifest holds the same trades, so saving it again would write the same bytes. Never returns 0.
+    static long fingerprint(final Collection<TradeData> trades)
+    {
+        long hash = trades.size();
+        for (final TradeData trade : trades)
+        {
+            hash = mix(hash, trade.tradeTime);
+            hash = mix(hash, trade.tradedPlayer == null ? null : trade.tradedPlayer.tradeName);
+            hash = mix(hash, trade.givenItems);
+            hash = mix(hash, trade.receivedItems);
+            hash = mix(hash, trade.note == null || trade.note.isEmpty() ? null : trade.note);
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long mix(long hash, final Collection<TradeItemData> items)
+    {
+        hash = mix(hash, items.size());
+        for (final TradeItemData item : items)
+        {
+            hash = mix(hash, ((long) item.getID() << 32) | Integer.toUnsignedLong(item.getQuantity()));
+            hash = mix(hash, item.getGEValue());
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, final String str)
+    {
+        if (str == null)
+        {
+            return mix(hash, -1L);
+        }
+        hash = mix(hash, str.length());
+        for (int i = 0; i < str.length(); ++i)
+        {
+            hash = mix(hash, str.charAt(i));
+        }
+        return hash;
+    }
+
+    // Combines a value into the hash, with a multiply and xorshift so that every bit of the value affects the result
+    private static long mix(long hash, final long value)
+    {
+        hash = (hash ^ value) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    // Groups the passed history (ordered oldest to newest) by shard. Shards are ordered newest first, and the trades
+    // within each shard keep their original order.
+    static TreeMap<Integer, List<TradeData>> group(final Collection<TradeData> tradeHistory)
+    {
+        final TreeMap<Integer, List<TradeData>> shards = new TreeMap<>(Comparator.reverseOrder());
+        for (final TradeData tradeData : tradeHistory)
+        {
+            shards.computeIfAbsent(getShardId(tradeData.tradeTime), k -> new ArrayList<>()).add(tradeData);
+        }
+        return shards;
+    }
+}
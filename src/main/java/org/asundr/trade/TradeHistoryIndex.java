@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.trade;
+
+import net.runelite.client.eventbus.Subscribe;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+// Normalized tables over the saved trade history that answer aggregate questions without scanning every trade. Each
+// trade is a row holding the id of its player in the player table and a row per item stack, and the item rows are
+// indexed by item and time. The loaded trades are updated on each trade event, as the UI is, and the trades that are
+// saved but not loaded are added a shard at a time by SaveManager on the io thread, which reads them again whenever
+// their shard changes. Archived trades were removed from the history, so they aren't included.
+// A noted item is only known to be noted once it's fetched, so trades indexed before all their items were fetched are
+// indexed again by the next item query that finds them fetched.
+final public class TradeHistoryIndex
+{
+    private static final TradeHistoryIndex instance = new TradeHistoryIndex();
+
+    // Quantities and coins of an item traded during a period. Coins are only counted for trades of a single type of
+    // item for currency, see SimpleTradeData.
+    public static final class ItemTotals
+    {
+        public long boughtQuantity = 0;
+        public long coinsPaid = 0;
+        public long soldQuantity = 0;
+        public long coinsReceived = 0;
+        public long givenQuantity = 0;      // includes the quantity sold
+        public long receivedQuantity = 0;   // includes the quantity bought
+    }
+
+    // Totals of the trades made with a player
+    public static final class PlayerTotals
+    {
+        public final String name;
+        public int tradeCount = 0;
+        public long firstTradeTime = Long.MAX_VALUE;
+        public long lastTradeTime = Long.MIN_VALUE;
+        public long givenValue = 0;     // GE value of everything given, at the time of each trade
+        public long receivedValue = 0;  // GE value of everything received, at the time of each trade
+
+        private PlayerTotals(final String name)
+        {
+            this.name = name;
+        }
+    }
+
+    private static final class TradeRow
+    {
+        final int playerId;
+        final long givenValue;
+        final long receivedValue;
+        final ItemRow[] items;
+        final boolean isUnloaded;   // added from a saved shard rather than the loaded history
+
+        TradeRow(final int playerId, final long givenValue, final long receivedValue, final ItemRow[] items, final boolean isUnloaded)
+        {
+            this.playerId = playerId;
+            this.givenValue = givenValue;
+            this.receivedValue = receivedValue;
+            this.items = items;
+            this.isUnloaded = isUnloaded;
+        }
+    }
+
+    private static final class ItemRow
+    {
+        final long tradeTime;
+        final int itemId;       // unnoted id
+        final boolean isGiven;
+        final int quantity;
+        final long coins;       // currency exchanged for this stack if it was bought or sold, otherwise 0
+
+        ItemRow(final long tradeTime, final int itemId, final boolean isGiven, final int quantity, final long coins)
+        {
+            this.tradeTime = tradeTime;
+            this.itemId = itemId;
+            this.isGiven = isGiven;
+            this.quantity = quantity;
+            this.coins = coins;
+        }
+    }
+
+    private static final class Player
+    {
+        final String name;
+        final TreeSet<Long> tradeTimes = new TreeSet<>();
+        long givenValue = 0;
+        long receivedValue = 0;
+
+        Player(final String name)
+        {
+            this.name = name;
+        }
+    }
+
+    private final HashMap<Long, TradeRow> trades = new HashMap<>(); // keyed by trade time, which identifies a trade
+    private final ArrayList<Player> players = new ArrayList<>();    // indexed by player id
+    private final HashMap<String, Integer> playerIds = new HashMap<>();
+    private final HashMap<Integer, TreeMap<Long, List<ItemRow>>> itemRows = new HashMap<>(); // by item id, then trade time
+    private final HashMap<Long, TradeData> unresolvedTrades = new HashMap<>(); // trades with items that weren't fetched when they were indexed
+    private final HashMap<Integer, long[]> unloadedTradeTimes = new HashMap<>(); // times of the trades added from each unloaded shard, by shard id
+
+    private TradeHistoryIndex() {}
+
+    public static TradeHistoryIndex getInstance() { return instance; }
+
+    @Subscribe
+    private void onEventTradeAdded(EventTradeAdded e)
+    {
+        add(e.tradeData);
+    }
+
+    @Subscribe
+    private void onEventTradeRemoved(EventTradeRemoved e)
+    {
+        remove(e.tradeData.tradeTime);
+    }
+
+    @Subscribe
+    private void onEventTradeResetHistory(EventTradeResetHistory e)
+    {
+        reset(e.newTradeHistory);
+    }
+
+    @Subscribe
+    private void onEventTradeHistoryExtended(EventTradeHistoryExtended e)
+    {
+        addAll(e.olderTrades);
+    }
+
+    // Replaces the trades added from an unloaded shard with the passed trades. Trades that are already loaded are left
+    // as they are, since the loaded history is newer than the save.
+    public synchronized void putUnloadedTrades(final int shardId, final Collection<TradeData> shardTrades)
+    {
+        removeUnloadedTrades(shardId);
+        final long[] tradeTimes = new long[shardTrades.size()];
+        int count = 0;
+        for (final TradeData tradeData : shardTrades)
+        {
+            final TradeRow row = trades.get(tradeData.tradeTime);
+            if (row == null || row.isUnloaded)
+            {
+                add(tradeData, true);
+                tradeTimes[count++] = tradeData.tradeTime;
+            }
+        }
+        unloadedTradeTimes.put(shardId, Arrays.copyOf(tradeTimes, count));
+    }
+
+    // Removes the trades added from an unloaded shard, other than those that have since been loaded
+    public synchronized void removeUnloadedTrades(final int shardId)
+    {
+        final long[] tradeTimes = unloadedTradeTimes.remove(shardId);
+        if (tradeTimes == null)
+        {
+            return;
+        }
+        for (final long tradeTime : tradeTimes)
+        {
+            final TradeRow row = trades.get(tradeTime);
+            if (row != null && row.isUnloaded)
+            {
+                remove(tradeTime);
+            }
+        }
+    }
+
+    // Removes the trades added from every unloaded shard, such as when another profile becomes active
+    public synchronized void clearUnloadedTrades()
+    {
+        for (final Integer shardId : new ArrayList<>(unloadedTradeTimes.keySet()))
+        {
+            removeUnloadedTrades(shardId);
+        }
+    }
+
+    // Returns the totals of the passed item for each month it was traded in, in the local time zone
+    public synchronized TreeMap<YearMonth, ItemTotals> getMonthlyItemTotals(final int itemId)
+    {
+        addResolvedTrades();
+        final TreeMap<YearMonth, ItemTotals> totals = new TreeMap<>();
+        final TreeMap<Long, List<ItemRow>> rows = itemRows.get(itemId);
+        if (rows == null)
+        {
+            return totals;
+        }
+        final ZoneId zone = ZoneId.systemDefault();
+        ItemTotals monthTotals = null;
+        long monthEnd = Long.MIN_VALUE; // rows are in time order, so the month only needs to be found when this is passed
+        for (final List<ItemRow> tradeRows : rows.values())
+        {
+            for (final ItemRow row : tradeRows)
+            {
+                if (row.tradeTime >= monthEnd)
+                {
+                    final YearMonth month = YearMonth.from(Instant.ofEpochSecond(row.tradeTime).atZone(zone));
+                    monthEnd = month.plusMonths(1).atDay(1).atStartOfDay(zone).toEpochSecond();
+                    monthTotals = totals.computeIfAbsent(month, k -> new ItemTotals());
+                }
+                if (row.isGiven)
+                {
+                    monthTotals.givenQuantity += row.quantity;
+                    if (row.coins != 0)
+                    {
+                        monthTotals.soldQuantity += row.quantity;
+                        monthTotals.coinsReceived += row.coins;
+                    }
+                }
+                else
+                {
+                    monthTotals.receivedQuantity += row.quantity;
+                    if (row.coins != 0)
+                    {
+                        monthTotals.boughtQuantity += row.quantity;
+                        monthTotals.coinsPaid += row.coins;
+                    }
+                }
+            }
+        }
+        return totals;
+    }
+
+    // Returns the totals of the trades made with the passed player, or null if there are none
+    public synchronized PlayerTotals getPlayerTotals(final String name)
+    {
+        final Integer playerId = playerIds.get(name);
+        if (playerId == null || players.get(playerId).tradeTimes.isEmpty())
+        {
+            return null;
+        }
+        final Player player = players.get(playerId);
+        final PlayerTotals totals = new PlayerTotals(player.name);
+        totals.tradeCount = player.tradeTimes.size();
+        totals.firstTradeTime = player.tradeTimes.first();
+        totals.lastTradeTime = player.tradeTimes.last();
+        totals.givenValue = player.givenValue;
+        totals.receivedValue = player.receivedValue;
+        return totals;
+    }
+
+    // Replaces the loaded trades, keeping those added from unloaded shards
+    private synchronized void reset(final Collection<TradeData> tradeHistory)
+    {
+        final ArrayList<Long> loadedTradeTimes = new ArrayList<>();
+        trades.forEach((tradeTime, row) ->
+        {
+            if (!row.isUnloaded)
+            {
+                loadedTradeTimes.add(tradeTime);
+            }
+        });
+        loadedTradeTimes.forEach(this::remove);
+        addAll(tradeHistory);
+    }
+
+    private synchronized void addAll(final Collection<TradeData> tradeHistory)
+    {
+        tradeHistory.forEach(this::add);
+    }
+
+    private synchronized void add(final TradeData tradeData)
+    {
+        add(tradeData, false);
+    }
+
+    private synchronized void add(final TradeData tradeData, final boolean isUnloaded)
+    {
+        remove(tradeData.tradeTime);
+        if (!TradeUtils.applyCachedItemData(tradeData.givenItems) | !TradeUtils.applyCachedItemData(tradeData.receivedItems))
+        {
+            unresolvedTrades.put(tradeData.tradeTime, tradeData);
+        }
+        tradeData.calculateAggregateValues();
+        final String name = tradeData.tradedPlayer == null || tradeData.tradedPlayer.tradeName == null ? "" : tradeData.tradedPlayer.tradeName;
+        final int playerId = playerIds.computeIfAbsent(name, k ->
+        {
+            players.add(new Player(k));
+            return players.size() - 1;
+        });
+        final Player player = players.get(playerId);
+        player.tradeTimes.add(tradeData.tradeTime);
+        player.givenValue += tradeData.givenTotalValueGE;
+        player.receivedValue += tradeData.receivedTotalValueGE;
+
+        final SimpleTradeData simpleTrade = new SimpleTradeData(tradeData);
+        final long coinsPaid = simpleTrade.isType(SimpleTradeData.Type.Bought_Item) ? tradeData.givenTotalValueGE : 0;
+        final long coinsReceived = simpleTrade.isType(SimpleTradeData.Type.Sold_Item) ? tradeData.receivedTotalValueGE : 0;
+        final ItemRow[] rows = new ItemRow[tradeData.givenItems.size() + tradeData.receivedItems.size()];
+        int i = 0;
+        // the coins of a simple trade are split between its stacks by quantity, so that totals add up across stacks
+        for (final TradeItemData item : tradeData.givenItems)
+        {
+            rows[i++] = new ItemRow(tradeData.tradeTime, item.getUnnotedID(), true, item.getQuantity(), share(coinsReceived, item, simpleTrade));
+        }
+        for (final TradeItemData item : tradeData.receivedItems)
+        {
+            rows[i++] = new ItemRow(tradeData.tradeTime, item.getUnnotedID(), false, item.getQuantity(), share(coinsPaid, item, simpleTrade));
+        }
+        for (final ItemRow row : rows)
+        {
+            itemRows.computeIfAbsent(row.itemId, k -> new TreeMap<>()).computeIfAbsent(row.tradeTime, k -> new ArrayList<>(1)).add(row);
+        }
+        trades.put(tradeData.tradeTime, new TradeRow(playerId, tradeData.givenTotalValueGE, tradeData.receivedTotalValueGE, rows, isUnloaded));
+    }
+
+    private synchronized void remove(final long tradeTime)
+    {
+        unresolvedTrades.remove(tradeTime);
+        final TradeRow trade = trades.remove(tradeTime);
+        if (trade == null)
+        {
+            return;
+        }
+        final Player player = players.get(trade.playerId);
+        player.tradeTimes.remove(tradeTime);
+        player.givenValue -= trade.givenValue;
+        player.receivedValue -= trade.receivedValue;
+        for (final ItemRow row : trade.items)
+        {
+            // a trade with several stacks of an item shares one entry for them, which is removed with the first
+            final TreeMap<Long, List<ItemRow>> rows = itemRows.get(row.itemId);
+            if (rows != null && rows.remove(tradeTime) != null && rows.isEmpty())
+            {
+                itemRows.remove(row.itemId);
+            }
+        }
+    }
+
+    // Indexes again the trades whose items have all been fetched since they were indexed, so their noted items are
+    // counted under the unnoted id
+    private void addResolvedTrades()
+    {
+        for (final TradeData tradeData : new ArrayList<>(unresolvedTrades.values()))
+        {
+            if (TradeUtils.applyCachedItemData(tradeData.givenItems) & TradeUtils.applyCachedItemData(tradeData.receivedItems))
+            {
+                add(tradeData, trades.get(tradeData.tradeTime).isUnloaded);
+            }
+        }
+    }
+
+    private static long share(final long coins, final TradeItemData item, final SimpleTradeData simpleTrade)
+    {
+        if (coins == 0 || !simpleTrade.isValid() || simpleTrade.getQuantity() == 0 || item.getUnnotedID() != simpleTrade.getItem().getID())
+        {
+            return 0;
+        }
+        return Math.round((double) coins * item.getQuantity() / simpleTrade.getQuantity());
+    }
+}
@@ -33,7 +33,7 @@ public class TradeItemData
     private final int num;                  // the item quantity
     private int ge = -1;                    // this is the GE value at the time of the trade and should not be updated
 
-    TradeItemData(int id, int quantity, int value)
+    public TradeItemData(int id, int quantity, int value)
     {
         this.id = id;
         this.num = quantity;
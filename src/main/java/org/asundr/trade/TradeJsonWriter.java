@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.trade;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collection;
+
+// Writes trade data as json directly to a stream. The output matches the reflective Gson layout of TradeData, except
+// that empty notes and unknown GE values are skipped. TradeTypeAdapters restores their defaults when reading.
+final public class TradeJsonWriter
+{
+    public static void write(final JsonWriter out, final TradeData tradeData) throws IOException
+    {
+        out.beginObject();
+        out.name("tradeTime").value(tradeData.tradeTime);
+        if (tradeData.tradedPlayer != null)
+        {
+            out.name("tradedPlayer");
+            writePlayer(out, tradeData.tradedPlayer);
+        }
+        writeItems(out, "givenItems", tradeData.givenItems);
+        writeItems(out, "receivedItems", tradeData.receivedItems);
+        if (tradeData.note != null && !tradeData.note.isEmpty())
+        {
+            out.name("note").value(tradeData.note);
+        }
+        out.endObject();
+    }
+
+    // Returns the passed trade as a json string
+    public static String toJson(final TradeData tradeData)
+    {
+        final StringWriter stringWriter = new StringWriter();
+        try
+        {
+            write(new JsonWriter(stringWriter), tradeData);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e); // StringWriter does not throw
+        }
+        return stringWriter.toString();
+    }
+
+    private static void writeItems(final JsonWriter out, final String name, final Collection<TradeItemData> items) throws IOException
+    {
+        if (items == null)
+        {
+            return;
+        }
+        out.name(name).beginArray();
+        for (final TradeItemData item : items)
+        {
+            writeItem(out, item);
+        }
+        out.endArray();
+    }
+
+    static void writeItem(final JsonWriter out, final TradeItemData item) throws IOException
+    {
+        out.beginObject();
+        out.name("id").value(item.getID());
+        out.name("num").value(item.getQuantity());
+        if (item.getGEValue() != -1)
+        {
+            out.name("ge").value(item.getGEValue());
+        }
+        out.endObject();
+    }
+
+    static void writePlayer(final JsonWriter out, final TradePlayerData playerData) throws IOException
+    {
+        out.beginObject();
+        if (playerData.tradeName != null)
+        {
+            out.name("tradeName").value(playerData.tradeName);
+        }
+        out.endObject();
+    }
+}
@@ -38,12 +38,20 @@ import org.asundr.TradeTrackerConfig;
 import org.asundr.screenshot.ScreenshotUtils;
 import org.asundr.ui.GuiUtils;
 import org.asundr.utility.CommonUtils;
+import org.asundr.recovery.EventTradeHistoryBatchRestored;
+import org.asundr.recovery.EventTradeHistoryMerged;
 import org.asundr.recovery.EventTradeHistoryProfileRestored;
+import org.asundr.recovery.EventUnloadedTradesChanged;
 import org.asundr.recovery.ConfigKey;
 import org.asundr.recovery.SaveManager;
 import org.asundr.utility.MathUtils;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Objects;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -53,7 +61,7 @@ import java.util.regex.Pattern;
 @Slf4j
 public class TradeManager
 {
-	public final static int MAX_HISTORY_COUNT = 512;
+	public final static int MAX_HISTORY_COUNT = 200000;
 
 	private static final String MESSAGE_ACCEPTED_TRADE = "Accepted trade.";
 	private static final String MESSAGE_DECLINED_TRADE = "Other player declined trade.";
@@ -85,6 +93,9 @@ public class TradeManager
 
 	private TradeData currentTrade = null;
 	private ArrayDeque<TradeData> tradeHistory = new ArrayDeque<>();
+	private String restoredProfileKey = null; // profile key of the last restored history, used to match batches that follow it
+	private long loadedEncodedSize = 0L; // running estimate of the encoded size of the loaded trades, see SaveManager.estimateEncodedSize
+	private final HashMap<String, Integer> loadedNameCounts = new HashMap<>(); // loaded trades per player name, since each name is encoded once
 	private TradeState tradeState = TradeState.NOT_TRADING;
 	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 	private ScheduledFuture<?> scheduledPurgeFuture = null;
@@ -183,16 +194,76 @@ public class TradeManager
 			{
 				removeOverflowRecords(0);
 			}
+			else if (configChanged.getKey().equals(ConfigKey.MAX_HISTORY_KILOBYTES))
+			{
+				removeOverBudgetRecords();
+			}
 		}
 	}
 
 	@Subscribe
 	private void onEventTradeHistoryProfileRestored(EventTradeHistoryProfileRestored e)
 	{
+		restoredProfileKey = e.profileKey;
 		setTradeHistory(e.tradeHistory);
 		updateRemoveExpiredRecordTimer();
 	}
 
+	// Older trades of a history that is still being restored are added behind the trades already loaded
+	@Subscribe
+	private void onEventTradeHistoryBatchRestored(EventTradeHistoryBatchRestored e)
+	{
+		if (!Objects.equals(restoredProfileKey, e.profileKey))
+		{
+			return;
+		}
+		final Iterator<TradeData> it = e.olderTrades.descendingIterator();
+		while (it.hasNext())
+		{
+			final TradeData tradeData = it.next();
+			tradeHistory.addFirst(tradeData);
+			addEncodedSize(tradeData);
+		}
+		CommonUtils.postEvent(new EventTradeHistoryExtended(e.olderTrades));
+		if (e.isLastBatch)
+		{
+			updateRemoveExpiredRecordTimer();
+		}
+	}
+
+	// Trades merged in from an imported history are placed among the loaded trades by the time they were made
+	@Subscribe
+	private void onEventTradeHistoryMerged(EventTradeHistoryMerged e)
+	{
+		if (!Objects.equals(restoredProfileKey, e.profileKey))
+		{
+			return;
+		}
+		final ArrayList<TradeData> mergedHistory = new ArrayList<>(tradeHistory.size() + e.addedTrades.size());
+		mergedHistory.addAll(tradeHistory);
+		mergedHistory.addAll(e.addedTrades);
+		mergedHistory.sort(Comparator.comparingLong(tradeData -> tradeData.tradeTime));
+		setTradeHistory(new ArrayDeque<>(mergedHistory));
+		applyHistoryLimits();
+	}
+
+	// Removes the oldest trades in excess of the user-specified history limits, after trades were added other than by trading
+	private void applyHistoryLimits()
+	{
+		removeOverflowRecords(0);
+		removeOverBudgetRecords();
+		updateRemoveExpiredRecordTimer();
+	}
+
+	public static void requestApplyHistoryLimits() { instance.applyHistoryLimits(); }
+
+	// Removing or loading saved trades that weren't loaded can change which trade expires first
+	@Subscribe
+	private void onEventUnloadedTradesChanged(EventUnloadedTradesChanged e)
+	{
+		updateRemoveExpiredRecordTimer();
+	}
+
 	// Should be called when plugin shuts down to cancel potentially scheduled purge timers
 	public void shutdown()
 	{
@@ -207,8 +278,8 @@ public class TradeManager
 	// returns a copy of the current trade history
 	public static ArrayDeque<TradeData> getTradeHistory() { return new ArrayDeque<>(instance.tradeHistory); }
 
-	// get total number of recorded trades
-	public static int getTradeHistoryCount() { return instance.tradeHistory.size(); }
+	// get total number of recorded trades, including saved trades that aren't loaded
+	public static int getTradeHistoryCount() { return instance.tradeHistory.size() + SaveManager.getUnloadedTradeCount(); }
 
 	// Updates what stage of a trade the player is in, and fires relevant events
 	private void setTradeState(TradeState newState)
@@ -282,8 +353,10 @@ public class TradeManager
 			TradeUtils.fetchGePrices(tradeData.givenItems);
 			TradeUtils.fetchGePrices(tradeData.receivedItems);
 			tradeData.calculateAggregateValues();
+			addEncodedSize(tradeData); // counted once the GE prices it's saved with are known
 			CommonUtils.postEvent(new EventTradeAdded(tradeData));
-			SaveManager.requestTradeHistorySave();
+			SaveManager.requestJournalTradeAdded(tradeData);
+			removeOverBudgetRecords();
 			if (tradeHistory.size() == 1)
 			{
 				updateRemoveExpiredRecordTimer();
@@ -294,9 +367,12 @@ public class TradeManager
 	// Removes the passed trade data if it is found inn the history, and fires a corresponding event
 	private void removeTradeRecord(TradeData tradeData)
 	{
-		tradeHistory.removeIf(e -> e.tradeTime == tradeData.tradeTime);
+		if (tradeHistory.removeIf(e -> e.tradeTime == tradeData.tradeTime))
+		{
+			removeEncodedSize(tradeData);
+		}
 		CommonUtils.postEvent(new EventTradeRemoved(tradeData));
-		SaveManager.requestTradeHistorySave();
+		SaveManager.requestJournalTradeRemoved(tradeData);
 		if (!tradeHistory.isEmpty())
 		{
 			updateRemoveExpiredRecordTimer();
@@ -305,20 +381,117 @@ public class TradeManager
 
 	public static void requestRemoveTradeRecord(TradeData tradeData) { instance.removeTradeRecord(tradeData); }
 
+	// Changes the note of a trade in the history and saves the change. A longer note can put the history over its size budget.
+	private void setTradeNote(TradeData tradeData, String note)
+	{
+		if (note.equals(tradeData.note))
+		{
+			return;
+		}
+		loadedEncodedSize -= SaveManager.estimateEncodedSize(tradeData);
+		tradeData.note = note;
+		loadedEncodedSize += SaveManager.estimateEncodedSize(tradeData);
+		SaveManager.requestJournalNoteChanged(tradeData);
+		removeOverBudgetRecords();
+	}
+
+	public static void requestSetTradeNote(TradeData tradeData, String note) { instance.setTradeNote(tradeData, note); }
+
 	// Removes all trades from the current history
 	private void clearAllTradeRecords()
 	{
+		SaveManager.requestBackup();
 		tradeHistory.clear();
+		recountEncodedSize();
+		SaveManager.discardUnloadedTrades();
 		CommonUtils.postEvent(new EventTradeResetHistory(tradeHistory));
 		SaveManager.requestTradeHistorySave();
 	}
 
 	public static void requestClearAllTradeRecords() { instance.clearAllTradeRecords();}
 
+	// Adds a trade made on another client sharing this history, in time order. Overflow trades aren't removed, since the
+	// client that made the trade removes them and shares their removal.
+	// Note: Should be called via clientThread.invokeLater()
+	private void applySyncedTradeAdded(TradeData tradeData)
+	{
+		if (tradeHistory.isEmpty() || tradeHistory.getLast().tradeTime < tradeData.tradeTime)
+		{
+			tradeHistory.addLast(tradeData);
+		}
+		else if (tradeHistory.stream().noneMatch(e -> e.tradeTime == tradeData.tradeTime))
+		{
+			final ArrayList<TradeData> trades = new ArrayList<>(tradeHistory);
+			int index = trades.size();
+			while (index > 0 && trades.get(index - 1).tradeTime > tradeData.tradeTime)
+			{
+				--index;
+			}
+			trades.add(index, tradeData);
+			tradeHistory = new ArrayDeque<>(trades);
+		}
+		else
+		{
+			return;
+		}
+		addEncodedSize(tradeData);
+		TradeUtils.fetchItemNames(tradeData.givenItems);
+		TradeUtils.fetchItemNames(tradeData.receivedItems);
+		tradeData.calculateAggregateValues();
+		CommonUtils.postEvent(new EventTradeAdded(tradeData));
+		SaveManager.requestSyncedTradeSave(tradeData.tradeTime);
+		if (tradeHistory.size() == 1)
+		{
+			updateRemoveExpiredRecordTimer();
+		}
+	}
+
+	// Removes a trade that was removed on another client sharing this history
+	private void applySyncedTradeRemoved(long tradeTime)
+	{
+		for (final Iterator<TradeData> it = tradeHistory.iterator(); it.hasNext();)
+		{
+			final TradeData tradeData = it.next();
+			if (tradeData.tradeTime == tradeTime)
+			{
+				it.remove();
+				removeEncodedSize(tradeData);
+				CommonUtils.postEvent(new EventTradeRemoved(tradeData));
+				SaveManager.requestSyncedTradeSave(tradeTime);
+				return;
+			}
+		}
+	}
+
+	// Sets the note of a trade that was changed on another client sharing this history
+	private void applySyncedNoteChanged(long tradeTime, String note)
+	{
+		for (final TradeData tradeData : tradeHistory)
+		{
+			if (tradeData.tradeTime == tradeTime)
+			{
+				if (!note.equals(tradeData.note))
+				{
+					loadedEncodedSize -= SaveManager.estimateEncodedSize(tradeData);
+					tradeData.note = note;
+					loadedEncodedSize += SaveManager.estimateEncodedSize(tradeData);
+					CommonUtils.postEvent(new EventTradeNoteChanged(tradeData));
+					SaveManager.requestSyncedTradeSave(tradeTime);
+				}
+				return;
+			}
+		}
+	}
+
+	public static void requestApplySyncedTradeAdded(TradeData tradeData) { instance.applySyncedTradeAdded(tradeData); }
+	public static void requestApplySyncedTradeRemoved(long tradeTime) { instance.applySyncedTradeRemoved(tradeTime); }
+	public static void requestApplySyncedNoteChanged(long tradeTime, String note) { instance.applySyncedNoteChanged(tradeTime, note); }
+
 	// Overrides the current history
 	private void setTradeHistory(ArrayDeque<TradeData> tradeHistory)
 	{
 		this.tradeHistory = tradeHistory;
+		recountEncodedSize();
 		CommonUtils.postEvent(new EventTradeResetHistory(tradeHistory));
 	}
 
@@ -327,10 +500,70 @@ public class TradeManager
 	private void removeOverflowRecords(int extra)
 	{
 		final int maxRecords = MathUtils.clamp(CommonUtils.getConfig().maxHistoryCount(), 1, TradeManager.MAX_HISTORY_COUNT);
-		int overflow = Math.min(tradeHistory.size() - maxRecords + extra, Math.max(0, tradeHistory.size() - 1));
+		final int totalCount = tradeHistory.size() + SaveManager.getUnloadedTradeCount();
+		int overflow = Math.min(totalCount - maxRecords + extra, Math.max(0, totalCount - 1));
+		overflow -= SaveManager.requestRemoveOldestUnloadedTrades(overflow); // unloaded trades are older than any loaded trade
 		removeOldestRecords(overflow);
 	}
 
+	// Removes the oldest trades until the estimated encoded size of the whole history is within the user-specified budget.
+	// The newest trade is always kept, even if it alone is over the budget.
+	private void removeOverBudgetRecords()
+	{
+		final long budget = Math.max(0, CommonUtils.getConfig().maxHistoryKilobytes()) * 1024L;
+		if (budget == 0L)
+		{
+			return;
+		}
+		long excess = loadedEncodedSize + SaveManager.getUnloadedEncodedSize() - budget;
+		if (excess <= 0L)
+		{
+			return;
+		}
+		excess -= SaveManager.requestRemoveOldestUnloadedBytes(excess); // unloaded trades are older than any loaded trade
+		int count = 0;
+		for (final TradeData tradeData : tradeHistory)
+		{
+			if (excess <= 0L || count == tradeHistory.size() - 1)
+			{
+				break;
+			}
+			excess -= SaveManager.estimateEncodedSize(tradeData);
+			++count;
+		}
+		removeOldestRecords(count);
+	}
+
+	// Adds a trade that was added to the loaded history to the running estimate of its encoded size
+	private void addEncodedSize(TradeData tradeData)
+	{
+		loadedEncodedSize += SaveManager.estimateEncodedSize(tradeData);
+		final String name = tradeData.tradedPlayer == null ? null : tradeData.tradedPlayer.tradeName;
+		if (name != null && loadedNameCounts.merge(name, 1, Integer::sum) == 1)
+		{
+			loadedEncodedSize += SaveManager.estimateEncodedNameSize(name);
+		}
+	}
+
+	// Removes a trade that was removed from the loaded history from the running estimate of its encoded size
+	private void removeEncodedSize(TradeData tradeData)
+	{
+		loadedEncodedSize -= SaveManager.estimateEncodedSize(tradeData);
+		final String name = tradeData.tradedPlayer == null ? null : tradeData.tradedPlayer.tradeName;
+		if (name != null && loadedNameCounts.containsKey(name) && loadedNameCounts.computeIfPresent(name, (key, count) -> count > 1 ? count - 1 : null) == null)
+		{
+			loadedEncodedSize -= SaveManager.estimateEncodedNameSize(name);
+		}
+	}
+
+	// Rebuilds the running estimate of the encoded size after the loaded history is replaced
+	private void recountEncodedSize()
+	{
+		loadedEncodedSize = 0L;
+		loadedNameCounts.clear();
+		tradeHistory.forEach(this::addEncodedSize);
+	}
+
 	// Called whenever the timer to purge expired trades needs to be changed or cancelled
 	private void updateRemoveExpiredRecordTimer()
 	{
@@ -339,7 +572,8 @@ public class TradeManager
 			//log.debug("Cancelled scheduled removal of expired trade.");
 			scheduledPurgeFuture.cancel(false);
 		}
-		if (tradeHistory.isEmpty())
+		final long oldestTradeTime = Math.min(tradeHistory.isEmpty() ? Long.MAX_VALUE : tradeHistory.getFirst().tradeTime, SaveManager.getOldestUnloadedTradeTime());
+		if (oldestTradeTime == Long.MAX_VALUE)
 		{
 			//log.debug("No trade set to expire.");
 			return;
@@ -355,7 +589,7 @@ public class TradeManager
 			//log.debug("No trade set to expire.");
 			return;
 		}
-		final long expireTime = tradeHistory.getFirst().tradeTime*1000L + lifetime;
+		final long expireTime = oldestTradeTime*1000L + lifetime;
 		final long destroyDelay = Math.max(1000, expireTime - System.currentTimeMillis());
 		scheduledPurgeFuture = scheduler.schedule(this::removeExpiredRecords, destroyDelay, TimeUnit.MILLISECONDS);
 		//log.debug("Scheduled to remove expired trade at: " + TradeUtils.timeStampToString(expireTime/1000));
@@ -369,23 +603,43 @@ public class TradeManager
 		{
 			return;
 		}
-		while (!tradeHistory.isEmpty() && tradeHistory.getFirst().isExpired())
+		final long cutoffTime = (System.currentTimeMillis() - lifetime) / 1000L;
+		if (SaveManager.getOldestUnloadedTradeTime() < cutoffTime)
 		{
-			removeOldestRecords(1);
+			SaveManager.requestRemoveExpiredUnloadedTrades(cutoffTime);
 		}
+		int expiredCount = 0;
+		for (final TradeData tradeData : tradeHistory)
+		{
+			if (!tradeData.isExpired())
+			{
+				break;
+			}
+			++expiredCount;
+		}
+		removeOldestRecords(expiredCount);
 		updateRemoveExpiredRecordTimer();
 	}
 
-	// Removes the passed number of oldest trades from the history
+	// Removes the passed number of oldest trades from the history, moving them to the profile's archive
 	private void removeOldestRecords(int count)
 	{
 		count = Math.min(count, tradeHistory.size());
+		if (count <= 0)
+		{
+			return;
+		}
+		final ArrayList<TradeData> removedTrades = new ArrayList<>(count);
 		while (count > 0)
 		{
-			CommonUtils.postEvent(new EventTradeRemoved(tradeHistory.getFirst()));
-			tradeHistory.removeFirst();
+			final TradeData removed = tradeHistory.removeFirst();
+			removeEncodedSize(removed);
+			removedTrades.add(removed);
+			CommonUtils.postEvent(new EventTradeRemoved(removed));
+			SaveManager.requestJournalTradeRemoved(removed);
 			--count;
 		}
+		SaveManager.requestArchiveTrades(removedTrades);
 	}
 
 	// Returns true if expired trades are set to be auto-removed after they expire
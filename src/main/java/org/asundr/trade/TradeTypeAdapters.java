@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.trade;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+// Streaming Gson adapters for the trade model so that it is never serialized by reflection. Trades are written by
+// TradeJsonWriter, and read here with the same defaults the model's initializers give to fields that were omitted.
+final public class TradeTypeAdapters
+{
+    public static final TypeAdapterFactory FACTORY = new TypeAdapterFactory()
+    {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(final Gson gson, final TypeToken<T> type)
+        {
+            final Class<? super T> rawType = type.getRawType();
+            if (rawType == TradeData.class)
+            {
+                return (TypeAdapter<T>) TRADE_ADAPTER;
+            }
+            if (rawType == TradeItemData.class)
+            {
+                return (TypeAdapter<T>) ITEM_ADAPTER;
+            }
+            if (rawType == TradePlayerData.class)
+            {
+                return (TypeAdapter<T>) PLAYER_ADAPTER;
+            }
+            return null;
+        }
+    };
+
+    private static final TypeAdapter<TradeData> TRADE_ADAPTER = new TypeAdapter<TradeData>()
+    {
+        @Override public void write(final JsonWriter out, final TradeData value) throws IOException { TradeJsonWriter.write(out, value); }
+        @Override public TradeData read(final JsonReader in) throws IOException { return readTrade(in); }
+    }.nullSafe();
+
+    private static final TypeAdapter<TradeItemData> ITEM_ADAPTER = new TypeAdapter<TradeItemData>()
+    {
+        @Override public void write(final JsonWriter out, final TradeItemData value) throws IOException { TradeJsonWriter.writeItem(out, value); }
+        @Override public TradeItemData read(final JsonReader in) throws IOException { return readItem(in); }
+    }.nullSafe();
+
+    private static final TypeAdapter<TradePlayerData> PLAYER_ADAPTER = new TypeAdapter<TradePlayerData>()
+    {
+        @Override public void write(final JsonWriter out, final TradePlayerData value) throws IOException { TradeJsonWriter.writePlayer(out, value); }
+        @Override public TradePlayerData read(final JsonReader in) throws IOException { return readPlayer(in); }
+    }.nullSafe();
+
+    // Reads a trade object, skipping any unknown fields
+    public static TradeData readTrade(final JsonReader in) throws IOException
+    {
+        final TradeData tradeData = new TradeData();
+        in.beginObject();
+        while (in.hasNext())
+        {
+            switch (in.nextName())
+            {
+                case "tradeTime":
+                    tradeData.tradeTime = in.nextLong();
+                    break;
+                case "tradedPlayer":
+                    tradeData.tradedPlayer = isNull(in) ? null : readPlayer(in);
+                    break;
+                case "givenItems":
+                    tradeData.givenItems = readItems(in);
+                    break;
+                case "receivedItems":
+                    tradeData.receivedItems = readItems(in);
+                    break;
+                case "note":
+                    tradeData.note = isNull(in) ? null : in.nextString();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return tradeData;
+    }
+
+    private static ArrayList<TradeItemData> readItems(final JsonReader in) throws IOException
+    {
+        if (isNull(in))
+        {
+            return null;
+        }
+        final ArrayList<TradeItemData> items = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext())
+        {
+            items.add(isNull(in) ? null : readItem(in));
+        }
+        in.endArray();
+        return items;
+    }
+
+    private static TradeItemData readItem(final JsonReader in) throws IOException
+    {
+        int id = 0;
+        int quantity = 0;
+        int value = -1;
+        in.beginObject();
+        while (in.hasNext())
+        {
+            switch (in.nextName())
+            {
+                case "id":
+                    id = in.nextInt();
+                    break;
+                case "num":
+                    quantity = in.nextInt();
+                    break;
+                case "ge":
+                    value = in.nextInt();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new TradeItemData(id, quantity, value);
+    }
+
+    private static TradePlayerData readPlayer(final JsonReader in) throws IOException
+    {
+        final TradePlayerData playerData = new TradePlayerData();
+        in.beginObject();
+        while (in.hasNext())
+        {
+            if (in.nextName().equals("tradeName"))
+            {
+                playerData.tradeName = isNull(in) ? null : in.nextString();
+            }
+            else
+            {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return playerData;
+    }
+
+    // Consumes the next value and returns true if it is null
+    private static boolean isNull(final JsonReader in) throws IOException
+    {
+        if (in.peek() != JsonToken.NULL)
+        {
+            return false;
+        }
+        in.nextNull();
+        return true;
+    }
+}
@@ -3,10 +3,15 @@ package org.asundr.trade;
 import net.runelite.api.ItemComposition;
 import net.runelite.client.game.ItemManager;
 import net.runelite.client.util.AsyncBufferedImage;
+import org.asundr.utility.CommonUtils;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 final public class TradeUtils
 {
@@ -18,7 +23,12 @@ final public class TradeUtils
         ItemID(int id) {this.id = id;}
     }
 
-    private final static HashMap<Integer, String> itemNameCache = new HashMap<>();
+    private static final int ITEM_VERIFY_BATCH_SIZE = 256; // cached items checked against their definition per client tick
+
+    // Read by the UI executor while the client thread adds to them
+    private final static ConcurrentHashMap<Integer, String> itemNameCache = new ConcurrentHashMap<>(); // keyed by unnoted id
+    private final static ConcurrentHashMap<Integer, Integer> unnotedIdCache = new ConcurrentHashMap<>(); // noted id to unnoted id
+    private final static AtomicBoolean itemCacheChanged = new AtomicBoolean(false);
 
     private static ItemManager itemManager;
 
@@ -56,20 +66,80 @@ final public class TradeUtils
     {
         for (final TradeItemData itemData : itemDataList)
         {
+            final Integer unnotedId = unnotedIdCache.get(itemData.getID());
+            if (unnotedId != null)
+            {
+                itemData.setUnnotedId(unnotedId);
+                continue;
+            }
             if (!itemNameCache.containsKey(itemData.getID()))
             {
                 final ItemComposition comp = itemManager.getItemComposition(itemData.getID());
                 if (comp.getNote() != -1)
                 {
                     itemData.setUnnotedId(comp.getLinkedNoteId());
-                    if (itemNameCache.containsKey(itemData.getUnnotedID()))
-                    {
-                        continue;
-                    }
+                    unnotedIdCache.put(itemData.getID(), comp.getLinkedNoteId());
                 }
-                itemNameCache.put(itemData.getUnnotedID(), comp.getMembersName());
+                itemNameCache.putIfAbsent(itemData.getUnnotedID(), comp.getMembersName());
+                itemCacheChanged.set(true);
+            }
+        }
+    }
+
+    // Sets the unnoted id of the passed items from the item cache, without needing the client thread.
+    // Returns false if any of the items haven't been fetched yet, in which case fetchItemNames is still needed.
+    public static boolean applyCachedItemData(final Collection<TradeItemData> itemDataList)
+    {
+        boolean isResolved = true;
+        for (final TradeItemData itemData : itemDataList)
+        {
+            final Integer unnotedId = unnotedIdCache.get(itemData.getID());
+            if (unnotedId != null)
+            {
+                itemData.setUnnotedId(unnotedId);
+            }
+            else if (!itemNameCache.containsKey(itemData.getID()))
+            {
+                isResolved = false;
             }
         }
+        return isResolved;
+    }
+
+    // Returns a copy of the item names that have been fetched, keyed by unnoted id
+    public static Map<Integer, String> getCachedItemNames() { return new HashMap<>(itemNameCache); }
+
+    // Returns a copy of the unnoted ids of the noted items that have been fetched, keyed by noted id
+    public static Map<Integer, Integer> getCachedUnnotedIds() { return new HashMap<>(unnotedIdCache); }
+
+    // Returns true if items were fetched since this was last called, so the item cache needs saving
+    public static boolean takeItemCacheChanged() { return itemCacheChanged.getAndSet(false); }
+
+    // Adds a saved item cache, so restored trades can be shown before their items are fetched. Items already fetched are
+    // kept. The saved entries are then checked against the item definitions a batch per client tick, in case an item
+    // was renamed since they were saved.
+    public static void restoreItemCache(final Map<Integer, String> itemNames, final Map<Integer, Integer> unnotedIds)
+    {
+        unnotedIds.forEach(unnotedIdCache::putIfAbsent);
+        itemNames.forEach(itemNameCache::putIfAbsent);
+        final ArrayDeque<Integer> unverified = new ArrayDeque<>(itemNames.keySet());
+        CommonUtils.getClientThread().invokeLater(() ->
+        {
+            if (itemManager == null)
+            {
+                return false;
+            }
+            for (int i = 0; i < ITEM_VERIFY_BATCH_SIZE && !unverified.isEmpty(); ++i)
+            {
+                final int id = unverified.poll();
+                final String name = itemManager.getItemComposition(id).getMembersName();
+                if (!name.equals(itemNameCache.put(id, name)))
+                {
+                    itemCacheChanged.set(true);
+                }
+            }
+            return unverified.isEmpty();
+        });
     }
 
     // Returns the image for the passed item with the quantity count
@@ -26,10 +26,10 @@
 package org.asundr.ui;
 
 import net.runelite.client.util.QuantityFormatter;
-import org.asundr.recovery.SaveManager;
 import org.asundr.trade.SimpleTradeData;
 import org.asundr.trade.TradeData;
 import org.asundr.trade.TradeItemData;
+import org.asundr.trade.TradeManager;
 import org.asundr.trade.TradeUtils;
 import org.asundr.utility.CommonUtils;
 import org.asundr.utility.StringUtils;
@@ -264,12 +264,14 @@ class TradeRecordPanel extends CollapsiblePanel
     {
         if (!note.trim().equals(tradeData.note))
         {
-            tradeData.note = note.trim();
+            TradeManager.requestSetTradeNote(tradeData, note.trim());
             updateNoteUI();
-            SaveManager.requestTradeHistorySave();
         }
     }
 
+    // Updates the note icon after the note was changed elsewhere, such as on another client sharing the history
+    void refreshNote() { updateNoteUI(); }
+
     // Updates the visuals and tooltip for note icon
     private void updateNoteUI()
     {
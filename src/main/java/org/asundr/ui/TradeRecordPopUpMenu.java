@@ -26,7 +26,9 @@
 package org.asundr.ui;
 
 import net.runelite.api.GameState;
-import org.asundr.recovery.SaveManager;
+import org.asundr.trade.SimpleTradeData;
+import org.asundr.trade.TradeHistoryIndex;
+import org.asundr.trade.TradeJsonWriter;
 import org.asundr.trade.TradeManager;
 import org.asundr.utility.CommonUtils;
 import org.asundr.utility.StringUtils;
@@ -34,6 +36,8 @@ import org.asundr.utility.TimeUtils;
 
 import javax.swing.*;
 import java.awt.*;
+import java.time.YearMonth;
+import java.util.Map;
 
 class TradeRecordPopUpMenu extends JPopupMenu
 {
@@ -44,6 +48,7 @@ class TradeRecordPopUpMenu extends JPopupMenu
     private final JMenuItem editNote = new JMenuItem("Edit note");
     private final JMenuItem copyTrade = new JMenuItem("Trade data");
     private final JMenuItem highlightPlayer = new JMenuItem("Highlight player");
+    private final JMenuItem copyItemTotals = new JMenuItem("Monthly item totals");
 
     TradeRecordPopUpMenu()
     {
@@ -71,9 +76,20 @@ class TradeRecordPopUpMenu extends JPopupMenu
         copySubmenu.add(copyTime);
 
         copyTrade.addActionListener(e -> { if (tradeRecordPanel != null) StringUtils.copyToClipboard(
-                StringUtils.stringify(tradeRecordPanel.getTradeData()).replaceAll(SaveManager.REGEX_EMPTY_NOTES, "")
+                TradeJsonWriter.toJson(tradeRecordPanel.getTradeData())
         ); });
         copySubmenu.add(copyTrade);
+        copyItemTotals.setToolTipText("Copies the quantity and coins bought and sold of this trade's item for each month of the saved trades, as CSV");
+        copyItemTotals.addActionListener(e -> { if (tradeRecordPanel != null) StringUtils.copyToClipboard(
+                formatMonthlyItemTotals(new SimpleTradeData(tradeRecordPanel.getTradeData()).getItem().getID())
+        ); });
+        copySubmenu.add(copyItemTotals);
+        final JMenuItem copyPlayerTotals = new JMenuItem("Player totals");
+        copyPlayerTotals.setToolTipText("Copies the number and value of the saved trades made with this player, as CSV");
+        copyPlayerTotals.addActionListener(e -> { if (tradeRecordPanel != null) StringUtils.copyToClipboard(
+                formatPlayerTotals(tradeRecordPanel.getTradeData().tradedPlayer.tradeName)
+        ); });
+        copySubmenu.add(copyPlayerTotals);
         add(copySubmenu);
 
         final JMenu filterSubmenu = new JMenu("Filter by");
@@ -98,9 +114,36 @@ class TradeRecordPopUpMenu extends JPopupMenu
     public void show(Component invoker, int x, int y)
     {
         copyTrade.setVisible(CommonUtils.getConfig().canCopyTradeData());
+        copyItemTotals.setVisible(tradeRecordPanel != null && new SimpleTradeData(tradeRecordPanel.getTradeData()).isValid());
         editNote.setVisible(CommonUtils.getClient().getGameState() == GameState.LOGGED_IN);
         highlightPlayer.setVisible(CommonUtils.getClient().getGameState() == GameState.LOGGED_IN);
         super.show(invoker, x, y);
     }
 
+    private static String formatMonthlyItemTotals(final int itemId)
+    {
+        final StringBuilder sb = new StringBuilder("month,item_id,bought,coins_paid,sold,coins_received,received,given\n");
+        for (final Map.Entry<YearMonth, TradeHistoryIndex.ItemTotals> entry : TradeHistoryIndex.getInstance().getMonthlyItemTotals(itemId).entrySet())
+        {
+            final TradeHistoryIndex.ItemTotals totals = entry.getValue();
+            sb.append(entry.getKey()).append(',').append(itemId)
+                    .append(',').append(totals.boughtQuantity).append(',').append(totals.coinsPaid)
+                    .append(',').append(totals.soldQuantity).append(',').append(totals.coinsReceived)
+                    .append(',').append(totals.receivedQuantity).append(',').append(totals.givenQuantity).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String formatPlayerTotals(final String name)
+    {
+        final TradeHistoryIndex.PlayerTotals totals = TradeHistoryIndex.getInstance().getPlayerTotals(name);
+        if (totals == null)
+        {
+            return "";
+        }
+        return "player,trades,first_trade,last_trade,given_value,received_value\n"
+                + "\"" + totals.name.replace("\"", "\"\"") + "\"," + totals.tradeCount
+                + "," + TimeUtils.timestampToString(totals.firstTradeTime) + "," + TimeUtils.timestampToString(totals.lastTradeTime)
+                + "," + totals.givenValue + "," + totals.receivedValue + "\n";
+    }
 }
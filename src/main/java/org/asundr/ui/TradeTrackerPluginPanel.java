@@ -47,6 +47,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -192,12 +193,28 @@ public class TradeTrackerPluginPanel extends PluginPanel
         removeTradeRecord(e.tradeData);
     }
 
+    @Subscribe
+    private void onEventTradeNoteChanged(EventTradeNoteChanged e)
+    {
+        final TradeRecordPanel panel = findTradeRecordPanel(e.tradeData.tradeTime);
+        if (panel != null)
+        {
+            panel.refreshNote();
+        }
+    }
+
     @Subscribe
     private void onEventTradeResetHistory(EventTradeResetHistory e)
     {
         replaceAllTradeRecords(e.newTradeHistory);
     }
 
+    @Subscribe
+    private void onEventTradeHistoryExtended(EventTradeHistoryExtended e)
+    {
+        appendOlderTradeRecords(e.olderTrades);
+    }
+
     public final Collection<TradeRecordPanel> getTradeRecordPanels()
     {
         return Arrays.stream(tradeHistoryPanel.getComponents()).filter(e -> e instanceof TradeRecordPanel).map(e -> (TradeRecordPanel)e).collect(Collectors.toList());
@@ -226,16 +243,44 @@ public class TradeTrackerPluginPanel extends PluginPanel
         saveHistoryMenu.addActionListener(a -> SaveManager.saveTradeHistoryToFile());
         final JMenuItem loadHistoryMenu = new JMenuItem(("Load profile from file"));
         loadHistoryMenu.addActionListener(a ->SaveManager.loadTradeHistoryFromFile());
+        final JMenuItem exportAllMenu = new JMenuItem("Save all profiles to file");
+        exportAllMenu.addActionListener(a -> SaveManager.exportAllProfilesToFile());
+        exportAllMenu.setToolTipText("Saves the trade history of every profile to a single archive");
+        final JMenuItem importAllMenu = new JMenuItem("Load all profiles from file");
+        importAllMenu.addActionListener(a -> SaveManager.importAllProfilesFromFile());
+        importAllMenu.setToolTipText("Loads the trade history of every profile in an archive");
+        final JMenuItem restoreBackupMenu = new JMenuItem("Restore backup");
+        restoreBackupMenu.addActionListener(a -> SaveManager.restoreBackup());
+        restoreBackupMenu.setToolTipText("Replaces the trade history with one of its automatic backups");
+        final JMenuItem exportCsvMenu = new JMenuItem("Export trades as CSV");
+        exportCsvMenu.addActionListener(a -> SaveManager.exportTradesAsCsv());
+        exportCsvMenu.setToolTipText("Saves every trade as a spreadsheet, with a row for each item traded");
+        final JMenuItem exportJsonLinesMenu = new JMenuItem("Export trades as JSON Lines");
+        exportJsonLinesMenu.addActionListener(a -> SaveManager.exportTradesAsJsonLines());
+        exportJsonLinesMenu.setToolTipText("Saves every trade as JSON Lines, with a line for each item traded");
+        final JMenuItem exportArchiveMenu = new JMenuItem("Export archived trades as CSV");
+        exportArchiveMenu.addActionListener(a -> SaveManager.exportArchivedTradesAsCsv());
+        exportArchiveMenu.setToolTipText("Saves the trades removed by the history limits as a spreadsheet");
         final JMenuItem refreshCurrentMenu = new JMenuItem("Refresh current trade history");
         refreshCurrentMenu.addActionListener(a -> replaceAllTradeRecords(TradeManager.getTradeHistory()));
         refreshCurrentMenu.setToolTipText("Updates the trade history UI using the currently loaded history");
         final JMenuItem saveCurrentMenu = new JMenuItem("Save current trade history");
         saveCurrentMenu.addActionListener(a -> SaveManager.requestTradeHistorySave());
+        final JMenuItem loadOlderMenu = new JMenuItem("Load older trades");
+        loadOlderMenu.addActionListener(a -> SaveManager.requestLoadOlderTrades());
+        loadOlderMenu.setToolTipText("Loads the newest month of saved trades that isn't loaded yet");
         subtitlePopup.add(saveHistoryMenu);
         subtitlePopup.add(loadHistoryMenu);
+        subtitlePopup.add(exportAllMenu);
+        subtitlePopup.add(importAllMenu);
+        subtitlePopup.add(restoreBackupMenu);
+        subtitlePopup.add(exportCsvMenu);
+        subtitlePopup.add(exportJsonLinesMenu);
+        subtitlePopup.add(exportArchiveMenu);
         subtitlePopup.addSeparator();
         subtitlePopup.add(refreshCurrentMenu);
         subtitlePopup.add(saveCurrentMenu);
+        subtitlePopup.add(loadOlderMenu);
 
         // Create subtitle panel and setup popup events
         final JPanel subtitleWrapper = new JPanel();
@@ -250,6 +295,7 @@ public class TradeTrackerPluginPanel extends PluginPanel
                 super.mouseClicked(e);
                 if (e.getButton() == MouseEvent.BUTTON3)
                 {
+                    loadOlderMenu.setEnabled(SaveManager.getUnloadedTradeCount() > 0);
                     subtitlePopup.show(subtitleWrapper, e.getX(), e.getY());
                 }
             }
@@ -450,28 +496,36 @@ public class TradeTrackerPluginPanel extends PluginPanel
             {
                 tradeRecordPanel.toggleVisible(false);
             }
-            tradeHistoryPanel.add(tradeRecordPanel.paddingStrut, 0);
-            tradeHistoryPanel.add(tradeRecordPanel,0);
+            // new trades go on top, but a trade shared by another client can be older than the newest trade shown
+            int index = 0;
+            final Component[] components = tradeHistoryPanel.getComponents();
+            while (index < components.length && !(components[index] instanceof TradeRecordPanel && ((TradeRecordPanel) components[index]).getTradeTime() < tradeData.tradeTime))
+            {
+                ++index;
+            }
+            tradeHistoryPanel.add(tradeRecordPanel.paddingStrut, index);
+            tradeHistoryPanel.add(tradeRecordPanel, index);
             updateEmptyHistoryMessages();
         });
     }
 
-    // Removes a trade panel with the passed trade data in response to trade history removing trade
-    private void removeTradeRecord(TradeData tradeData)
+    // Returns the panel showing the trade made at the passed time, or null if there isn't one
+    private TradeRecordPanel findTradeRecordPanel(final long tradeTime)
     {
-        TradeRecordPanel toRemove = null;
-        for(Component component : tradeHistoryPanel.getComponents())
+        for (Component component : tradeHistoryPanel.getComponents())
         {
-            if (component instanceof TradeRecordPanel)
+            if (component instanceof TradeRecordPanel && ((TradeRecordPanel) component).getTradeTime() == tradeTime)
             {
-                final TradeRecordPanel curr = (TradeRecordPanel) component;
-                if (curr.getTradeTime() == tradeData.tradeTime)
-                {
-                    toRemove = curr;
-                    break;
-                }
+                return (TradeRecordPanel) component;
             }
         }
+        return null;
+    }
+
+    // Removes a trade panel with the passed trade data in response to trade history removing trade
+    private void removeTradeRecord(TradeData tradeData)
+    {
+        final TradeRecordPanel toRemove = findTradeRecordPanel(tradeData.tradeTime);
         if (toRemove == null)
         {
             return;
@@ -502,30 +556,106 @@ public class TradeTrackerPluginPanel extends PluginPanel
         btnFilter.setActive(false);
         tradeHistoryPanel.setVisible(false);
         updateEmptyHistoryMessages();
-        CommonUtils.getClientThread().invokeLater(() ->
+        submitWithResolvedItems(tradeHistory, () ->
         {
-            for (final TradeData tradeData : tradeHistory)
+            final List<TradeRecordPanel> panels = tradeHistory.parallelStream().map(e -> {
+                TradeRecordPanel tradeRecordPanel = new TradeRecordPanel(e);
+                tradeRecordPanel.paddingStrut = Box.createVerticalStrut(TRADE_RECORD_PADDING);
+                return tradeRecordPanel;
+            }).collect(Collectors.toList());
+            for (final TradeRecordPanel panel : panels)
             {
-                TradeUtils.fetchItemNames(tradeData.givenItems);
-                TradeUtils.fetchItemNames(tradeData.receivedItems);
-                tradeData.calculateAggregateValues();
+                tradeHistoryPanel.add(panel.paddingStrut, 0);
+                tradeHistoryPanel.add(panel, 0);
             }
-            uiExecutorFuture = executor.submit(() ->
+            tradeHistoryPanel.setVisible(true);
+            updateEmptyHistoryMessages();
+            uiExecutorFuture = null;
+        });
+    }
+
+    // Adds trade panels for older trades to the bottom of the history while it is still being restored
+    private void appendOlderTradeRecords(final Collection<TradeData> olderTrades)
+    {
+        if (olderTrades == null || olderTrades.isEmpty())
+        {
+            return;
+        }
+        // queued on the same executor as replaceAllTradeRecords so the batches land after the newest trades
+        submitWithResolvedItems(olderTrades, () ->
+        {
+            final List<TradeRecordPanel> panels = olderTrades.parallelStream().map(e -> {
+                TradeRecordPanel tradeRecordPanel = new TradeRecordPanel(e);
+                tradeRecordPanel.paddingStrut = Box.createVerticalStrut(TRADE_RECORD_PADDING);
+                return tradeRecordPanel;
+            }).collect(Collectors.toList());
+            final boolean expand = btnToggleCollapseAll.isActive();
+            final boolean filter = btnFilter.isActive();
+            for (int i = panels.size() - 1; i >= 0; --i)
+            {
+                final TradeRecordPanel panel = panels.get(i);
+                if (expand)
+                {
+                    panel.setCollapsed(false);
+                }
+                if (filter && !panel.match(filterText.getText()))
+                {
+                    panel.toggleVisible(false);
+                }
+                tradeHistoryPanel.add(panel);
+                tradeHistoryPanel.add(panel.paddingStrut);
+            }
+            updateEmptyHistoryMessages();
+            tradeHistoryPanel.revalidate();
+            tradeHistoryPanel.repaint();
+            uiExecutorFuture = null;
+        });
+    }
+
+    // Runs the passed task on the UI executor once the items of the passed trades are resolved and their totals are
+    // calculated. Items found in the item cache, which is saved between sessions, are resolved without the client
+    // thread, so a restored history only waits on it for items it hasn't seen before. The executor waits for any
+    // client thread lookup before starting the task, so tasks still run in the order they were submitted.
+    private void submitWithResolvedItems(final Collection<TradeData> trades, final Runnable task)
+    {
+        final List<TradeData> unresolved = new ArrayList<>();
+        for (final TradeData tradeData : trades)
+        {
+            final boolean isGivenResolved = TradeUtils.applyCachedItemData(tradeData.givenItems);
+            if (!TradeUtils.applyCachedItemData(tradeData.receivedItems) || !isGivenResolved)
             {
-                final List<TradeRecordPanel> panels = tradeHistory.parallelStream().map(e -> {
-                    TradeRecordPanel tradeRecordPanel = new TradeRecordPanel(e);
-                    tradeRecordPanel.paddingStrut = Box.createVerticalStrut(TRADE_RECORD_PADDING);
-                    return tradeRecordPanel;
-                }).collect(Collectors.toList());
-                for (final TradeRecordPanel panel : panels)
+                unresolved.add(tradeData);
+            }
+        }
+        final CompletableFuture<Void> lookup = new CompletableFuture<>();
+        if (unresolved.isEmpty())
+        {
+            lookup.complete(null);
+        }
+        else
+        {
+            CommonUtils.getClientThread().invokeLater(() ->
+            {
+                try
+                {
+                    for (final TradeData tradeData : unresolved)
+                    {
+                        TradeUtils.fetchItemNames(tradeData.givenItems);
+                        TradeUtils.fetchItemNames(tradeData.receivedItems);
+                    }
+                }
+                finally
                 {
-                    tradeHistoryPanel.add(panel.paddingStrut, 0);
-                    tradeHistoryPanel.add(panel, 0);
+                    lookup.complete(null);
                 }
-                tradeHistoryPanel.setVisible(true);
-                updateEmptyHistoryMessages();
-                uiExecutorFuture = null;
+                SaveManager.requestItemCacheSave();
             });
+        }
+        uiExecutorFuture = executor.submit(() ->
+        {
+            lookup.join();
+            trades.parallelStream().forEach(TradeData::calculateAggregateValues);
+            task.run();
         });
     }
 
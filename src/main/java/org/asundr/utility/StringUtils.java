@@ -2,6 +2,7 @@ package org.asundr.utility;
 
 import com.google.gson.Gson;
 import net.runelite.client.util.QuantityFormatter;
+import org.asundr.trade.TradeTypeAdapters;
 
 import java.awt.*;
 import java.awt.datatransfer.StringSelection;
@@ -16,7 +17,12 @@ public class StringUtils
 {
     private static Gson gson;
 
-    public static void initialize(final Gson gson) { StringUtils.gson = gson; }
+    // Keeps a copy of the client's Gson with the trade model adapters registered. Gson is thread safe, so the copy is
+    // shared by every caller instead of being rebuilt each time.
+    public static void initialize(final Gson gson)
+    {
+        StringUtils.gson = gson.newBuilder().registerTypeAdapterFactory(TradeTypeAdapters.FACTORY).create();
+    }
 
     // Note: from Quantity formatter
     private static final NumberFormat DECIMAL_FORMATTER = new DecimalFormat("#,###.#", DecimalFormatSymbols.getInstance(Locale.ENGLISH) );
@@ -38,13 +44,13 @@ public class StringUtils
 
     public static Gson getGsonBuilder()
     {
-        return gson.newBuilder().create();
+        return gson;
     }
 
     // Converts the passed object to a json string
     public static <T> String stringify(T object)
     {
-        return gson.newBuilder().create().toJson(object);
+        return gson.toJson(object);
     }
 
     // Returns true if the passed String is a Long type
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LzBlockCodecTest
+{
+    @Test
+    public void decompressesAFullBlock() throws IOException
+    {
+        final byte[] src = sample(LzBlockCodec.BLOCK_SIZE);
+        final byte[] compressed = new byte[LzBlockCodec.maxCompressedLength(src.length)];
+        final int compressedLength = LzBlockCodec.compressBlock(src, src.length, compressed, new int[1 << 12]);
+        assertTrue(compressedLength < src.length);
+        final byte[] dst = new byte[LzBlockCodec.BLOCK_SIZE];
+        assertEquals(src.length, LzBlockCodec.decompressBlock(compressed, compressedLength, dst));
+        assertArrayEquals(src, dst);
+    }
+
+    @Test
+    public void roundTripsStreamsAroundTheBlockSize() throws IOException
+    {
+        final int[] lengths = {0, 1, 12, LzBlockCodec.BLOCK_SIZE - 1, LzBlockCodec.BLOCK_SIZE, LzBlockCodec.BLOCK_SIZE + 1, 3 * LzBlockCodec.BLOCK_SIZE + 123};
+        for (final int length : lengths)
+        {
+            final byte[] data = sample(length);
+            assertArrayEquals(data, decompress(compress(data)));
+        }
+    }
+
+    @Test
+    public void roundTripsIncompressibleData() throws IOException
+    {
+        final byte[] data = new byte[2 * LzBlockCodec.BLOCK_SIZE + 7];
+        new Random(7).nextBytes(data);
+        assertArrayEquals(data, decompress(compress(data)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATruncatedStream() throws IOException
+    {
+        final byte[] compressed = compress(sample(LzBlockCodec.BLOCK_SIZE + 1));
+        decompress(Arrays.copyOf(compressed, compressed.length / 2));
+    }
+
+    // Returns bytes that look like an encoded history: repeated structure with some variation
+    private static byte[] sample(final int length)
+    {
+        final Random random = new Random(length);
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i)
+        {
+            data[i] = (byte) (i % 7 == 0 ? random.nextInt(256) : i % 31);
+        }
+        return data;
+    }
+
+    private static byte[] compress(final byte[] data) throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final OutputStream out = new LzBlockCodec.BlockOutputStream(bytes))
+        {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] decompress(final byte[] compressed) throws IOException
+    {
+        try (final InputStream in = new LzBlockCodec.BlockInputStream(new ByteArrayInputStream(compressed)))
+        {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import org.asundr.trade.TradeData;
+import org.asundr.trade.TradeItemData;
+import org.asundr.trade.TradePlayerData;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SaveDataStreamsTest
+{
+    private static final CompressionUtils.Settings[] SETTINGS = {
+            CompressionUtils.Settings.none(),
+            CompressionUtils.Settings.fast(),
+            CompressionUtils.Settings.densest()
+    };
+
+    @Test
+    public void readsTheTradesOfAShard() throws IOException
+    {
+        final List<TradeData> trades = trades(2000);
+        for (final CompressionUtils.Settings settings : SETTINGS)
+        {
+            final List<TradeData> read = new ArrayList<>();
+            assertFalse(readShard(writeShard(trades, settings), read));
+            assertSameTrades(trades, read, trades.size());
+        }
+    }
+
+    @Test
+    public void onlyReadsTradesBeforeAFlippedByte() throws IOException
+    {
+        final List<TradeData> trades = trades(2000);
+        for (final CompressionUtils.Settings settings : SETTINGS)
+        {
+            final byte[] stored = writeShard(trades, settings);
+            stored[stored.length / 2] ^= 0x10;
+            final List<TradeData> read = new ArrayList<>();
+            assertTrue(readShard(stored, read));
+            assertTrue(read.size() < trades.size());
+            assertSameTrades(trades, read, read.size());
+        }
+    }
+
+    @Test
+    public void rejectsATruncatedShard() throws IOException
+    {
+        final byte[] stored = writeShard(trades(2000), CompressionUtils.Settings.none());
+        final byte[] truncated = new byte[stored.length - 1];
+        System.arraycopy(stored, 0, truncated, 0, truncated.length);
+        assertTrue(readShard(truncated, new ArrayList<>()));
+    }
+
+    private static byte[] writeShard(final List<TradeData> trades, final CompressionUtils.Settings settings) throws IOException
+    {
+        final ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        SaveDataStreams.writeShard(stored, trades, settings);
+        return stored.toByteArray();
+    }
+
+    // Reads the trades of a stored shard, newest first, into the passed list. Returns true if the shard is damaged.
+    private static boolean readShard(final byte[] stored, final List<TradeData> read)
+    {
+        try (final SaveDataStreams.ProfileReader reader = SaveDataStreams.openShard(new ByteArrayInputStream(stored)))
+        {
+            while (reader.hasNext())
+            {
+                read.add(reader.next());
+            }
+            return reader.isDamaged();
+        }
+        catch (IOException e)
+        {
+            return true;
+        }
+    }
+
+    // Checks that the passed number of trades read from a shard are the newest of the written trades, newest first
+    private static void assertSameTrades(final List<TradeData> written, final List<TradeData> read, final int count)
+    {
+        assertEquals(count, read.size());
+        for (int i = 0; i < count; ++i)
+        {
+            final TradeData expected = written.get(written.size() - 1 - i);
+            final TradeData actual = read.get(i);
+            assertEquals(expected.tradeTime, actual.tradeTime);
+            assertEquals(expected.tradedPlayer.tradeName, actual.tradedPlayer.tradeName);
+            assertEquals(expected.givenItems.get(0).getID(), actual.givenItems.get(0).getID());
+            assertEquals(expected.givenItems.get(0).getQuantity(), actual.givenItems.get(0).getQuantity());
+        }
+    }
+
+    // Returns trades ordered oldest to newest
+    private static List<TradeData> trades(final int count)
+    {
+        final Random random = new Random(count);
+        final List<TradeData> trades = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i)
+        {
+            final TradeData trade = new TradeData();
+            trade.tradeTime = 1700000000L + i * 37L;
+            trade.tradedPlayer = new TradePlayerData("Player " + random.nextInt(40));
+            trade.givenItems.add(new TradeItemData(random.nextInt(30000), 1 + random.nextInt(1000), random.nextInt(10000)));
+            trades.add(trade);
+        }
+        return trades;
+    }
+}
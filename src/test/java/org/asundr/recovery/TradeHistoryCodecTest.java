@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2025, Arun <trade-tracker-plugin.acwel@dralias.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.asundr.recovery;
+
+import org.asundr.trade.TradeData;
+import org.asundr.trade.TradeItemData;
+import org.asundr.trade.TradePlayerData;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TradeHistoryCodecTest
+{
+    @Test
+    public void decodesTheTradesItEncoded() throws IOException
+    {
+        final List<TradeData> trades = Arrays.asList(
+                trade(1700000000L, "Zezima", "", new TradeItemData(995, 25000, 1), null),
+                trade(1700000060L, "Zezima", "paid for the whip", null, new TradeItemData(4151, 1, 1500000)),
+                trade(1700003600L, null, "", new TradeItemData(1514, 300, 240), new TradeItemData(995, 72000, 1)));
+        final ArrayDeque<TradeData> decoded = TradeHistoryCodec.decode(new ByteArrayInputStream(encode(trades)));
+        assertEquals(trades.size(), decoded.size());
+        final Iterator<TradeData> it = decoded.iterator();
+        for (final TradeData expected : trades)
+        {
+            assertSameTrade(expected, it.next());
+        }
+    }
+
+    @Test
+    public void decodesAnEmptyHistory() throws IOException
+    {
+        assertEquals(0, TradeHistoryCodec.decode(new ByteArrayInputStream(encode(new ArrayList<>()))).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAnImplausibleNameCount() throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TradeHistoryCodec.writeVarLong(out, Integer.MAX_VALUE - 8);
+        TradeHistoryCodec.decode(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsATruncatedHistory() throws IOException
+    {
+        final byte[] encoded = encode(Arrays.asList(trade(1700000000L, "Zezima", "", new TradeItemData(995, 25000, 1), null)));
+        TradeHistoryCodec.decode(new ByteArrayInputStream(Arrays.copyOf(encoded, encoded.length - 1)));
+    }
+
+    private static byte[] encode(final List<TradeData> trades) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TradeHistoryCodec.encode(trades, out);
+        return out.toByteArray();
+    }
+
+    private static TradeData trade(final long tradeTime, final String name, final String note, final TradeItemData given, final TradeItemData received)
+    {
+        final TradeData trade = new TradeData();
+        trade.tradeTime = tradeTime;
+        trade.tradedPlayer = new TradePlayerData(name);
+        trade.note = note;
+        if (given != null)
+        {
+            trade.givenItems.add(given);
+        }
+        if (received != null)
+        {
+            trade.receivedItems.add(received);
+        }
+        return trade;
+    }
+
+    private static void assertSameTrade(final TradeData expected, final TradeData actual)
+    {
+        assertEquals(expected.tradeTime, actual.tradeTime);
+        assertEquals(expected.tradedPlayer.tradeName, actual.tradedPlayer.tradeName);
+        assertEquals(expected.note, actual.note);
+        assertSameItems(expected.givenItems, actual.givenItems);
+        assertSameItems(expected.receivedItems, actual.receivedItems);
+    }
+
+    private static void assertSameItems(final List<TradeItemData> expected, final List<TradeItemData> actual)
+    {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i)
+        {
+            assertEquals(expected.get(i).getID(), actual.get(i).getID());
+            assertEquals(expected.get(i).getQuantity(), actual.get(i).getQuantity());
+            assertEquals(expected.get(i).getGEValue(), actual.get(i).getGEValue());
+        }
+    }
+}